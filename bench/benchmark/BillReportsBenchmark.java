@@ -0,0 +1,65 @@
+package benchmark;
+
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import utility.BillReports;
+import utility.PatientBillCollection;
+import utility.PatientBillCollection.PatientBill;
+
+/**
+ * BillReportsBenchmark - Grouped aggregates over a large collection
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class BillReportsBenchmark {
+    @Param({"1000000"})
+    public int bills;
+
+    private PatientBillCollection collection;
+    private BillReports.PlanLookup plans;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        String[] dates = new String[730];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = LocalDate.of(2024, 1, 1).plusDays(i).toString();
+        }
+        final String[] planNames = {"Premium", "Standard", "Basic"};
+        plans = new BillReports.PlanLookup() {
+            @Override
+            public String planOf(int patientId) {
+                return planNames[patientId % planNames.length];
+            }
+        };
+
+        Random random = new Random(42);
+        int patients = Math.max(1, bills / 10);
+        collection = new PatientBillCollection(bills);
+        for (int i = 0; i < bills; i++) {
+            int patientId = random.nextInt(patients) + 1;
+            collection.addBill(new PatientBill(patientId, "Patient " + patientId,
+                dates[random.nextInt(dates.length)], random.nextInt(500000) / 1000.0));
+        }
+    }
+
+    @Benchmark
+    public int byPatient() {
+        return BillReports.byPatient(collection).groups.size();
+    }
+
+    @Benchmark
+    public int byMonth() {
+        return BillReports.byMonth(collection).groups.size();
+    }
+
+    @Benchmark
+    public int byInsurancePlan() {
+        return BillReports.byInsurancePlan(collection, plans).groups.size();
+    }
+}
@@ -0,0 +1,86 @@
+package benchmark;
+
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import utility.PatientBillCollection;
+import utility.PatientBillCollection.PatientBill;
+
+/**
+ * PatientBillCollectionBenchmark - Add, lookup, remove and iterate on a large collection
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class PatientBillCollectionBenchmark {
+    private static final String[] DATES = new String[365];
+
+    static {
+        for (int i = 0; i < DATES.length; i++) {
+            DATES[i] = LocalDate.of(2025, 1, 1).plusDays(i).toString();
+        }
+    }
+
+    @Param({"1000000"})
+    public int bills;
+
+    // Average bills per patient
+    @Param({"10"})
+    public int billsPerPatient;
+
+    private PatientBillCollection collection;
+    private int patients;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        patients = Math.max(1, bills / billsPerPatient);
+        random = new Random(42);
+        collection = new PatientBillCollection();
+        for (int i = 0; i < bills; i++) {
+            collection.addBill(newBill(random.nextInt(patients) + 1));
+        }
+    }
+
+    private PatientBill newBill(int patientId) {
+        String visitDate = DATES[patientId % DATES.length];
+        return new PatientBill(patientId, "Patient " + patientId, visitDate, 10 + (patientId % 170));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int lookup() {
+        return collection.getBills(random.nextInt(patients) + 1).size();
+    }
+
+    @Benchmark
+    public int addThenRemovePatient() {
+        // A fresh patient id outside the loaded range, so the collection size stays constant
+        int patientId = patients + 1;
+        for (int i = 0; i < billsPerPatient; i++) {
+            collection.addBill(newBill(patientId));
+        }
+        return collection.removeBills(patientId);
+    }
+
+    @Benchmark
+    public int billsOnOneDay() {
+        return collection.getBillsBetween("2025-01-04", "2025-01-04").size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int topTenBills() {
+        return collection.getTopBills(10).size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public double iterateAll() {
+        return collection.getTotalAmount();
+    }
+}
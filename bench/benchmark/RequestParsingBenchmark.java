@@ -0,0 +1,32 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import server.BillRequest;
+
+/**
+ * RequestParsingBenchmark - Cost of turning a request line into fields
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestParsingBenchmark {
+    private final String[] lines = {
+        "1,2025-01-04,Outpatient,CONS100",
+        "2,2025-02-11,Inpatient,LAB210",
+        "1048576,2025-03-30,Emergency,MRI700",
+        "42,2025-12-31,Outpatient,US400"
+    };
+    private final BillRequest request = new BillRequest();
+    private int next = 0;
+
+    @Benchmark
+    public int parse() {
+        String line = lines[next++ & 3];
+        request.parse(line);
+        return request.patientId;
+    }
+}
@@ -0,0 +1,51 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import server.Bill;
+import server.ResponseEncoder;
+import server.Tariff;
+import server.TariffEngine;
+
+/**
+ * ResponseFormattingBenchmark - Cost of rendering one bill reply
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseFormattingBenchmark {
+    private final Bill bill = new Bill();
+    private final ResponseEncoder encoder = new ResponseEncoder();
+
+    @Setup
+    public void setup() {
+        Tariff tariff = TariffEngine.current();
+        bill.patientId = 1;
+        bill.visitDay = 20092; // 2025-01-04
+        tariff.price(tariff.planId("Standard"), tariff.patientTypeId("Inpatient"), tariff.serviceId("MRI700"), bill);
+    }
+
+    @Benchmark
+    public int receipt() {
+        encoder.reset();
+        encoder.receipt(bill);
+        return encoder.size();
+    }
+
+    @Benchmark
+    public int compact() {
+        encoder.reset();
+        encoder.compact(bill);
+        return encoder.size();
+    }
+
+    @Benchmark
+    public int binary() {
+        encoder.reset();
+        encoder.binaryBill(1, bill);
+        return encoder.size();
+    }
+}
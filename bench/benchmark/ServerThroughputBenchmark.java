@@ -0,0 +1,158 @@
+package benchmark;
+
+import java.io.*;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import client.BillingConnection;
+import server.NioBillingServer;
+import server.InMemoryBillingRepository;
+import server.ServerResources;
+import server.WorkerPool;
+
+/**
+ * ServerThroughputBenchmark - End-to-end bills per second through the NIO server
+ * The server runs in the benchmark JVM, either on the embedded repository
+ * with an in-memory H2 database in MySQL mode or on the memory repository,
+ * so no external database is needed. Each benchmark thread is one
+ * keep-alive client pipelining a batch of requests.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ServerThroughputBenchmark {
+    static final int PORT = 5099;
+    static final int PIPELINE = 16;
+    static final int PATIENTS = 1000;
+    static final String DB_URL = "jdbc:h2:mem:billingbench;MODE=MySQL;DB_CLOSE_DELAY=-1";
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"embedded", "memory"})
+        public String repository;
+
+        NioBillingServer server;
+        ServerResources resources;
+        WorkerPool workerPool;
+        PrintStream console;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            System.setProperty("billing.repository", repository);
+            System.setProperty("billing.embedded.url", DB_URL);
+            // Requests repeat every few thousand; measure billing them, not answering resends
+            System.setProperty("billing.dedupe.windowMillis", "0");
+            if (repository.equals("embedded")) {
+                createSchema();
+            }
+
+            // The server reports every request on the console; keep benchmark output readable
+            console = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            }));
+
+            workerPool = WorkerPool.create();
+            resources = ServerResources.fromConfig();
+            if (resources.getRepository() instanceof InMemoryBillingRepository) {
+                String[] plans = {"Premium", "Standard", "Basic"};
+                for (int i = 1; i <= PATIENTS; i++) {
+                    ((InMemoryBillingRepository) resources.getRepository()).putPatient(i, plans[i % 3]);
+                }
+            }
+            server = new NioBillingServer(PORT, 2, workerPool, resources);
+            Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        server.run();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }, "bench-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            Thread.sleep(500);
+        }
+
+        private void createSchema() throws SQLException {
+            try (Connection conn = DriverManager.getConnection(DB_URL, "sa", "");
+                 Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS Patient ("
+                    + "patient_id INT PRIMARY KEY AUTO_INCREMENT, "
+                    + "name VARCHAR(50) NOT NULL, "
+                    + "age INT NOT NULL, "
+                    + "insurance_plan VARCHAR(20) NOT NULL)");
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS PatientBill ("
+                    + "bill_id INT PRIMARY KEY AUTO_INCREMENT, "
+                    + "patient_id INT NOT NULL, "
+                    + "visit_date DATE NOT NULL, "
+                    + "bill_amount DECIMAL(10, 2) NOT NULL, "
+                    + "FOREIGN KEY (patient_id) REFERENCES Patient(patient_id))");
+                String[] plans = {"Premium", "Standard", "Basic"};
+                try (PreparedStatement insert = conn.prepareStatement(
+                        "INSERT INTO Patient (name, age, insurance_plan) VALUES (?, ?, ?)")) {
+                    for (int i = 1; i <= PATIENTS; i++) {
+                        insert.setString(1, "Patient " + i);
+                        insert.setInt(2, 20 + i % 60);
+                        insert.setString(3, plans[i % 3]);
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            server.stopAccepting();
+            workerPool.shutdown(10);
+            server.closeConnections();
+            resources.close();
+            System.setOut(console);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        BillingConnection connection;
+        List<String> requests = new ArrayList<>(PIPELINE);
+        String[] services = {"CONS100", "LAB210", "IMG330", "US400", "MRI700"};
+        String[] types = {"Outpatient", "Inpatient", "Emergency"};
+        int next = 0;
+
+        @Setup(Level.Trial)
+        public void connect(Server server) throws IOException {
+            connection = new BillingConnection("localhost", PORT);
+            connection.enableKeepAlive();
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            connection.close();
+        }
+
+        List<String> nextBatch() {
+            requests.clear();
+            for (int i = 0; i < PIPELINE; i++) {
+                int n = next++;
+                requests.add((n % PATIENTS + 1) + ",2025-01-04," + types[n % 3] + "," + services[n % 5]);
+            }
+            return requests;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public int pipelinedBills(Client client) throws IOException {
+        return client.connection.submitAll(client.nextBatch()).size();
+    }
+}
@@ -0,0 +1,42 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import server.Bill;
+import server.Tariff;
+import server.TariffEngine;
+
+/**
+ * TariffBenchmark - Cost of resolving codes and pricing one bill
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TariffBenchmark {
+    private final String[] services = {"CONS100", "LAB210", "IMG330", "US400", "MRI700"};
+    private final String[] plans = {"Premium", "Standard", "Basic"};
+    private final String[] types = {"Outpatient", "Inpatient", "Emergency"};
+    private final Bill bill = new Bill();
+    private int next = 0;
+
+    @Benchmark
+    public double resolveAndPrice() {
+        int i = next++;
+        Tariff tariff = TariffEngine.current();
+        int serviceId = tariff.serviceId(services[i % 5]);
+        int planId = tariff.planId(plans[i % 3]);
+        int typeId = tariff.patientTypeId(types[(i / 3) % 3]);
+        tariff.price(planId, typeId, serviceId, bill);
+        return bill.finalAmount;
+    }
+
+    @Benchmark
+    public double priceByIds() {
+        int i = next++;
+        TariffEngine.current().price(i % 3, (i / 3) % 3, i % 5, bill);
+        return bill.finalAmount;
+    }
+}
@@ -1,5 +1,9 @@
 package client;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * BillingClient - Main client class
  * vi. Create a main class, instantiate Thread object, and start the Thread
@@ -9,8 +13,41 @@ public class BillingClient {
         String serverHost = "localhost";
         int serverPort = 5000;
         
+        // --bulk <file> submits a whole claim file and writes the results next to it
+        if (args.length > 1 && args[0].equals("--bulk")) {
+            submitBulk(serverHost, serverPort, new File(args[1]));
+            return;
+        }
+        
+        // --load [options] runs the headless load generator, see LoadGenerator
+        if (args.length > 0 && args[0].equals("--load")) {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        
+        // --keep-alive submits several bills over one connection
+        boolean keepAlive = args.length > 0 && args[0].equals("--keep-alive");
+        
         // vi. Create thread and start it
-        ClientThread clientThread = new ClientThread(serverHost, serverPort);
+        ClientThread clientThread = new ClientThread(serverHost, serverPort, keepAlive);
         clientThread.start();
     }
+    
+    private static void submitBulk(String host, int port, File claims) {
+        File resultsFile = new File(claims.getPath() + ".results");
+        long start = System.currentTimeMillis();
+        try (BillingConnection conn = new BillingConnection(host, port);
+             BufferedReader records = new BufferedReader(new InputStreamReader(
+                 new FileInputStream(claims), StandardCharsets.UTF_8));
+             Writer results = new BufferedWriter(new OutputStreamWriter(
+                 new FileOutputStream(resultsFile), StandardCharsets.UTF_8))) {
+            String[] done = conn.submitBulk(records, results).split(",");
+            System.out.println("Bulk submission of " + claims + " finished in "
+                + (System.currentTimeMillis() - start) + " ms");
+            System.out.println("Records: " + done[1] + ", billed: " + done[2] + ", failed: " + done[3]);
+            System.out.println("Results written to " + resultsFile);
+        } catch (IOException e) {
+            System.out.println("Bulk submission failed: " + e.getMessage());
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,231 @@
+package client;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BillingConnection - One connection to the billing server
+ * In keep-alive mode many requests share the socket: send() writes a tagged
+ * request without waiting, so several can be pipelined, and readResponse()
+ * returns the replies in the same order the requests were sent.
+ */
+public class BillingConnection implements Closeable {
+    private final Socket socket;
+    private final PrintWriter out;
+    private final BufferedReader in;
+    private boolean keepAlive = false;
+    private long nextRequestId = 1;
+
+    public BillingConnection(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false);
+        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    }
+
+    /**
+     * Switch the connection to keep-alive mode
+     * @throws IOException if the server does not support it
+     */
+    public void enableKeepAlive() throws IOException {
+        out.println("KEEPALIVE");
+        out.flush();
+        String reply = in.readLine();
+        if (!"OK KEEPALIVE".equals(reply)) {
+            throw new IOException("Server refused keep-alive: " + reply);
+        }
+        keepAlive = true;
+    }
+
+    /**
+     * Ask for one-line "OK,..." replies instead of the full receipt
+     * @throws IOException if the server does not support it
+     */
+    public void enableCompactReplies() throws IOException {
+        out.println("MODE COMPACT");
+        out.flush();
+        String reply = in.readLine();
+        if (!"OK MODE COMPACT".equals(reply)) {
+            throw new IOException("Server refused compact replies: " + reply);
+        }
+    }
+
+    /**
+     * Codes - The codes the server currently accepts
+     */
+    public static class Codes {
+        public String tariffVersion;
+        public List<String> services = new ArrayList<>();
+        public List<String> patientTypes = new ArrayList<>();
+        public List<String> insurancePlans = new ArrayList<>();
+    }
+
+    /**
+     * Ask the server which service codes, patient types and plans its tariff has
+     * @throws IOException if the server does not answer with a code list
+     */
+    public Codes fetchCodes() throws IOException {
+        out.println("CODES");
+        out.flush();
+        Codes codes = new Codes();
+        String line;
+        while ((line = in.readLine()) != null && !line.equals("END")) {
+            int space = line.indexOf(' ');
+            String name = space < 0 ? line : line.substring(0, space);
+            String value = space < 0 ? "" : line.substring(space + 1);
+            if (name.equals("TARIFF")) {
+                codes.tariffVersion = value;
+            } else if (name.equals("SERVICES")) {
+                codes.services.addAll(Arrays.asList(value.split(",")));
+            } else if (name.equals("TYPES")) {
+                codes.patientTypes.addAll(Arrays.asList(value.split(",")));
+            } else if (name.equals("PLANS")) {
+                codes.insurancePlans.addAll(Arrays.asList(value.split(",")));
+            } else {
+                throw new IOException("Server refused code list: " + line);
+            }
+        }
+        if (line == null) {
+            throw new EOFException("Server closed the connection");
+        }
+        return codes;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Queue one request without waiting for its reply
+     * Call flush() once a batch of requests has been queued.
+     * @return the request id the reply will carry
+     */
+    public String send(String request) {
+        if (!keepAlive) {
+            out.println(request);
+            return null;
+        }
+        String requestId = Long.toString(nextRequestId++);
+        out.println("REQ " + requestId + " " + request);
+        return requestId;
+    }
+
+    public void flush() {
+        out.flush();
+    }
+
+    /**
+     * Read the next reply, up to and excluding its END line
+     * @param expectedId id returned by send(), checked against the reply in keep-alive mode
+     */
+    public List<String> readResponse(String expectedId) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line = in.readLine();
+        if (line == null) {
+            throw new EOFException("Server closed the connection");
+        }
+        if (keepAlive && line.startsWith("RES ")) {
+            String responseId = line.substring(4);
+            if (expectedId != null && !expectedId.equals(responseId)) {
+                throw new IOException("Reply out of order: expected " + expectedId + " but got " + responseId);
+            }
+            line = in.readLine();
+        }
+        while (line != null && !line.equals("END")) {
+            lines.add(line);
+            line = in.readLine();
+        }
+        return lines;
+    }
+
+    /**
+     * Send a batch of requests in one write and collect their replies in order
+     */
+    public List<List<String>> submitAll(List<String> requests) throws IOException {
+        List<String> ids = new ArrayList<>(requests.size());
+        for (String request : requests) {
+            ids.add(send(request));
+        }
+        flush();
+        List<List<String>> responses = new ArrayList<>(requests.size());
+        for (String id : ids) {
+            responses.add(readResponse(id));
+        }
+        return responses;
+    }
+
+    /**
+     * Stream claim records as one BULK submission, copying each result line to results
+     * Records are sent from a separate thread so results can be read while the
+     * upload is still running; otherwise both sides could block on full buffers.
+     * @return the closing "DONE,<records>,<billed>,<failed>" line
+     */
+    public String submitBulk(final BufferedReader records, Writer results) throws IOException {
+        final IOException[] sendError = new IOException[1];
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    out.println("BULK");
+                    String record;
+                    while ((record = records.readLine()) != null) {
+                        out.println(record);
+                    }
+                    out.println("END");
+                    out.flush();
+                } catch (IOException e) {
+                    sendError[0] = e;
+                }
+            }
+        }, "bulk-sender");
+        sender.start();
+
+        String reply = in.readLine();
+        if (!"OK BULK".equals(reply)) {
+            throw new IOException("Server refused bulk submission: " + reply);
+        }
+        String done = null;
+        String line;
+        while ((line = in.readLine()) != null && !line.equals("END")) {
+            if (line.startsWith("DONE,")) {
+                done = line;
+            } else {
+                results.write(line);
+                results.write('\n');
+            }
+        }
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (sendError[0] != null) {
+            throw sendError[0];
+        }
+        if (done == null) {
+            throw new EOFException("Server closed the connection before the bulk submission finished");
+        }
+        return done;
+    }
+
+    /**
+     * Close the connection, saying goodbye first in keep-alive mode
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (keepAlive && !socket.isClosed()) {
+                out.println("QUIT");
+                out.flush();
+                in.readLine();
+            }
+        } finally {
+            in.close();
+            out.close();
+            socket.close();
+        }
+    }
+}
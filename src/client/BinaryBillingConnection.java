@@ -0,0 +1,281 @@
+package client;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BinaryBillingConnection - Connection speaking the server's binary frames
+ * Requests carry tariff ids instead of names and amounts come back as
+ * fixed-point integers, so neither side formats or parses text per bill.
+ * Like BillingConnection, send() only queues a request so several can be
+ * pipelined; readReply() returns the replies in request order.
+ * The ids and the tariff layout they belong to are fetched with a CODES
+ * frame when the connection opens. Once the server's tariff changes them,
+ * bills come back stale; call refreshCodes() and send them again.
+ */
+public class BinaryBillingConnection implements Closeable {
+    // Frame types and statuses, as defined by server.BinaryProtocol
+    private static final String MODE_LINE = "MODE BINARY";
+    private static final int BILL = 1;
+    private static final int QUIT = 2;
+    private static final int CODES = 3;
+    private static final int OK = 0;
+    private static final int BYE = 2;
+    private static final int CODES_REPLY = 3;
+    private static final int STALE = 4;
+    private static final int MAX_REPLY_BYTES = 1 << 20;
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private byte[] replyBuffer = new byte[1024];
+    private int nextRequestId = 1;
+
+    // Ids of the codes, from the last CODES reply
+    private int tariffVersion;
+    private int layout;
+    private Map<String, Integer> serviceIds;
+    private Map<String, Integer> patientTypeIds;
+    private String[] insurancePlans;
+
+    public BinaryBillingConnection(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        out.write((MODE_LINE + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        String reply = readLine();
+        if (!("OK " + MODE_LINE).equals(reply)) {
+            throw new IOException("Server refused binary mode: " + reply);
+        }
+        refreshCodes();
+    }
+
+    /**
+     * Fetch the server's current code ids; only call with no replies outstanding
+     */
+    public void refreshCodes() throws IOException {
+        int requestId = nextRequestId++;
+        out.writeInt(5);
+        out.writeByte(CODES);
+        out.writeInt(requestId);
+        out.flush();
+        DataInputStream frame = readFrame(requestId);
+        if (frame.readUnsignedByte() != CODES_REPLY) {
+            throw new IOException("Server did not send its codes");
+        }
+        frame.readInt();
+        tariffVersion = frame.readInt();
+        layout = frame.readInt();
+        serviceIds = readIds(frame);
+        patientTypeIds = readIds(frame);
+        String[] plans = new String[frame.readUnsignedShort()];
+        for (int i = 0; i < plans.length; i++) {
+            frame.readUnsignedByte();
+            plans[i] = readString(frame);
+        }
+        insurancePlans = plans;
+    }
+
+    /**
+     * Codes the tariff still accepts, by id
+     */
+    private static Map<String, Integer> readIds(DataInputStream frame) throws IOException {
+        int count = frame.readUnsignedShort();
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            boolean retired = frame.readUnsignedByte() != 0;
+            String code = readString(frame);
+            if (!retired) {
+                ids.put(code, i);
+            }
+        }
+        return ids;
+    }
+
+    private static String readString(DataInputStream frame) throws IOException {
+        byte[] bytes = new byte[frame.readUnsignedShort()];
+        frame.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Id of a service code, -1 if the server does not offer it
+     */
+    public int serviceId(String serviceCode) {
+        Integer id = serviceIds.get(serviceCode);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Id of a patient type, -1 if the server does not know it
+     */
+    public int patientTypeId(String patientType) {
+        Integer id = patientTypeIds.get(patientType);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Name of the insurance plan id in an OK reply
+     */
+    public String insurancePlan(int planId) {
+        return insurancePlans[planId];
+    }
+
+    /**
+     * Tariff version the ids were fetched from
+     */
+    public int getTariffVersion() {
+        return tariffVersion;
+    }
+
+    /**
+     * Reply - One decoded reply frame
+     * Amounts are in baisa (1/1000 OMR) and rates in basis points.
+     */
+    public static class Reply {
+        public int requestId;
+        public boolean ok;
+        // Not billed: the ids were sent for an older tariff; refreshCodes() and resend
+        public boolean stale;
+        public String error;
+        public int patientId;
+        public LocalDate visitDate;
+        public int patientType;
+        public int serviceCode;
+        public int insurancePlan;
+        public int discountRate;
+        public int extraChargeRate;
+        public long serviceAmount;
+        public long insuranceDiscount;
+        public long discountedAmount;
+        public long perVisitFee;
+        public long subtotal;
+        public long extraCharge;
+        public long finalAmount;
+        public int tariffVersion;
+    }
+
+    /**
+     * Queue one bill request without waiting for its reply
+     * Call flush() once a batch of requests has been queued.
+     * @param patientType id from patientTypeId()
+     * @param serviceCode id from serviceId()
+     * @return the request id the reply will carry
+     */
+    public int send(int patientId, LocalDate visitDate, int patientType, int serviceCode) throws IOException {
+        int requestId = nextRequestId++;
+        out.writeInt(20);
+        out.writeByte(BILL);
+        out.writeInt(requestId);
+        out.writeInt(layout);
+        out.writeInt(patientId);
+        out.writeInt((int) visitDate.toEpochDay());
+        out.writeByte(patientType);
+        out.writeShort(serviceCode);
+        return requestId;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Read and decode the next reply frame
+     * @param expectedId id returned by send(), checked against the reply
+     */
+    public Reply readReply(int expectedId) throws IOException {
+        DataInputStream frame = readFrame(expectedId);
+        Reply reply = new Reply();
+        int status = frame.readUnsignedByte();
+        reply.requestId = frame.readInt();
+        reply.ok = status == OK;
+        if (!reply.ok) {
+            if (status == BYE) {
+                throw new EOFException("Server closed the connection");
+            }
+            if (status == STALE) {
+                reply.stale = true;
+                reply.error = "Tariff codes have changed";
+                return reply;
+            }
+            reply.error = readString(frame);
+            return reply;
+        }
+        reply.patientId = frame.readInt();
+        reply.visitDate = LocalDate.ofEpochDay(frame.readInt());
+        reply.patientType = frame.readUnsignedByte();
+        reply.serviceCode = frame.readUnsignedShort();
+        reply.insurancePlan = frame.readUnsignedByte();
+        reply.discountRate = frame.readInt();
+        reply.extraChargeRate = frame.readInt();
+        reply.serviceAmount = frame.readLong();
+        reply.insuranceDiscount = frame.readLong();
+        reply.discountedAmount = frame.readLong();
+        reply.perVisitFee = frame.readLong();
+        reply.subtotal = frame.readLong();
+        reply.extraCharge = frame.readLong();
+        reply.finalAmount = frame.readLong();
+        reply.tariffVersion = frame.readInt();
+        return reply;
+    }
+
+    /**
+     * Read the next reply frame and check it answers expectedId
+     * @return the frame body, positioned at its status byte
+     */
+    private DataInputStream readFrame(int expectedId) throws IOException {
+        int length = in.readInt();
+        if (length < 5 || length > MAX_REPLY_BYTES) {
+            throw new IOException("Bad reply frame length: " + length);
+        }
+        if (length > replyBuffer.length) {
+            replyBuffer = new byte[Math.max(length, replyBuffer.length * 2)];
+        }
+        in.readFully(replyBuffer, 0, length);
+        int requestId = ((replyBuffer[1] & 0xFF) << 24) | ((replyBuffer[2] & 0xFF) << 16)
+            | ((replyBuffer[3] & 0xFF) << 8) | (replyBuffer[4] & 0xFF);
+        if (requestId != expectedId && requestId != 0) {
+            throw new IOException("Reply out of order: expected " + expectedId + " but got " + requestId);
+        }
+        return new DataInputStream(new ByteArrayInputStream(replyBuffer, 0, length));
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.length() > 0 ? line.toString() : null;
+            }
+            if (b != '\r') line.append((char) b);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Close the connection, saying goodbye first
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!socket.isClosed()) {
+                out.writeInt(5);
+                out.writeByte(QUIT);
+                out.writeInt(0);
+                out.flush();
+                in.readInt();
+            }
+        } finally {
+            in.close();
+            out.close();
+            socket.close();
+        }
+    }
+}
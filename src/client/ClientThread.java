@@ -2,6 +2,8 @@ package client;
 
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -11,11 +13,23 @@ import java.util.Scanner;
 public class ClientThread extends Thread {
     private String serverHost;
     private int serverPort;
+    private boolean keepAlive;
+    
+    // Valid codes, as listed by the server
+    private BillingConnection.Codes codes;
     
     // Constructor
     public ClientThread(String host, int port) {
+        this(host, port, false);
+    }
+    
+    /**
+     * @param keepAlive submit several bills over one connection instead of one per connection
+     */
+    public ClientThread(String host, int port, boolean keepAlive) {
         this.serverHost = host;
         this.serverPort = port;
+        this.keepAlive = keepAlive;
     }
     
     /**
@@ -24,50 +38,48 @@ public class ClientThread extends Thread {
      */
     @Override
     public void run() {
-        Socket socket = null;
-        PrintWriter out = null;
-        BufferedReader in = null;
+        BillingConnection connection = null;
         Scanner scanner = new Scanner(System.in);
         
         try {
             // ii. Request connection to the server
             System.out.println("=== MediCare Billing System - Client ===");
             System.out.println("Connecting to server at " + serverHost + ":" + serverPort);
-            socket = new Socket(serverHost, serverPort);
-            System.out.println("✓ Connected to server successfully\n");
-            
-            // Initialize input/output streams
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            
-            // iii. Accept and forward the necessary data to the server
-            System.out.println("--- Enter Patient Billing Information ---");
-            
-            // Input Patient ID
-            int patientId = getValidInteger("Enter Patient ID: ", scanner);
+            connection = new BillingConnection(serverHost, serverPort);
+            System.out.println("✓ Connected to server successfully");
+            codes = connection.fetchCodes();
+            System.out.println("✓ Tariff version " + codes.tariffVersion + " loaded from server\n");
             
-            // Input Visit Date
-            String visitDate = getValidDate("Enter Visit Date (YYYY-MM-DD): ", scanner);
-            
-            // Input Patient Type
-            String patientType = getValidPatientType("Enter Patient Type (Outpatient/Inpatient/Emergency): ", scanner);
-            
-            // Input Service Code
-            String serviceCode = getValidServiceCode("Enter Service Code (CONS100/LAB210/IMG330/US400/MRI700): ", scanner);
-            
-            // Send data to server
-            String request = patientId + "," + visitDate + "," + patientType + "," + serviceCode;
-            out.println(request);
-            System.out.println("\n✓ Request sent to server: " + request);
-            
-            // iv. Receive the bill details and display
-            System.out.println("\n--- Bill Details ---");
-            String response;
-            while ((response = in.readLine()) != null) {
-                if (response.equals("END")) {
-                    break;
-                }
-                System.out.println(response);
+            if (keepAlive) {
+                connection.enableKeepAlive();
+                System.out.println("✓ Keep-alive mode enabled\n");
+                do {
+                    int count = getValidInteger("Number of bills to submit: ", scanner);
+                    List<String> requests = new ArrayList<>(count);
+                    for (int i = 1; i <= count; i++) {
+                        System.out.println("\n--- Bill " + i + " of " + count + " ---");
+                        requests.add(readBillRequest(scanner));
+                    }
+                    
+                    // Pipeline the whole batch, then read replies in the same order
+                    List<List<String>> responses = connection.submitAll(requests);
+                    System.out.println("\n✓ " + count + " request(s) sent to server");
+                    for (int i = 0; i < responses.size(); i++) {
+                        System.out.println("\n--- Bill Details (" + requests.get(i) + ") ---");
+                        printLines(responses.get(i));
+                    }
+                } while (askYesNo("\nSubmit more bills on this connection? (y/n): ", scanner));
+            } else {
+                // iii. Accept and forward the necessary data to the server
+                System.out.println("--- Enter Patient Billing Information ---");
+                String request = readBillRequest(scanner);
+                connection.send(request);
+                connection.flush();
+                System.out.println("\n✓ Request sent to server: " + request);
+                
+                // iv. Receive the bill details and display
+                System.out.println("\n--- Bill Details ---");
+                printLines(connection.readResponse(null));
             }
             
             System.out.println("\n✓ Bill calculation completed");
@@ -79,10 +91,8 @@ public class ClientThread extends Thread {
         } finally {
             // v. Close the connection after use
             try {
-                if (in != null) in.close();
-                if (out != null) out.close();
-                if (socket != null) {
-                    socket.close();
+                if (connection != null) {
+                    connection.close();
                     System.out.println("\n✓ Connection closed");
                 }
             } catch (IOException e) {
@@ -92,6 +102,38 @@ public class ClientThread extends Thread {
         }
     }
     
+    /**
+     * Prompt for one bill and build the request line
+     */
+    private String readBillRequest(Scanner scanner) {
+        // Input Patient ID
+        int patientId = getValidInteger("Enter Patient ID: ", scanner);
+        
+        // Input Visit Date
+        String visitDate = getValidDate("Enter Visit Date (YYYY-MM-DD): ", scanner);
+        
+        // Input Patient Type
+        String patientType = getValidPatientType("Enter Patient Type (" + String.join("/", codes.patientTypes)
+            + "): ", scanner);
+        
+        // Input Service Code
+        String serviceCode = getValidServiceCode("Enter Service Code (" + String.join("/", codes.services) + "): ",
+            scanner);
+        
+        return patientId + "," + visitDate + "," + patientType + "," + serviceCode;
+    }
+    
+    private void printLines(List<String> lines) {
+        for (String line : lines) {
+            System.out.println(line);
+        }
+    }
+    
+    private boolean askYesNo(String prompt, Scanner scanner) {
+        System.out.print(prompt);
+        return scanner.nextLine().trim().equalsIgnoreCase("y");
+    }
+    
     /**
      * Input validation for Patient ID
      */
@@ -133,13 +175,12 @@ public class ClientThread extends Thread {
         while (true) {
             System.out.print(prompt);
             String type = scanner.nextLine().trim();
-            if (type.equalsIgnoreCase("Outpatient") || 
-                type.equalsIgnoreCase("Inpatient") || 
-                type.equalsIgnoreCase("Emergency")) {
-                return type.substring(0, 1).toUpperCase() + type.substring(1).toLowerCase();
-            } else {
-                System.out.println("✗ Invalid type. Choose: Outpatient, Inpatient, or Emergency");
+            for (String valid : codes.patientTypes) {
+                if (type.equalsIgnoreCase(valid)) {
+                    return valid;
+                }
             }
+            System.out.println("✗ Invalid type. Choose: " + String.join(", ", codes.patientTypes));
         }
     }
     
@@ -147,16 +188,15 @@ public class ClientThread extends Thread {
      * Input validation for Service Code
      */
     private String getValidServiceCode(String prompt, Scanner scanner) {
-        String[] validCodes = {"CONS100", "LAB210", "IMG330", "US400", "MRI700"};
         while (true) {
             System.out.print(prompt);
-            String code = scanner.nextLine().trim().toUpperCase();
-            for (String valid : validCodes) {
-                if (code.equals(valid)) {
-                    return code;
+            String code = scanner.nextLine().trim();
+            for (String valid : codes.services) {
+                if (code.equalsIgnoreCase(valid)) {
+                    return valid;
                 }
             }
-            System.out.println("✗ Invalid service code. Valid codes: CONS100, LAB210, IMG330, US400, MRI700");
+            System.out.println("✗ Invalid service code. Valid codes: " + String.join(", ", codes.services));
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,316 @@
+package client;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoadGenerator - Headless load test against the billing server
+ * Runs N clients, each with its own keep-alive connection in compact reply
+ * mode, on virtual threads when the JVM has them. Requests are drawn from
+ * a weighted mix of service codes and patient types and a range of
+ * patient ids.
+ *   closed - each client sends its next request as soon as the reply arrives
+ *   open   - requests are scheduled at a fixed total rate; latency is measured
+ *            from the scheduled time, so a slow server cannot hide its
+ *            queueing by slowing the clients down
+ * Nothing is recorded during the warmup; at the end the throughput and
+ * exact latency percentiles of the measured period are printed.
+ *
+ * Usage: java client.LoadGenerator [--host localhost] [--port 5000] [--clients 50]
+ *        [--mode closed|open] [--rate 1000] [--warmup 10] [--duration 60]
+ *        [--patients 1-1000] [--services CONS100:4,LAB210:3,IMG330:2,US400:1,MRI700:1]
+ *        [--types Outpatient:6,Inpatient:3,Emergency:1]
+ */
+public class LoadGenerator {
+    private String host = "localhost";
+    private int port = 5000;
+    private int clients = 50;
+    private boolean openLoop = false;
+    private double rate = 1000;
+    private int warmupSeconds = 10;
+    private int durationSeconds = 60;
+    private int firstPatient = 1;
+    private int lastPatient = 1000;
+    private WeightedChoice services = WeightedChoice.parse("CONS100:4,LAB210:3,IMG330:2,US400:1,MRI700:1");
+    private WeightedChoice types = WeightedChoice.parse("Outpatient:6,Inpatient:3,Emergency:1");
+
+    // Shared across clients
+    private final long runId = System.currentTimeMillis();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private long measureStart;
+    private long measureEnd;
+
+    public static void main(String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println("✗ " + e.getMessage());
+            System.out.println("Usage: java client.LoadGenerator [--host h] [--port p] [--clients n] "
+                + "[--mode closed|open] [--rate perSecond] [--warmup s] [--duration s] "
+                + "[--patients from-to] [--services CODE:weight,...] [--types TYPE:weight,...]");
+            return;
+        }
+        generator.run();
+    }
+
+    void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--host": host = value; break;
+                    case "--port": port = Integer.parseInt(value); break;
+                    case "--clients": clients = Integer.parseInt(value); break;
+                    case "--mode":
+                        if (!value.equals("open") && !value.equals("closed")) {
+                            throw new IllegalArgumentException("Mode must be open or closed: " + value);
+                        }
+                        openLoop = value.equals("open");
+                        break;
+                    case "--rate": rate = Double.parseDouble(value); break;
+                    case "--warmup": warmupSeconds = Integer.parseInt(value); break;
+                    case "--duration": durationSeconds = Integer.parseInt(value); break;
+                    case "--patients": {
+                        int dash = value.indexOf('-');
+                        firstPatient = Integer.parseInt(dash < 0 ? value : value.substring(0, dash));
+                        lastPatient = dash < 0 ? firstPatient : Integer.parseInt(value.substring(dash + 1));
+                        break;
+                    }
+                    case "--services": services = WeightedChoice.parse(value); break;
+                    case "--types": types = WeightedChoice.parse(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+            }
+        }
+        if (clients < 1 || durationSeconds < 1 || warmupSeconds < 0 || rate <= 0 || lastPatient < firstPatient) {
+            throw new IllegalArgumentException("Clients, duration and rate must be positive and the patient range ascending");
+        }
+    }
+
+    void run() {
+        System.out.println("=== MediCare Billing Load Generator ===");
+        System.out.println("Target " + host + ":" + port + ", " + clients + " clients, "
+            + (openLoop ? "open loop at " + rate + " req/s" : "closed loop")
+            + ", warmup " + warmupSeconds + " s, duration " + durationSeconds + " s");
+
+        long start = System.nanoTime();
+        measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        measureEnd = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        ExecutorService executor = newExecutor();
+        List<Future<ClientResult>> futures = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            futures.add(executor.submit(new LoadClient(i, start)));
+        }
+        List<ClientResult> results = new ArrayList<>(clients);
+        for (Future<ClientResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                System.out.println("✗ Client failed: " + e.getCause());
+            }
+        }
+        executor.shutdownNow();
+        report(results);
+    }
+
+    /**
+     * One virtual thread per client when available (Java 21+), otherwise a platform thread each
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * ClientResult - Latencies and outcome counts of one client's measured period
+     */
+    private static final class ClientResult {
+        long[] latencies = new long[1024];
+        int count = 0;
+        long errors = 0;
+        long busy = 0;
+        long ioFailures = 0;
+
+        void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+    }
+
+    /**
+     * LoadClient - One connection sending requests until the run ends
+     */
+    private final class LoadClient implements Callable<ClientResult> {
+        private final int index;
+        private final long start;
+        private final Random random;
+        // Open loop: time between this client's requests
+        private final long intervalNanos;
+
+        LoadClient(int index, long start) {
+            this.index = index;
+            this.start = start;
+            this.random = new Random(index * 7919L + 1);
+            this.intervalNanos = (long) (1_000_000_000L * clients / rate);
+        }
+
+        @Override
+        public ClientResult call() throws Exception {
+            ClientResult result = new ClientResult();
+            String visitDate = LocalDate.now().toString();
+            // Spread the clients' first requests over one interval
+            long next = start + (openLoop ? (long) (random.nextDouble() * intervalNanos) : 0);
+            long sequence = 0;
+            while (System.nanoTime() < measureEnd) {
+                try (BillingConnection conn = new BillingConnection(host, port)) {
+                    conn.enableKeepAlive();
+                    conn.enableCompactReplies();
+                    long now;
+                    while ((now = System.nanoTime()) < measureEnd) {
+                        long scheduled = now;
+                        if (openLoop) {
+                            if (next > now) {
+                                TimeUnit.NANOSECONDS.sleep(next - now);
+                            }
+                            scheduled = next;
+                            next += intervalNanos;
+                        }
+                        int patientId = firstPatient + random.nextInt(lastPatient - firstPatient + 1);
+                        // A unique idempotency key, so repeated combinations are billed rather than deduplicated
+                        String id = conn.send(patientId + "," + visitDate + "," + types.next(random) + ","
+                            + services.next(random) + ",load-" + runId + "-" + index + "-" + sequence++);
+                        conn.flush();
+                        List<String> reply = conn.readResponse(id);
+                        long done = System.nanoTime();
+                        if (scheduled < measureStart || done > measureEnd) continue;
+
+                        String first = reply.isEmpty() ? "" : reply.get(0);
+                        if (first.startsWith("OK,")) {
+                            result.record(done - scheduled);
+                        } else if (first.startsWith("BUSY")) {
+                            result.busy++;
+                        } else {
+                            result.errors++;
+                        }
+                    }
+                } catch (IOException e) {
+                    // Reconnect after a short pause; failures while measuring are counted
+                    if (System.nanoTime() >= measureStart) {
+                        result.ioFailures++;
+                    }
+                    connectFailures.incrementAndGet();
+                    TimeUnit.MILLISECONDS.sleep(100);
+                }
+            }
+            return result;
+        }
+    }
+
+    private void report(List<ClientResult> results) {
+        int total = 0;
+        long errors = 0, busy = 0, ioFailures = 0;
+        for (ClientResult r : results) {
+            total += r.count;
+            errors += r.errors;
+            busy += r.busy;
+            ioFailures += r.ioFailures;
+        }
+        long[] all = new long[total];
+        int at = 0;
+        for (ClientResult r : results) {
+            System.arraycopy(r.latencies, 0, all, at, r.count);
+            at += r.count;
+        }
+        Arrays.sort(all);
+        double sum = 0;
+        for (long nanos : all) {
+            sum += nanos;
+        }
+
+        System.out.println("\n=== Results (" + durationSeconds + " s measured) ===");
+        System.out.println("Successful bills: " + total);
+        System.out.println("Error replies:    " + errors);
+        System.out.println("Busy replies:     " + busy);
+        System.out.println("I/O failures:     " + ioFailures + " (reconnects overall: " + connectFailures.get() + ")");
+        System.out.println(String.format("Throughput:       %.1f bills/s", total / (double) durationSeconds));
+        if (total == 0) {
+            System.out.println("✗ No successful requests, no latency figures");
+            return;
+        }
+        System.out.println(String.format("Latency (ms):     mean %.3f  p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f",
+            sum / total / 1e6, percentile(all, 0.50), percentile(all, 0.90),
+            percentile(all, 0.99), percentile(all, 0.999), all[total - 1] / 1e6));
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+
+    /**
+     * WeightedChoice - Picks names in proportion to their weights
+     */
+    static final class WeightedChoice {
+        private final String[] names;
+        private final int[] cumulative;
+
+        private WeightedChoice(String[] names, int[] cumulative) {
+            this.names = names;
+            this.cumulative = cumulative;
+        }
+
+        /**
+         * @param spec "NAME:weight,NAME:weight,..."; a missing weight counts as 1
+         */
+        static WeightedChoice parse(String spec) {
+            String[] parts = spec.split(",");
+            String[] names = new String[parts.length];
+            int[] cumulative = new int[parts.length];
+            int total = 0;
+            for (int i = 0; i < parts.length; i++) {
+                int colon = parts[i].indexOf(':');
+                names[i] = (colon < 0 ? parts[i] : parts[i].substring(0, colon)).trim();
+                int weight = colon < 0 ? 1 : Integer.parseInt(parts[i].substring(colon + 1).trim());
+                if (weight < 0 || names[i].isEmpty()) {
+                    throw new IllegalArgumentException("Bad weighted choice: " + parts[i]);
+                }
+                total += weight;
+                cumulative[i] = total;
+            }
+            if (total == 0) {
+                throw new IllegalArgumentException("All weights are zero: " + spec);
+            }
+            return new WeightedChoice(names, cumulative);
+        }
+
+        String next(Random random) {
+            int pick = random.nextInt(cumulative[cumulative.length - 1]);
+            int i = 0;
+            while (cumulative[i] <= pick) {
+                i++;
+            }
+            return names[i];
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package database;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Properties;
+
+/**
+ * BillExport - Streams bills joined with their patient to a CSV or binary file
+ * Rows are read through a forward-only cursor that fetches FETCH_SIZE rows
+ * at a time and are encoded into one fixed direct buffer that is written to
+ * a FileChannel whenever it fills, so memory use does not grow with the
+ * table. A checkpoint file next to the output records the last exported
+ * bill_id and the file length; --resume truncates back to that length and
+ * continues after that bill.
+ *
+ * Usage: java database.BillExport outputFile [YYYY-MM] [--binary] [--resume]
+ *
+ * CSV columns: bill_id,patient_id,name,insurance_plan,visit_date,bill_amount
+ * Binary file: "MCBX" magic, int version, then per bill: long bill_id,
+ * int patient_id, int visit_date as epoch day, long bill_amount in baisa,
+ * name and insurance_plan as unsigned-short length and UTF-8 bytes.
+ */
+public class BillExport {
+    static final String DB_URL = DatabaseSetup.withParameters(DatabaseSetup.DB_URL, "useCursorFetch=true");
+
+    private static final int FETCH_SIZE = 1000;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+
+    static final byte[] BINARY_MAGIC = {'M', 'C', 'B', 'X'};
+    static final int BINARY_VERSION = 1;
+    private static final byte[] CSV_HEADER =
+        "bill_id,patient_id,name,insurance_plan,visit_date,bill_amount\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path output;
+    private final Path checkpoint;
+    private final boolean binary;
+    private final YearMonth month;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private FileChannel channel;
+    private long lastBillId = 0;
+    private long rows = 0;
+
+    public BillExport(Path output, YearMonth month, boolean binary) {
+        this.output = output;
+        this.checkpoint = output.resolveSibling(output.getFileName() + ".checkpoint");
+        this.month = month;
+        this.binary = binary;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: java database.BillExport outputFile [YYYY-MM] [--binary] [--resume]");
+            return;
+        }
+        YearMonth month = null;
+        boolean binary = false;
+        boolean resume = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--binary")) {
+                binary = true;
+            } else if (args[i].equals("--resume")) {
+                resume = true;
+            } else {
+                month = YearMonth.parse(args[i]);
+            }
+        }
+
+        BillExport export = new BillExport(Paths.get(args[0]), month, binary);
+        try {
+            Class.forName(DatabaseSetup.JDBC_DRIVER);
+            try (Connection conn = DriverManager.getConnection(DB_URL, DatabaseSetup.USER, DatabaseSetup.PASSWORD)) {
+                export.run(conn, resume);
+            }
+        } catch (ClassNotFoundException e) {
+            System.out.println("MySQL JDBC Driver not found: " + e.getMessage());
+        } catch (SQLException e) {
+            System.out.println("Database error: " + e.getMessage());
+            System.out.println("Run again with --resume to continue after bill " + export.lastBillId);
+        } catch (IOException e) {
+            System.out.println("Error writing export: " + e.getMessage());
+            System.out.println("Run again with --resume to continue after bill " + export.lastBillId);
+        }
+    }
+
+    /**
+     * Export every matching bill, or only those after the checkpoint when resuming
+     * @return number of rows written by this run
+     */
+    public long run(Connection conn, boolean resume) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (resume && Files.exists(checkpoint)) {
+                long length = readCheckpoint();
+                // Anything after the checkpoint may be a partly written buffer
+                channel.truncate(length);
+                channel.position(length);
+                System.out.println("Resuming after bill " + lastBillId + " at byte " + length);
+            } else {
+                channel.truncate(0);
+                writeHeader();
+            }
+            exportRows(conn, start);
+            flush();
+            channel.force(false);
+            writeCheckpoint();
+        } finally {
+            channel.close();
+        }
+
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println("✓ Exported " + rows + " bills to " + output + " in " + millis + " ms ("
+            + (rows * 1000 / millis) + " rows/sec), last bill " + lastBillId);
+        return rows;
+    }
+
+    private void exportRows(Connection conn, long start) throws SQLException, IOException {
+        String query = "SELECT b.bill_id, b.patient_id, p.name, p.insurance_plan, b.visit_date, b.bill_amount "
+                + "FROM PatientBill b JOIN Patient p ON p.patient_id = b.patient_id "
+                + "WHERE b.bill_id > ?"
+                + (month != null ? " AND b.visit_date >= ? AND b.visit_date < ?" : "")
+                + " ORDER BY b.bill_id";
+        try (PreparedStatement pstmt = conn.prepareStatement(query,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(FETCH_SIZE);
+            pstmt.setLong(1, lastBillId);
+            if (month != null) {
+                pstmt.setDate(2, Date.valueOf(month.atDay(1)));
+                pstmt.setDate(3, Date.valueOf(month.plusMonths(1).atDay(1)));
+            }
+
+            long lastCheckpoint = System.currentTimeMillis();
+            long lastProgress = lastCheckpoint;
+            long rowsAtProgress = 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    long billId = rs.getLong(1);
+                    int patientId = rs.getInt(2);
+                    String name = rs.getString(3);
+                    String plan = rs.getString(4);
+                    String visitDate = rs.getString(5);
+                    BigDecimal amount = rs.getBigDecimal(6);
+                    if (binary) {
+                        writeBinary(billId, patientId, name, plan, visitDate, amount);
+                    } else {
+                        writeCsv(billId, patientId, name, plan, visitDate, amount);
+                    }
+                    lastBillId = billId;
+                    rows++;
+
+                    if ((rows & 1023) == 0) {
+                        long now = System.currentTimeMillis();
+                        if (now - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS) {
+                            flush();
+                            channel.force(false);
+                            writeCheckpoint();
+                            lastCheckpoint = now;
+                        }
+                        if (now - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+                            System.out.println("  " + rows + " bills, "
+                                + ((rows - rowsAtProgress) * 1000 / (now - lastProgress)) + " rows/sec");
+                            lastProgress = now;
+                            rowsAtProgress = rows;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        if (binary) {
+            buffer.put(BINARY_MAGIC).putInt(BINARY_VERSION);
+        } else {
+            buffer.put(CSV_HEADER);
+        }
+    }
+
+    private void writeCsv(long billId, int patientId, String name, String plan,
+                          String visitDate, BigDecimal amount) throws IOException {
+        ensure(64);
+        putAscii(Long.toString(billId));
+        buffer.put((byte) ',');
+        putAscii(Integer.toString(patientId));
+        buffer.put((byte) ',');
+        putCsvField(name);
+        ensure(48);
+        buffer.put((byte) ',');
+        putCsvField(plan);
+        ensure(48);
+        buffer.put((byte) ',');
+        putAscii(visitDate);
+        buffer.put((byte) ',');
+        putAscii(amount.toPlainString());
+        buffer.put((byte) '\n');
+    }
+
+    private void writeBinary(long billId, int patientId, String name, String plan,
+                             String visitDate, BigDecimal amount) throws IOException {
+        ensure(24);
+        buffer.putLong(billId);
+        buffer.putInt(patientId);
+        buffer.putInt((int) LocalDate.parse(visitDate).toEpochDay());
+        buffer.putLong(amount.movePointRight(3).longValueExact());
+        putSizedUtf8(name);
+        putSizedUtf8(plan);
+    }
+
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    /**
+     * Field quoted only when it holds a comma, quote or line break
+     */
+    private void putCsvField(String s) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char c = s.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        byte[] bytes = (quote ? "\"" + s.replace("\"", "\"\"") + "\"" : s).getBytes(StandardCharsets.UTF_8);
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void putSizedUtf8(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Field too long for binary export: " + bytes.length + " bytes");
+        }
+        ensure(2 + bytes.length);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Make room for n more bytes, writing the buffer out if needed
+     */
+    private void ensure(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            flush();
+            if (buffer.remaining() < n) {
+                throw new IOException("Row larger than export buffer: " + n + " bytes");
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Record progress once everything up to lastBillId has been written
+     * Written to a temporary file and renamed, so a crash never leaves half a checkpoint.
+     */
+    private void writeCheckpoint() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("lastBillId", Long.toString(lastBillId));
+        props.setProperty("length", Long.toString(channel.position()));
+        props.setProperty("format", binary ? "binary" : "csv");
+        props.setProperty("month", month != null ? month.toString() : "all");
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            props.store(out, "BillExport checkpoint");
+        }
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load the checkpoint into lastBillId
+     * @return the file length it was taken at
+     */
+    private long readCheckpoint() throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(checkpoint)) {
+            props.load(in);
+        }
+        String format = binary ? "binary" : "csv";
+        String expectedMonth = month != null ? month.toString() : "all";
+        if (!format.equals(props.getProperty("format")) || !expectedMonth.equals(props.getProperty("month"))) {
+            throw new IOException("Checkpoint is for a " + props.getProperty("format") + " export of "
+                + props.getProperty("month") + ", not " + format + " of " + expectedMonth);
+        }
+        lastBillId = Long.parseLong(props.getProperty("lastBillId"));
+        return Long.parseLong(props.getProperty("length"));
+    }
+}
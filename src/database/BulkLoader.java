@@ -0,0 +1,560 @@
+package database;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BulkLoader - Loads patients and historical bills from CSV files
+ * The file is read once, cut into batches of a fixed number of lines, and
+ * each batch is inserted by one of several threads, each with its own
+ * connection, as one multi-row INSERT (or with --infile, one LOAD DATA
+ * LOCAL INFILE) in its own transaction. Foreign key and unique checks are
+ * off for the loader's connections; dangling bills are counted once the load
+ * ends instead. The (patient_id, visit_date) index of PatientBill is built
+ * after the last row if it does not exist yet, which is how
+ * DatabaseSetup leaves a database it creates for a load. Every committed batch
+ * records its first line in BulkLoadProgress in the same transaction, so a
+ * load that stopped for any reason is resumed by running it again: batches
+ * already committed are skipped, none is inserted twice. Progress is kept
+ * per file name, size and modification time, so a changed file with the
+ * same name starts from its first line. After bills are
+ * loaded the PatientBillSummary table is rebuilt.
+ *
+ * Usage: java database.BulkLoader patients.csv|- [bills.csv] [--threads N] [--batch N] [--infile]
+ *
+ * patients.csv: patient_id,name,age,insurance_plan
+ * bills.csv:    patient_id,visit_date,bill_amount
+ * Fields may be double-quoted; a first line that does not start with a
+ * number is taken as a header. Stop the billing server during a load.
+ */
+public class BulkLoader {
+
+    static final String CREATE_PROGRESS = "CREATE TABLE IF NOT EXISTS BulkLoadProgress ("
+        + "source VARCHAR(255) NOT NULL, "
+        + "first_line BIGINT NOT NULL, "
+        + "batch_lines INT NOT NULL, "
+        + "rows_loaded INT NOT NULL, "
+        + "PRIMARY KEY (source, first_line))";
+    static final String INSERT_PROGRESS =
+        "INSERT INTO BulkLoadProgress (source, first_line, batch_lines, rows_loaded) VALUES (?, ?, ?, ?)";
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_BATCH_LINES = 5000;
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+    // Rejected lines printed per file; all of them are counted
+    private static final int REJECTS_SHOWN = 10;
+    // Tries of a batch whose transaction the database rolled back, e.g. as a deadlock victim
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final int threads;
+    private final int batchLines;
+    private final boolean infile;
+    private final String url;
+
+    /**
+     * @param url JDBC URL of the database to load; the loader adds the driver parameters it needs
+     */
+    public BulkLoader(String url, int threads, int batchLines, boolean infile) {
+        this.threads = threads;
+        this.batchLines = batchLines;
+        this.infile = infile;
+        String batchUrl = DatabaseSetup.withParameters(url, "rewriteBatchedStatements=true");
+        // LOAD DATA LOCAL INFILE also needs local_infile=ON on the MySQL server
+        this.url = infile ? DatabaseSetup.withParameters(batchUrl, "allowLoadLocalInfile=true") : batchUrl;
+    }
+
+    public static void main(String[] args) {
+        load(DatabaseSetup.DB_URL, args);
+    }
+
+    /**
+     * Load into the database at url, with the command line arguments of main
+     */
+    static void load(String url, String[] args) {
+        String patients = null;
+        String bills = null;
+        int threads = DEFAULT_THREADS;
+        int batchLines = DEFAULT_BATCH_LINES;
+        boolean infile = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--batch")) {
+                    batchLines = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--infile")) {
+                    infile = true;
+                } else if (patients == null) {
+                    patients = args[i];
+                } else {
+                    bills = args[i];
+                }
+            }
+        } catch (RuntimeException e) {
+            patients = null;
+        }
+        if (patients == null || threads < 1 || batchLines < 1) {
+            System.out.println("Usage: java database.BulkLoader patients.csv|- [bills.csv] "
+                + "[--threads N] [--batch N] [--infile]");
+            return;
+        }
+
+        BulkLoader loader = new BulkLoader(url, threads, batchLines, infile);
+        try {
+            Class.forName(DatabaseSetup.JDBC_DRIVER);
+            loader.run(patients.equals("-") ? null : Paths.get(patients), bills != null ? Paths.get(bills) : null);
+        } catch (ClassNotFoundException e) {
+            System.out.println("MySQL JDBC Driver not found: " + e.getMessage());
+        } catch (SQLException e) {
+            System.out.println("Database error: " + e.getMessage());
+            System.out.println("Run the same command again to resume; committed batches are skipped");
+        } catch (IOException e) {
+            System.out.println("Error reading input: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load the patients file, then the bills file; either may be null
+     */
+    public void run(Path patients, Path bills) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        try (Connection conn = connect()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate(CREATE_PROGRESS);
+            }
+
+            if (patients != null) {
+                load(conn, patients, PATIENTS);
+            }
+            if (bills != null) {
+                load(conn, bills, BILLS);
+            }
+
+            if (Schema.ensureBillIndex(conn)) {
+                System.out.println("✓ Index '" + Schema.BILL_INDEX + "' created");
+            }
+            checkForeignKeys(conn);
+            if (bills != null) {
+                PatientStatement.rebuild(conn);
+            }
+        }
+        System.out.println("\n✓ Bulk load completed in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, DatabaseSetup.USER, DatabaseSetup.PASSWORD);
+    }
+
+    /**
+     * Stream one file through the insert threads
+     */
+    private void load(Connection conn, Path file, final Target target) throws SQLException, IOException {
+        final String source = target.table + ":" + file.getFileName() + ":" + Files.size(file)
+            + ":" + Files.getLastModifiedTime(file).toMillis();
+        Set<Long> loaded = loadedBatches(conn, source);
+        if (!loaded.isEmpty()) {
+            System.out.println("Resuming " + file + ": " + loaded.size() + " batches were loaded by an earlier run");
+        }
+
+        final BlockingQueue<Connection> connections = new ArrayBlockingQueue<>(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "bulk-loader-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Bounds the parsed batches waiting for a thread
+        final Semaphore inFlight = new Semaphore(threads * 2);
+        final AtomicReference<SQLException> failure = new AtomicReference<>();
+        final LongAdder rows = new LongAdder();
+        long start = System.currentTimeMillis();
+        long rejected = 0;
+        long skippedBatches = 0;
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                Connection loaderConn = connect();
+                connections.add(loaderConn);
+                try (Statement stmt = loaderConn.createStatement()) {
+                    stmt.execute("SET foreign_key_checks = 0");
+                    stmt.execute("SET unique_checks = 0");
+                }
+                loaderConn.setAutoCommit(false);
+            }
+
+            long lastProgress = start;
+            long rowsAtProgress = 0;
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                long lineNumber = 0;
+                String line;
+                Batch batch = new Batch(1);
+                while (failure.get() == null) {
+                    line = in.readLine();
+                    if (line != null) {
+                        lineNumber++;
+                        // Batches are whole runs of lines, so they fall the same on every run
+                        if (!loaded.contains(batch.firstLine)) {
+                            String error = batch.add(line, lineNumber, target);
+                            if (error != null && ++rejected <= REJECTS_SHOWN) {
+                                System.out.println("✗ " + file.getFileName() + " line " + lineNumber + ": " + error);
+                            }
+                        }
+                        batch.lines++;
+                    }
+                    if (batch.lines == batchLines || (line == null && batch.lines > 0)) {
+                        if (loaded.contains(batch.firstLine)) {
+                            skippedBatches++;
+                        } else {
+                            inFlight.acquire();
+                            final Batch full = batch;
+                            executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        if (failure.get() == null) {
+                                            insert(connections, source, target, full);
+                                            rows.add(full.rows.size());
+                                        }
+                                    } catch (SQLException e) {
+                                        failure.compareAndSet(null, e);
+                                    } finally {
+                                        inFlight.release();
+                                    }
+                                }
+                            });
+                        }
+                        batch = new Batch(lineNumber + 1);
+                    }
+                    if (line == null) break;
+
+                    if ((lineNumber & 1023) == 0) {
+                        long now = System.currentTimeMillis();
+                        if (now - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+                            long total = rows.sum();
+                            System.out.println("  " + total + " " + target.noun + ", "
+                                + ((total - rowsAtProgress) * 1000 / (now - lastProgress)) + " rows/sec");
+                            lastProgress = now;
+                            rowsAtProgress = total;
+                        }
+                    }
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while loading " + file);
+        } finally {
+            executor.shutdownNow();
+            for (Connection loaderConn : connections) {
+                try {
+                    loaderConn.close();
+                } catch (SQLException e) {
+                    // load result is already decided
+                }
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        long total = rows.sum();
+        System.out.println("✓ Loaded " + total + " " + target.noun + " from " + file + " in " + millis + " ms ("
+            + (total * 1000 / millis) + " rows/sec)"
+            + (skippedBatches > 0 ? ", " + skippedBatches + " batches already loaded" : "")
+            + (rejected > 0 ? ", " + rejected + " lines rejected" : ""));
+    }
+
+    /**
+     * Insert one batch and record it in BulkLoadProgress, in one transaction
+     * A transaction the database rolled back on its own is tried again.
+     */
+    private void insert(BlockingQueue<Connection> connections, String source, Target target, Batch batch)
+            throws SQLException {
+        Connection conn;
+        try {
+            conn = connections.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection");
+        }
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    insert(conn, source, target, batch);
+                    return;
+                } catch (SQLException e) {
+                    String state = e.getSQLState();
+                    if (attempt == MAX_ATTEMPTS || state == null || !state.startsWith("40")) {
+                        throw new SQLException("Batch starting at line " + batch.firstLine + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+        } finally {
+            connections.add(conn);
+        }
+    }
+
+    private void insert(Connection conn, String source, Target target, Batch batch) throws SQLException {
+        try {
+            if (!batch.rows.isEmpty()) {
+                if (infile) {
+                    loadInfile(conn, target, batch.rows);
+                } else {
+                    try (PreparedStatement pstmt = conn.prepareStatement(target.insertSql())) {
+                        for (String[] row : batch.rows) {
+                            target.bind(pstmt, row);
+                            pstmt.addBatch();
+                        }
+                        pstmt.executeBatch();
+                    }
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(INSERT_PROGRESS)) {
+                pstmt.setString(1, source);
+                pstmt.setLong(2, batch.firstLine);
+                pstmt.setInt(3, batchLines);
+                pstmt.setInt(4, batch.rows.size());
+                pstmt.executeUpdate();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackError) {
+                // reported through the insert error
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Send the rows as a tab-separated LOAD DATA LOCAL INFILE stream
+     */
+    private static void loadInfile(Connection conn, Target target, List<String[]> rows) throws SQLException {
+        StringBuilder data = new StringBuilder(rows.size() * 48);
+        for (String[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) data.append('\t');
+                String value = row[i];
+                for (int c = 0; c < value.length(); c++) {
+                    char ch = value.charAt(c);
+                    if (ch == '\\' || ch == '\t' || ch == '\n') data.append('\\');
+                    data.append(ch);
+                }
+            }
+            data.append('\n');
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.unwrap(com.mysql.cj.jdbc.JdbcStatement.class).setLocalInfileInputStream(
+                new ByteArrayInputStream(data.toString().getBytes(StandardCharsets.UTF_8)));
+            stmt.execute("LOAD DATA LOCAL INFILE 'batch' INTO TABLE " + target.table
+                + " CHARACTER SET utf8mb4 (" + target.columns + ")");
+        }
+    }
+
+    /**
+     * First lines of the batches of a source committed by earlier runs
+     * @throws IOException if they were cut with a different batch size
+     */
+    private Set<Long> loadedBatches(Connection conn, String source) throws SQLException, IOException {
+        Set<Long> loaded = new HashSet<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT first_line, batch_lines FROM BulkLoadProgress WHERE source = ?")) {
+            pstmt.setString(1, source);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (rs.getInt(2) != batchLines) {
+                        throw new IOException(source + " was partly loaded with --batch " + rs.getInt(2)
+                            + "; resume with the same batch size");
+                    }
+                    loaded.add(rs.getLong(1));
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * The foreign key check skipped during the load, done once for the whole table
+     */
+    private static void checkForeignKeys(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM PatientBill b "
+                 + "LEFT JOIN Patient p ON p.patient_id = b.patient_id WHERE p.patient_id IS NULL")) {
+            long orphans = rs.next() ? rs.getLong(1) : 0;
+            if (orphans > 0) {
+                System.out.println("✗ " + orphans + " bills refer to patients that do not exist");
+            } else {
+                System.out.println("✓ Every bill refers to an existing patient");
+            }
+        }
+    }
+
+    /**
+     * Split a CSV line; fields may be double-quoted, with "" for a quote inside
+     */
+    static List<String> parseCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    /**
+     * Batch - Checked rows from a run of lines starting at firstLine
+     */
+    private static final class Batch {
+        final long firstLine;
+        final List<String[]> rows = new ArrayList<>();
+        int lines = 0;
+
+        Batch(long firstLine) {
+            this.firstLine = firstLine;
+        }
+
+        /**
+         * @return why the line was rejected, or null if it was added or skipped
+         */
+        String add(String line, long lineNumber, Target target) {
+            if (line.trim().isEmpty()) {
+                return null;
+            }
+            List<String> fields = parseCsv(line);
+            if (lineNumber == 1 && !fields.get(0).isEmpty() && !Character.isDigit(fields.get(0).charAt(0))) {
+                return null; // header
+            }
+            if (fields.size() != target.fieldCount) {
+                return "expected " + target.fieldCount + " fields, found " + fields.size();
+            }
+            try {
+                rows.add(target.check(fields));
+                return null;
+            } catch (IllegalArgumentException e) {
+                // NumberFormatException included
+                return e.getMessage();
+            } catch (DateTimeParseException e) {
+                return "invalid date " + e.getParsedString() + ", expected YYYY-MM-DD";
+            }
+        }
+    }
+
+    /**
+     * Target - A table the loader fills, with its CSV checks
+     */
+    private abstract static class Target {
+        final String table;
+        final String columns;
+        final int fieldCount;
+        final String noun;
+
+        Target(String table, String columns, int fieldCount, String noun) {
+            this.table = table;
+            this.columns = columns;
+            this.fieldCount = fieldCount;
+            this.noun = noun;
+        }
+
+        String insertSql() {
+            StringBuilder sql = new StringBuilder("INSERT INTO " + table + " (" + columns + ") VALUES (?");
+            for (int i = 1; i < fieldCount; i++) {
+                sql.append(", ?");
+            }
+            return sql.append(")").toString();
+        }
+
+        /**
+         * Check the fields of one line and return them in the form stored
+         * @throws IllegalArgumentException if a field is invalid
+         */
+        abstract String[] check(List<String> fields);
+
+        abstract void bind(PreparedStatement pstmt, String[] row) throws SQLException;
+    }
+
+    private static final Target PATIENTS = new Target("Patient", "patient_id, name, age, insurance_plan", 4, "patients") {
+        @Override
+        String[] check(List<String> fields) {
+            int patientId = Integer.parseInt(fields.get(0));
+            int age = Integer.parseInt(fields.get(2));
+            if (patientId <= 0) throw new IllegalArgumentException("patient_id must be positive");
+            if (age < 0 || age > 150) throw new IllegalArgumentException("age out of range: " + age);
+            return new String[] {Integer.toString(patientId), text(fields.get(1), "name", 50),
+                Integer.toString(age), text(fields.get(3), "insurance_plan", 20)};
+        }
+
+        @Override
+        void bind(PreparedStatement pstmt, String[] row) throws SQLException {
+            pstmt.setInt(1, Integer.parseInt(row[0]));
+            pstmt.setString(2, row[1]);
+            pstmt.setInt(3, Integer.parseInt(row[2]));
+            pstmt.setString(4, row[3]);
+        }
+    };
+
+    private static final Target BILLS = new Target("PatientBill", "patient_id, visit_date, bill_amount", 3, "bills") {
+        @Override
+        String[] check(List<String> fields) {
+            int patientId = Integer.parseInt(fields.get(0));
+            LocalDate visitDate = LocalDate.parse(fields.get(1));
+            BigDecimal amount = new BigDecimal(fields.get(2)).setScale(2, RoundingMode.HALF_UP);
+            if (amount.signum() < 0 || amount.precision() > 10) {
+                throw new IllegalArgumentException("bill_amount out of range: " + fields.get(2));
+            }
+            return new String[] {Integer.toString(patientId), visitDate.toString(), amount.toPlainString()};
+        }
+
+        @Override
+        void bind(PreparedStatement pstmt, String[] row) throws SQLException {
+            pstmt.setInt(1, Integer.parseInt(row[0]));
+            pstmt.setDate(2, Date.valueOf(row[1]));
+            pstmt.setBigDecimal(3, new BigDecimal(row[2]));
+        }
+    };
+
+    private static String text(String value, String column, int maxLength) {
+        if (value.isEmpty() || value.length() > maxLength) {
+            throw new IllegalArgumentException(column + " must be 1 to " + maxLength + " characters");
+        }
+        return value;
+    }
+}
@@ -2,11 +2,19 @@ package database;
 
 import java.sql.*;
 
+/**
+ * DatabaseSetup - Creates the medicareBilling database and its tables
+ * Inserts the sample patients, or with arguments bulk loads CSV files
+ * through BulkLoader instead.
+ *
+ * Usage: java database.DatabaseSetup [patients.csv|- [bills.csv] [BulkLoader options]]
+ */
 public class DatabaseSetup {
     static final String JDBC_DRIVER = "com.mysql.cj.jdbc.Driver";
-    static final String DB_URL = "jdbc:mysql://localhost:3306/";
-    static final String USER = "root";
-    static final String PASSWORD = "";
+    // Database URL and credentials for every tool; same -D properties as the server
+    static final String DB_URL = System.getProperty("billing.db.url", "jdbc:mysql://localhost:3306/medicareBilling");
+    static final String USER = System.getProperty("billing.db.user", "root");
+    static final String PASSWORD = System.getProperty("billing.db.password", "");
 
     public static void main(String[] args) {
         Connection conn = null;
@@ -16,60 +24,56 @@ public class DatabaseSetup {
             // Load JDBC Driver
             Class.forName(JDBC_DRIVER);
             
+            String database = databaseName(DB_URL);
+            if (!database.matches("[A-Za-z0-9_$]+")) {
+                System.out.println("✗ billing.db.url must name the database: " + DB_URL);
+                return;
+            }
+            
             // Create database connection
-            conn = DriverManager.getConnection(DB_URL, USER, PASSWORD);
+            conn = DriverManager.getConnection(serverUrl(DB_URL), USER, PASSWORD);
             stmt = conn.createStatement();
             
             // Create Database
-            String createDB = "CREATE DATABASE IF NOT EXISTS medicareBilling";
+            String createDB = "CREATE DATABASE IF NOT EXISTS " + database;
             stmt.executeUpdate(createDB);
-            System.out.println("✓ Database 'medicareBilling' created successfully");
+            System.out.println("✓ Database '" + database + "' created successfully");
             
             // Close connection and reconnect to new database
             stmt.close();
             conn.close();
             
             // Reconnect to the new database
-            conn = DriverManager.getConnection(
-                "jdbc:mysql://localhost:3306/medicareBilling", 
-                USER, PASSWORD
-            );
+            conn = DriverManager.getConnection(DB_URL, USER, PASSWORD);
             stmt = conn.createStatement();
             
             // Create Patient Table
-            String createPatientTable = "CREATE TABLE IF NOT EXISTS Patient ("
-                    + "patient_id INT PRIMARY KEY AUTO_INCREMENT, "
-                    + "name VARCHAR(50) NOT NULL, "
-                    + "age INT NOT NULL, "
-                    + "insurance_plan VARCHAR(20) NOT NULL"
-                    + ")";
-            stmt.executeUpdate(createPatientTable);
+            stmt.executeUpdate(Schema.CREATE_PATIENT);
             System.out.println("✓ Table 'Patient' created successfully");
             
             // Create PatientBill Table
-            String createBillTable = "CREATE TABLE IF NOT EXISTS PatientBill ("
-                    + "bill_id INT PRIMARY KEY AUTO_INCREMENT, "
-                    + "patient_id INT NOT NULL, "
-                    + "visit_date DATE NOT NULL, "
-                    + "bill_amount DECIMAL(10, 2) NOT NULL, "
-                    + "FOREIGN KEY (patient_id) REFERENCES Patient(patient_id)"
-                    + ")";
-            stmt.executeUpdate(createBillTable);
+            stmt.executeUpdate(Schema.CREATE_PATIENT_BILL);
             System.out.println("✓ Table 'PatientBill' created successfully");
             
-            // Insert Sample Records
-            String[] insertPatients = {
-                "INSERT INTO Patient (name, age, insurance_plan) VALUES ('Ahmed Al-Balushi', 45, 'Premium')",
-                "INSERT INTO Patient (name, age, insurance_plan) VALUES ('Fatima Al-Hinai', 38, 'Standard')",
-                "INSERT INTO Patient (name, age, insurance_plan) VALUES ('Mohammed Al-Kalbani', 52, 'Basic')",
-                "INSERT INTO Patient (name, age, insurance_plan) VALUES ('Layla Al-Ismaili', 29, 'Premium')",
-                "INSERT INTO Patient (name, age, insurance_plan) VALUES ('Salem Al-Harthi', 61, 'Standard')"
-            };
+            // Create PatientBillSummary Table, kept up to date by the billing server
+            stmt.executeUpdate(Schema.CREATE_PATIENT_BILL_SUMMARY);
+            System.out.println("✓ Table 'PatientBillSummary' created successfully");
+            
+            // Bulk mode: load the given CSV files instead of the sample records;
+            // the loader builds the bill index once the rows are in
+            if (args.length > 0) {
+                BulkLoader.load(DB_URL, args);
+                return;
+            }
             
-            for (String insert : insertPatients) {
-                stmt.executeUpdate(insert);
+            // Index for a patient's bills by visit date
+            if (Schema.ensureBillIndex(conn)) {
+                System.out.println("✓ Index '" + Schema.BILL_INDEX + "' created successfully");
             }
-            System.out.println("✓ 5 sample patient records inserted");
+            
+            // Insert Sample Records
+            int inserted = Schema.insertSamplePatients(conn);
+            System.out.println("✓ " + inserted + " sample patient records inserted");
             
             // Display inserted records
             System.out.println("\n=== PATIENT RECORDS ===");
@@ -96,4 +100,39 @@ public class DatabaseSetup {
             }
         }
     }
+
+    /**
+     * A JDBC URL with more parameters, after any the URL already has
+     */
+    static String withParameters(String url, String parameters) {
+        return url + (url.indexOf('?') < 0 ? "?" : "&") + parameters;
+    }
+    
+    /**
+     * The database a MySQL URL names: the path after the hosts, before any parameters
+     */
+    static String databaseName(String url) {
+        int query = queryStart(url);
+        int slash = databaseStart(url);
+        return slash < 0 || slash > query ? "" : url.substring(slash + 1, query);
+    }
+    
+    /**
+     * The same URL without its database, for connecting before the database exists
+     */
+    static String serverUrl(String url) {
+        int query = queryStart(url);
+        int slash = databaseStart(url);
+        return slash < 0 || slash > query ? url : url.substring(0, slash + 1) + url.substring(query);
+    }
+    
+    private static int queryStart(String url) {
+        int query = url.indexOf('?');
+        return query < 0 ? url.length() : query;
+    }
+    
+    private static int databaseStart(String url) {
+        int hosts = url.indexOf("//");
+        return hosts < 0 ? -1 : url.indexOf('/', hosts + 2);
+    }
 }
\ No newline at end of file
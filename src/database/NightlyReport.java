@@ -0,0 +1,124 @@
+package database;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.Arrays;
+import utility.BillReports;
+import utility.PatientBillCollection;
+
+/**
+ * NightlyReport - Loads every bill and writes the grouped reports
+ * Bills are streamed from PatientBill into a PatientBillCollection, then
+ * aggregated per patient, per visit month and per insurance plan (joined
+ * from Patient). Each report is printed in short and written in full as CSV.
+ *
+ * Usage: java database.NightlyReport [outputDir]
+ */
+public class NightlyReport {
+    // Rows shown on the console per report; the CSV files hold all of them
+    private static final int CONSOLE_GROUPS = 10;
+
+    public static void main(String[] args) {
+        File outputDir = new File(args.length > 0 ? args[0] : "reports");
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.out.println("✗ Cannot create report directory: " + outputDir);
+            return;
+        }
+
+        try {
+            Class.forName(DatabaseSetup.JDBC_DRIVER);
+            PatientBillCollection bills;
+            PatientPlans plans;
+            try (Connection conn = DriverManager.getConnection(DatabaseSetup.DB_URL,
+                    DatabaseSetup.USER, DatabaseSetup.PASSWORD)) {
+                plans = PatientPlans.load(conn);
+                long start = System.currentTimeMillis();
+                bills = loadBills(conn);
+                System.out.println("✓ Loaded " + bills.size() + " bills in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            }
+
+            write(BillReports.byPatient(bills), new File(outputDir, "bills-by-patient.csv"));
+            write(BillReports.byMonth(bills), new File(outputDir, "bills-by-month.csv"));
+            write(BillReports.byInsurancePlan(bills, plans), new File(outputDir, "bills-by-plan.csv"));
+            System.out.println("\n✓ Reports written to " + outputDir.getAbsolutePath());
+
+        } catch (ClassNotFoundException e) {
+            System.out.println("MySQL JDBC Driver not found: " + e.getMessage());
+        } catch (SQLException e) {
+            System.out.println("Database error: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error writing report: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stream every bill with its patient's name, in bill order
+     */
+    static PatientBillCollection loadBills(Connection conn) throws SQLException {
+        PatientBillCollection bills = new PatientBillCollection();
+        String query = "SELECT b.patient_id, p.name, b.visit_date, b.bill_amount "
+                + "FROM PatientBill b JOIN Patient p ON p.patient_id = b.patient_id "
+                + "ORDER BY b.bill_id";
+        try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Tells Connector/J to stream rows instead of buffering the whole result
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = stmt.executeQuery(query)) {
+                while (rs.next()) {
+                    bills.addBill(new PatientBillCollection.PatientBill(
+                        rs.getInt(1), rs.getString(2), rs.getString(3), rs.getDouble(4)));
+                }
+            }
+        }
+        return bills;
+    }
+
+    private static void write(BillReports.Report report, File file) throws IOException {
+        report.print(System.out, CONSOLE_GROUPS);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            report.writeCsv(out);
+        }
+    }
+
+    /**
+     * PatientPlans - Insurance plan of every patient, held in sorted arrays
+     */
+    static class PatientPlans implements BillReports.PlanLookup {
+        private final int[] patientIds;
+        private final String[] plans;
+
+        private PatientPlans(int[] patientIds, String[] plans) {
+            this.patientIds = patientIds;
+            this.plans = plans;
+        }
+
+        static PatientPlans load(Connection conn) throws SQLException {
+            int[] ids = new int[1024];
+            String[] plans = new String[1024];
+            int count = 0;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(
+                     "SELECT patient_id, insurance_plan FROM Patient ORDER BY patient_id")) {
+                while (rs.next()) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                        plans = Arrays.copyOf(plans, count * 2);
+                    }
+                    ids[count] = rs.getInt(1);
+                    // Only a handful of distinct plans, so share one String each
+                    plans[count] = rs.getString(2).intern();
+                    count++;
+                }
+            }
+            return new PatientPlans(Arrays.copyOf(ids, count), Arrays.copyOf(plans, count));
+        }
+
+        @Override
+        public String planOf(int patientId) {
+            int i = Arrays.binarySearch(patientIds, patientId);
+            return i >= 0 ? plans[i] : null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package database;
+
+import java.sql.*;
+
+/**
+ * PatientStatement - Prints a patient's billing statement from PatientBillSummary
+ * The billing server adds every saved bill to the summary row of its
+ * patient, so a statement is one primary-key lookup however many bills the
+ * patient has. --rebuild recomputes the whole summary table from PatientBill,
+ * for a database that has bills from before the table existed.
+ *
+ * Usage: java database.PatientStatement patientId...
+ *        java database.PatientStatement --rebuild
+ */
+public class PatientStatement {
+    static final String SELECT_STATEMENT =
+        "SELECT p.name, p.insurance_plan, s.bill_count, s.total_billed, s.last_visit "
+        + "FROM PatientBillSummary s JOIN Patient p ON p.patient_id = s.patient_id "
+        + "WHERE s.patient_id = ?";
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: java database.PatientStatement patientId... | --rebuild");
+            return;
+        }
+
+        try {
+            Class.forName(DatabaseSetup.JDBC_DRIVER);
+            try (Connection conn = DriverManager.getConnection(DatabaseSetup.DB_URL,
+                    DatabaseSetup.USER, DatabaseSetup.PASSWORD)) {
+                if ("--rebuild".equals(args[0])) {
+                    rebuild(conn);
+                    return;
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(SELECT_STATEMENT)) {
+                    for (String arg : args) {
+                        int patientId;
+                        try {
+                            patientId = Integer.parseInt(arg);
+                        } catch (NumberFormatException e) {
+                            System.out.println("✗ Invalid Patient ID: " + arg);
+                            continue;
+                        }
+                        print(pstmt, patientId);
+                    }
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            System.out.println("MySQL JDBC Driver not found: " + e.getMessage());
+        } catch (SQLException e) {
+            System.out.println("Database error: " + e.getMessage());
+        }
+    }
+
+    private static void print(PreparedStatement pstmt, int patientId) throws SQLException {
+        pstmt.setInt(1, patientId);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (!rs.next()) {
+                System.out.println("✗ No bills found for Patient ID: " + patientId);
+                return;
+            }
+            System.out.println("\n=== STATEMENT: PATIENT " + patientId + " ===");
+            System.out.println("Name: " + rs.getString(1));
+            System.out.println("Insurance Plan: " + rs.getString(2));
+            System.out.println("Bills: " + rs.getInt(3));
+            System.out.println("Total Billed: OMR " + rs.getBigDecimal(4));
+            System.out.println("Last Visit: " + rs.getDate(5));
+        }
+    }
+
+    /**
+     * Replace the summary table with totals computed from PatientBill, in one transaction
+     * Stop the billing server first, or bills saved meanwhile may be counted twice.
+     */
+    static void rebuild(Connection conn) throws SQLException {
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM PatientBillSummary");
+            int patients = stmt.executeUpdate(Schema.FILL_SUMMARY);
+            conn.commit();
+            System.out.println("✓ Summary rebuilt for " + patients + " patients");
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package database;
+
+import java.sql.*;
+
+/**
+ * Schema - The medicareBilling tables, bill index and sample patients
+ * Shared by DatabaseSetup, BulkLoader and the server's embedded database,
+ * so every database the system creates has the same tables. The statements
+ * run on MySQL and on H2 in MySQL mode.
+ */
+public final class Schema {
+    public static final String CREATE_PATIENT = "CREATE TABLE IF NOT EXISTS Patient ("
+        + "patient_id INT PRIMARY KEY AUTO_INCREMENT, "
+        + "name VARCHAR(50) NOT NULL, "
+        + "age INT NOT NULL, "
+        + "insurance_plan VARCHAR(20) NOT NULL)";
+    public static final String CREATE_PATIENT_BILL = "CREATE TABLE IF NOT EXISTS PatientBill ("
+        + "bill_id INT PRIMARY KEY AUTO_INCREMENT, "
+        + "patient_id INT NOT NULL, "
+        + "visit_date DATE NOT NULL, "
+        + "bill_amount DECIMAL(10, 2) NOT NULL, "
+        + "FOREIGN KEY (patient_id) REFERENCES Patient(patient_id))";
+    // Kept up to date by the billing server
+    public static final String CREATE_PATIENT_BILL_SUMMARY = "CREATE TABLE IF NOT EXISTS PatientBillSummary ("
+        + "patient_id INT PRIMARY KEY, "
+        + "bill_count INT NOT NULL, "
+        + "total_billed DECIMAL(14, 2) NOT NULL, "
+        + "last_visit DATE NOT NULL, "
+        + "FOREIGN KEY (patient_id) REFERENCES Patient(patient_id))";
+    // Fills an empty summary table from the bills in PatientBill
+    public static final String FILL_SUMMARY = "INSERT INTO PatientBillSummary "
+        + "(patient_id, bill_count, total_billed, last_visit) "
+        + "SELECT patient_id, COUNT(*), SUM(bill_amount), MAX(visit_date) FROM PatientBill GROUP BY patient_id";
+
+    // A patient's bills by visit date
+    public static final String BILL_INDEX = "idx_bill_patient_date";
+    static final String CREATE_BILL_INDEX =
+        "CREATE INDEX " + BILL_INDEX + " ON PatientBill (patient_id, visit_date)";
+
+    // name, age, insurance plan
+    private static final String[][] SAMPLE_PATIENTS = {
+        {"Ahmed Al-Balushi", "45", "Premium"},
+        {"Fatima Al-Hinai", "38", "Standard"},
+        {"Mohammed Al-Kalbani", "52", "Basic"},
+        {"Layla Al-Ismaili", "29", "Premium"},
+        {"Salem Al-Harthi", "61", "Standard"}
+    };
+
+    private Schema() {
+    }
+
+    /**
+     * Create the (patient_id, visit_date) index on PatientBill if it is missing
+     * @return whether it was created
+     */
+    public static boolean ensureBillIndex(Connection conn) throws SQLException {
+        if (indexExists(conn, BILL_INDEX)) {
+            return false;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(CREATE_BILL_INDEX);
+        }
+        return true;
+    }
+
+    private static boolean indexExists(Connection conn, String index) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        String table = meta.storesUpperCaseIdentifiers() ? "PATIENTBILL" : "PatientBill";
+        try (ResultSet rs = meta.getIndexInfo(conn.getCatalog(), null, table, false, true)) {
+            while (rs.next()) {
+                if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fill PatientBillSummary from PatientBill if the summary table is empty
+     * @return patients added to the summary
+     */
+    public static int fillEmptySummary(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM PatientBillSummary")) {
+            if (rs.next() && rs.getInt(1) > 0) {
+                return 0;
+            }
+        }
+        return stmt.executeUpdate(FILL_SUMMARY);
+    }
+
+    /**
+     * @return patients inserted
+     */
+    public static int insertSamplePatients(Connection conn) throws SQLException {
+        try (PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO Patient (name, age, insurance_plan) VALUES (?, ?, ?)")) {
+            for (String[] patient : SAMPLE_PATIENTS) {
+                insert.setString(1, patient[0]);
+                insert.setInt(2, Integer.parseInt(patient[1]));
+                insert.setString(3, patient[2]);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        return SAMPLE_PATIENTS.length;
+    }
+}
@@ -0,0 +1,96 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * AdminServer - Exposes ServerMetrics for operators
+ * When an admin port is configured, a listener on the loopback interface
+ * writes the current report to every connection and closes it, so
+ * "nc localhost <port>" shows it. Independently, the report can be
+ * printed every few seconds. Both run on daemon threads.
+ */
+public class AdminServer {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    private final ServerResources resources;
+    private volatile boolean running = true;
+    private ServerSocket adminSocket;
+
+    public AdminServer(ServerResources resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * Start whatever ServerConfig enables; does nothing if neither is set
+     */
+    public void start() {
+        if (ServerConfig.ADMIN_PORT > 0) {
+            try {
+                adminSocket = new ServerSocket(ServerConfig.ADMIN_PORT, 16, InetAddress.getLoopbackAddress());
+                startDaemon("billing-admin", new Runnable() {
+                    @Override
+                    public void run() {
+                        serve();
+                    }
+                });
+                log.info("Metrics available", "port", ServerConfig.ADMIN_PORT);
+            } catch (IOException e) {
+                log.error("Admin port unavailable", "port", ServerConfig.ADMIN_PORT, "error", e.getMessage());
+            }
+        }
+        if (ServerConfig.METRICS_DUMP_SECONDS > 0) {
+            startDaemon("billing-metrics", new Runnable() {
+                @Override
+                public void run() {
+                    dumpLoop();
+                }
+            });
+        }
+    }
+
+    public void stop() {
+        running = false;
+        if (adminSocket != null) {
+            try {
+                adminSocket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    private void serve() {
+        while (running) {
+            try (Socket client = adminSocket.accept()) {
+                OutputStream out = client.getOutputStream();
+                out.write(ServerMetrics.report(resources).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                if (!running) return;
+            }
+        }
+    }
+
+    private void dumpLoop() {
+        long intervalMillis = ServerConfig.METRICS_DUMP_SECONDS * 1000L;
+        while (running) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            // The report is only built when it will be written
+            if (log.isEnabled(AsyncLogger.INFO)) {
+                log.info("Metrics", "report", ServerMetrics.report(resources));
+            }
+        }
+    }
+
+    private static void startDaemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
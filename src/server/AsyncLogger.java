@@ -0,0 +1,421 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AsyncLogger - Low-overhead structured logging for the server path
+ * A log call checks the level first, so a disabled call costs one compare
+ * and builds nothing. An enabled call claims a slot in a fixed ring of
+ * preallocated events with one CAS and stores its message and key/value
+ * fields there; formatting and I/O happen on one background thread, which
+ * writes lines like
+ *   2026-10-18T09:30:00.123Z INFO  [billing-worker-3] Received request request=1,2025-01-04,Outpatient,CONS100
+ * to a file that is rotated at a size limit, or to the console.
+ * When the ring is full the event is dropped and counted rather than
+ * making the worker wait.
+ */
+public final class AsyncLogger {
+    public static final int DEBUG = 10;
+    public static final int INFO = 20;
+    public static final int WARN = 30;
+    public static final int ERROR = 40;
+
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private static volatile AsyncLogger instance;
+
+    private volatile int level;
+    private final Event[] ring;
+    private final int mask;
+    // Next sequence a producer claims; the consumer's position is only read by itself
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+    private final LongAdder dropped = new LongAdder();
+
+    private final Appender appender;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * Event - One ring slot, reused for every lap
+     * sequence == slot index + lap * capacity when free for a producer,
+     * and one more than that once the producer has published it.
+     */
+    private static final class Event {
+        volatile long sequence;
+        int level;
+        long timeMillis;
+        String thread;
+        String message;
+        String key1;
+        Object value1;
+        String key2;
+        Object value2;
+        Throwable error;
+    }
+
+    AsyncLogger(int level, int capacity, Appender appender) {
+        this.level = level;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new Event[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Event();
+            ring[i].sequence = i;
+        }
+        this.appender = appender;
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "billing-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * The server-wide logger, configured from ServerConfig on first use
+     */
+    public static AsyncLogger get() {
+        AsyncLogger logger = instance;
+        if (logger == null) {
+            synchronized (AsyncLogger.class) {
+                logger = instance;
+                if (logger == null) {
+                    instance = logger = fromConfig();
+                }
+            }
+        }
+        return logger;
+    }
+
+    private static AsyncLogger fromConfig() {
+        Appender appender;
+        if (ServerConfig.LOG_FILE.isEmpty()) {
+            appender = new ConsoleAppender();
+        } else {
+            appender = new RollingFileAppender(Paths.get(ServerConfig.LOG_FILE),
+                ServerConfig.LOG_MAX_BYTES, ServerConfig.LOG_MAX_FILES);
+        }
+        return new AsyncLogger(parseLevel(ServerConfig.LOG_LEVEL), ServerConfig.LOG_BUFFER_EVENTS, appender);
+    }
+
+    static int parseLevel(String name) {
+        switch (name.toUpperCase()) {
+            case "DEBUG": return DEBUG;
+            case "WARN": return WARN;
+            case "ERROR": return ERROR;
+            default: return INFO;
+        }
+    }
+
+    private static String levelName(int level) {
+        switch (level) {
+            case DEBUG: return "DEBUG";
+            case WARN: return "WARN ";
+            case ERROR: return "ERROR";
+            default: return "INFO ";
+        }
+    }
+
+    public boolean isEnabled(int level) {
+        return level >= this.level;
+    }
+
+    public boolean isDebugEnabled() {
+        return DEBUG >= level;
+    }
+
+    /**
+     * Change the level, e.g. to keep the start-up warm-up out of the log
+     * @return the previous level
+     */
+    int setLevel(int level) {
+        int previous = this.level;
+        this.level = level;
+        return previous;
+    }
+
+    public void debug(String message) {
+        if (DEBUG >= level) log(DEBUG, message, null, null, null, null, null);
+    }
+
+    public void debug(String message, String key, Object value) {
+        if (DEBUG >= level) log(DEBUG, message, key, value, null, null, null);
+    }
+
+    public void info(String message) {
+        if (INFO >= level) log(INFO, message, null, null, null, null, null);
+    }
+
+    public void info(String message, String key, Object value) {
+        if (INFO >= level) log(INFO, message, key, value, null, null, null);
+    }
+
+    public void info(String message, String key1, Object value1, String key2, Object value2) {
+        if (INFO >= level) log(INFO, message, key1, value1, key2, value2, null);
+    }
+
+    public void warn(String message) {
+        if (WARN >= level) log(WARN, message, null, null, null, null, null);
+    }
+
+    public void warn(String message, String key, Object value) {
+        if (WARN >= level) log(WARN, message, key, value, null, null, null);
+    }
+
+    public void warn(String message, String key1, Object value1, String key2, Object value2) {
+        if (WARN >= level) log(WARN, message, key1, value1, key2, value2, null);
+    }
+
+    public void error(String message, String key1, Object value1, String key2, Object value2) {
+        if (ERROR >= level) log(ERROR, message, key1, value1, key2, value2, null);
+    }
+
+    public void error(String message, String key, Object value) {
+        if (ERROR >= level) log(ERROR, message, key, value, null, null, null);
+    }
+
+    public void error(String message, Throwable error) {
+        if (ERROR >= level) log(ERROR, message, null, null, null, null, error);
+    }
+
+    /**
+     * Values must not change after the call; they are formatted later on the writer thread
+     */
+    private void log(int level, String message, String key1, Object value1, String key2, Object value2,
+                     Throwable error) {
+        long sequence;
+        Event event;
+        while (true) {
+            sequence = tail.get();
+            event = ring[(int) sequence & mask];
+            long lag = event.sequence - sequence;
+            if (lag == 0) {
+                if (tail.compareAndSet(sequence, sequence + 1)) break;
+            } else if (lag < 0) {
+                // Slot still holds an unwritten event from the previous lap
+                dropped.increment();
+                return;
+            }
+            // Otherwise another producer took this slot first; try the next one
+        }
+
+        event.level = level;
+        event.timeMillis = System.currentTimeMillis();
+        event.thread = Thread.currentThread().getName();
+        event.message = message;
+        event.key1 = key1;
+        event.value1 = value1;
+        event.key2 = key2;
+        event.value2 = value2;
+        event.error = error;
+        event.sequence = sequence + 1;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        long reportedDrops = 0;
+        while (true) {
+            boolean stopping = !running;
+            int written = 0;
+            Event event;
+            while ((event = ring[(int) head & mask]).sequence == head + 1) {
+                format(event, line);
+                event.message = null;
+                event.value1 = null;
+                event.value2 = null;
+                event.error = null;
+                event.sequence = head + ring.length;
+                head++;
+                appender.append(line);
+                written++;
+            }
+            long drops = dropped.sum();
+            if (drops != reportedDrops) {
+                line.setLength(0);
+                line.append(Instant.ofEpochMilli(System.currentTimeMillis())).append(' ').append(levelName(WARN)).append(" [billing-log] ")
+                    .append("Log buffer full, events dropped dropped=").append(drops - reportedDrops).append('\n');
+                appender.append(line);
+                reportedDrops = drops;
+                written++;
+            }
+            if (written > 0) {
+                appender.flush();
+            } else if (stopping) {
+                appender.close();
+                return;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private static void format(Event event, StringBuilder line) {
+        line.setLength(0);
+        line.append(Instant.ofEpochMilli(event.timeMillis)).append(' ')
+            .append(levelName(event.level)).append(" [").append(event.thread).append("] ")
+            .append(event.message);
+        appendField(line, event.key1, event.value1);
+        appendField(line, event.key2, event.value2);
+        line.append('\n');
+        if (event.error != null) {
+            StringWriter trace = new StringWriter();
+            event.error.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+    }
+
+    private static void appendField(StringBuilder line, String key, Object value) {
+        if (key == null) return;
+        String text = String.valueOf(value);
+        line.append(' ').append(key).append('=');
+        if (text.isEmpty() || text.indexOf(' ') >= 0 || text.indexOf('"') >= 0) {
+            line.append('"').append(text.replace("\"", "\\\"")).append('"');
+        } else {
+            line.append(text);
+        }
+    }
+
+    /**
+     * Write out everything logged so far and stop the writer thread
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appender - Destination of formatted lines, only called from the writer thread
+     */
+    interface Appender {
+        void append(CharSequence line);
+
+        void flush();
+
+        void close();
+    }
+
+    static final class ConsoleAppender implements Appender {
+        private final Writer out = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 16 * 1024);
+
+        @Override
+        public void append(CharSequence line) {
+            try {
+                out.append(line);
+            } catch (IOException e) {
+                // nowhere left to report it
+            }
+        }
+
+        @Override
+        public void flush() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                // nowhere left to report it
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+
+    /**
+     * RollingFileAppender - Appends to a file, renaming it to .1, .2, ... at maxBytes
+     */
+    static final class RollingFileAppender implements Appender {
+        private final Path file;
+        private final long maxBytes;
+        private final int maxFiles;
+        private Writer out;
+        private long size;
+
+        RollingFileAppender(Path file, long maxBytes, int maxFiles) {
+            this.file = file.toAbsolutePath();
+            this.maxBytes = maxBytes;
+            this.maxFiles = Math.max(1, maxFiles);
+            open();
+        }
+
+        private void open() {
+            try {
+                Files.createDirectories(file.getParent());
+                size = Files.exists(file) ? Files.size(file) : 0;
+                out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file.toFile(), true), StandardCharsets.UTF_8), 64 * 1024);
+            } catch (IOException e) {
+                System.err.println("[SERVER ERROR] Cannot open log file " + file + ": " + e.getMessage());
+                out = null;
+            }
+        }
+
+        @Override
+        public void append(CharSequence line) {
+            if (out == null) return;
+            try {
+                out.append(line);
+                // Close enough for rotation; multi-byte characters are rare in log lines
+                size += line.length();
+                if (size >= maxBytes) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                System.err.println("[SERVER ERROR] Log write failed: " + e.getMessage());
+            }
+        }
+
+        private void rotate() throws IOException {
+            out.close();
+            Path last = file.resolveSibling(file.getFileName() + "." + maxFiles);
+            Files.deleteIfExists(last);
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                Path older = file.resolveSibling(file.getFileName() + "." + i);
+                if (Files.exists(older)) {
+                    Files.move(older, file.resolveSibling(file.getFileName() + "." + (i + 1)));
+                }
+            }
+            Files.move(file, file.resolveSibling(file.getFileName() + ".1"));
+            open();
+        }
+
+        @Override
+        public void flush() {
+            if (out == null) return;
+            try {
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("[SERVER ERROR] Log flush failed: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            if (out == null) return;
+            try {
+                out.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package server;
+
+/**
+ * Bill - Breakdown of one calculated bill
+ * Mutable so a worker can reuse one instance for every request it serves.
+ * Code fields hold the dense ids of the Tariff the bill was priced with.
+ */
+public class Bill {
+    public int patientId;
+    // Visit date as an epoch day
+    public int visitDay;
+    public Tariff tariff;
+    public int patientType;
+    public int serviceCode;
+    public int insurancePlan;
+
+    public double serviceAmount;
+    public double discountRate;
+    public double insuranceDiscount;
+    public double discountedAmount;
+    public double perVisitFee;
+    public double subtotal;
+    public double extraChargeRate;
+    public double extraCharge;
+    public double finalAmount;
+
+    /**
+     * Independent copy, for keeping a bill beyond the current request
+     */
+    public Bill copy() {
+        Bill copy = new Bill();
+        copy.patientId = patientId;
+        copy.visitDay = visitDay;
+        copy.tariff = tariff;
+        copy.patientType = patientType;
+        copy.serviceCode = serviceCode;
+        copy.insurancePlan = insurancePlan;
+        copy.serviceAmount = serviceAmount;
+        copy.discountRate = discountRate;
+        copy.insuranceDiscount = insuranceDiscount;
+        copy.discountedAmount = discountedAmount;
+        copy.perVisitFee = perVisitFee;
+        copy.subtotal = subtotal;
+        copy.extraChargeRate = extraChargeRate;
+        copy.extraCharge = extraCharge;
+        copy.finalAmount = finalAmount;
+        return copy;
+    }
+}
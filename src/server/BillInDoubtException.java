@@ -0,0 +1,25 @@
+package server;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * BillInDoubtException - A bill was handed to the writer but its commit was not confirmed in time
+ * The row may still be written. The future completes normally once it is
+ * committed, or exceptionally if it was not, so the caller can settle any
+ * state it kept for the request then.
+ */
+public class BillInDoubtException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient CompletableFuture<Void> saved;
+
+    public BillInDoubtException(String message, CompletableFuture<Void> saved) {
+        super(message);
+        this.saved = saved;
+    }
+
+    public CompletableFuture<Void> getSaved() {
+        return saved;
+    }
+}
@@ -0,0 +1,419 @@
+package server;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * BillLedger - Write-ahead log of bills in memory-mapped segment files
+ * Every bill gets the next sequence number and a fixed 32-byte record:
+ *   int crc32 | long sequence | int patientId | int visitDay | double amount | int reserved
+ * with the CRC taken over the 28 bytes after it. Records are written into
+ * the mapping of the current segment file, ledger-<first sequence>.log,
+ * and a new segment is started when it is full. sync() forces the mapping
+ * to disk; concurrent callers share one force, so bills arriving together
+ * cost one disk flush.
+ * ledger.checkpoint holds the first sequence not yet replicated to the
+ * database; segments wholly before it are unmapped and deleted. On open, the last
+ * segment is scanned up to the first record whose CRC or sequence does
+ * not match, which is where writing resumes, so a torn final record is
+ * dropped. Not-yet-replicated records are read back with read().
+ */
+public class BillLedger {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    static final int RECORD_BYTES = 32;
+    private static final String CHECKPOINT = "ledger.checkpoint";
+    private static final String PREFIX = "ledger-";
+    private static final String SUFFIX = ".log";
+    // Releases a mapping now instead of when it is garbage collected, or null if not possible
+    private static final Unmapper UNMAPPER = Unmapper.find();
+
+    private final Path dir;
+    private final int segmentRecords;
+    private final boolean force;
+
+    // Segments by first sequence; guarded by this
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private long next;
+
+    // Records before written are complete in the mapping, before durable also on disk
+    private volatile long written;
+    private volatile long durable;
+    private final Object forceLock = new Object();
+    private volatile long forces = 0;
+
+    // First sequence not yet replicated; only changed by the replicator
+    private volatile long replicated;
+
+    // Scratch record, used under the append lock
+    private final byte[] scratch = new byte[RECORD_BYTES];
+    private final ByteBuffer record = ByteBuffer.wrap(scratch);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Segment - One mapped ledger file
+     */
+    private static final class Segment {
+        final long first;
+        final int capacity;
+        final Path path;
+        final MappedByteBuffer buffer;
+
+        Segment(long first, Path path, MappedByteBuffer buffer) {
+            this.first = first;
+            this.capacity = buffer.capacity() / RECORD_BYTES;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Open the ledger in dir, recovering its state, or start an empty one
+     * @param segmentBytes size of new segment files
+     * @param force whether sync() flushes to disk; without it bills survive a
+     *              process crash but not an operating system crash
+     */
+    public BillLedger(Path dir, int segmentBytes, boolean force) throws IOException {
+        this.dir = dir.toAbsolutePath();
+        this.segmentRecords = Math.max(1, segmentBytes / RECORD_BYTES);
+        this.force = force;
+        Files.createDirectories(this.dir);
+        replicated = readCheckpoint();
+
+        List<Long> firsts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    firsts.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected ledger file", "file", file);
+                }
+            }
+        }
+        Collections.sort(firsts);
+        for (int i = 0; i < firsts.size(); i++) {
+            long first = firsts.get(i);
+            Path path = segmentPath(first);
+            // Every segment but the last was full when the next one started
+            if (i + 1 < firsts.size() && firsts.get(i + 1) <= replicated) {
+                Files.delete(path);
+                continue;
+            }
+            segments.put(first, new Segment(first, path, map(path, Files.size(path))));
+        }
+
+        if (segments.isEmpty()) {
+            active = createSegment(replicated);
+            next = replicated;
+        } else {
+            active = segments.lastEntry().getValue();
+            next = active.first + scan(active);
+        }
+        if (replicated > next) {
+            // Damaged records that were already replicated; continue after them in a new segment
+            log.warn("Ledger ends before its checkpoint", "checkpoint", replicated, "next", next);
+            active = createSegment(replicated);
+            next = replicated;
+        } else if (replicated < segments.firstKey()) {
+            log.error("Ledger checkpoint before the oldest segment, replaying everything kept",
+                "checkpoint", replicated, "first", segments.firstKey());
+            replicated = segments.firstKey();
+        }
+        written = next;
+        durable = next;
+    }
+
+    public static BillLedger fromConfig() throws IOException {
+        return new BillLedger(Paths.get(ServerConfig.LEDGER_DIR), ServerConfig.LEDGER_SEGMENT_BYTES,
+            ServerConfig.LEDGER_FORCE);
+    }
+
+    private Path segmentPath(long first) {
+        return dir.resolve(String.format("%s%020d%s", PREFIX, first, SUFFIX));
+    }
+
+    private static MappedByteBuffer map(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private Segment createSegment(long first) throws IOException {
+        Path path = segmentPath(first);
+        Segment segment = new Segment(first, path, map(path, (long) segmentRecords * RECORD_BYTES));
+        segments.put(first, segment);
+        return segment;
+    }
+
+    /**
+     * Number of valid records at the start of a segment
+     */
+    private int scan(Segment segment) {
+        CRC32 check = new CRC32();
+        byte[] bytes = new byte[RECORD_BYTES];
+        ByteBuffer view = segment.buffer.duplicate();
+        for (int i = 0; i < segment.capacity; i++) {
+            view.position(i * RECORD_BYTES);
+            view.get(bytes);
+            check.reset();
+            check.update(bytes, 4, RECORD_BYTES - 4);
+            ByteBuffer fields = ByteBuffer.wrap(bytes);
+            if (fields.getInt(0) != (int) check.getValue() || fields.getLong(4) != segment.first + i) {
+                return i;
+            }
+        }
+        return segment.capacity;
+    }
+
+    /**
+     * Append one bill; durable only after sync() covers its sequence
+     * @return the bill's sequence number
+     */
+    public synchronized long append(int patientId, int visitDay, double amount) throws IOException {
+        long sequence = put(patientId, visitDay, amount);
+        written = next;
+        return sequence;
+    }
+
+    /**
+     * Append the bills at rows[0..count) of the columns
+     * @return the sequence number of the last bill
+     */
+    public synchronized long appendAll(int[] rows, int count, int[] patientIds, int[] visitDays, double[] amounts)
+            throws IOException {
+        long sequence = next - 1;
+        for (int i = 0; i < count; i++) {
+            sequence = put(patientIds[rows[i]], visitDays[rows[i]], amounts[rows[i]]);
+        }
+        written = next;
+        return sequence;
+    }
+
+    private long put(int patientId, int visitDay, double amount) throws IOException {
+        if (next - active.first == active.capacity) {
+            active = createSegment(next);
+        }
+        long sequence = next;
+        record.putLong(4, sequence);
+        record.putInt(12, patientId);
+        record.putInt(16, visitDay);
+        record.putDouble(20, amount);
+        record.putInt(28, 0);
+        crc.reset();
+        crc.update(scratch, 4, RECORD_BYTES - 4);
+        record.putInt(0, (int) crc.getValue());
+        active.buffer.position((int) (sequence - active.first) * RECORD_BYTES);
+        active.buffer.put(scratch);
+        next++;
+        return sequence;
+    }
+
+    /**
+     * Make sure every record up to and including sequence is on disk
+     */
+    public void sync(long sequence) {
+        if (!force || durable > sequence) return;
+        synchronized (forceLock) {
+            if (durable > sequence) return;
+            long target;
+            List<Segment> dirty;
+            synchronized (this) {
+                target = written;
+                dirty = new ArrayList<>(segments.tailMap(segments.floorKey(durable)).values());
+            }
+            for (Segment segment : dirty) {
+                segment.buffer.force();
+            }
+            forces++;
+            durable = target;
+        }
+    }
+
+    /**
+     * Records from the replication point that are safe to hand on
+     */
+    public long getPending() {
+        return (force ? durable : written) - replicated;
+    }
+
+    public long getReplicated() {
+        return replicated;
+    }
+
+    /**
+     * Copy up to max records from the replication point into the given columns
+     * @return records copied
+     */
+    public int read(int max, int[] patientIds, int[] visitDays, double[] amounts) {
+        long from = replicated;
+        int count = (int) Math.min(max, getPending());
+        Segment segment = null;
+        for (int i = 0; i < count; i++) {
+            long sequence = from + i;
+            if (segment == null || sequence - segment.first >= segment.capacity) {
+                synchronized (this) {
+                    segment = segments.floorEntry(sequence).getValue();
+                }
+            }
+            int offset = (int) (sequence - segment.first) * RECORD_BYTES;
+            patientIds[i] = segment.buffer.getInt(offset + 12);
+            visitDays[i] = segment.buffer.getInt(offset + 16);
+            amounts[i] = segment.buffer.getDouble(offset + 20);
+        }
+        return count;
+    }
+
+    /**
+     * Record that count more records are in the database, dropping finished segments
+     */
+    public void markReplicated(int count) throws IOException {
+        long upTo = replicated + count;
+        writeCheckpoint(upTo);
+        replicated = upTo;
+        List<Segment> finished = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Long, Segment> entry : segments.headMap(active.first).entrySet()) {
+                Segment segment = entry.getValue();
+                if (segment.first + segment.capacity <= upTo) {
+                    finished.add(segment);
+                }
+            }
+            for (Segment segment : finished) {
+                segments.remove(segment.first);
+            }
+        }
+        for (Segment segment : finished) {
+            // No reader or force can still use it: replication and durability are past its end
+            unmap(segment.buffer);
+            try {
+                Files.delete(segment.path);
+            } catch (IOException e) {
+                log.warn("Cannot delete replicated ledger segment", "file", segment.path, "error", e.getMessage());
+            }
+        }
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (UNMAPPER == null) return;
+        try {
+            UNMAPPER.unmap(buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Cannot unmap ledger segment", "error", e.toString());
+        }
+    }
+
+    /**
+     * Unmapper - Frees a mapped buffer's address space right away
+     * Java 9+ exposes this as Unsafe.invokeCleaner; Java 8 through the
+     * buffer's own cleaner. Both are reached by reflection, so on a runtime
+     * with neither the segments are left to the garbage collector.
+     */
+    private static final class Unmapper {
+        private final Object unsafe;
+        private final Method invokeCleaner;
+
+        private Unmapper(Object unsafe, Method invokeCleaner) {
+            this.unsafe = unsafe;
+            this.invokeCleaner = invokeCleaner;
+        }
+
+        static Unmapper find() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Method invokeCleaner;
+                try {
+                    invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                } catch (NoSuchMethodException e) {
+                    invokeCleaner = null;
+                }
+                return new Unmapper(field.get(null), invokeCleaner);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.warn("Ledger segments are unmapped by the garbage collector", "error", e.toString());
+                return null;
+            }
+        }
+
+        void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException {
+            if (invokeCleaner != null) {
+                invokeCleaner.invoke(unsafe, buffer);
+                return;
+            }
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path file = dir.resolve(CHECKPOINT);
+        if (!Files.exists(file)) return 0;
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (data.remaining() != 16) {
+            throw new IOException("Corrupt ledger checkpoint " + file);
+        }
+        long sequence = data.getLong();
+        if (data.getLong() != ~sequence) {
+            throw new IOException("Corrupt ledger checkpoint " + file);
+        }
+        return sequence;
+    }
+
+    /**
+     * Write the checkpoint to a temporary file, flush it and rename it over the old one
+     */
+    private void writeCheckpoint(long sequence) throws IOException {
+        Path temp = dir.resolve(CHECKPOINT + ".tmp");
+        ByteBuffer data = ByteBuffer.allocate(16);
+        data.putLong(sequence).putLong(~sequence).flip();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, dir.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public String getStats() {
+        return "ledger[written=" + written
+            + ", replicated=" + replicated
+            + ", pending=" + (written - replicated)
+            + ", segments=" + getSegmentCount()
+            + ", forces=" + forces
+            + ", dir=" + dir
+            + "]";
+    }
+
+    /**
+     * Flush everything written; the mappings are released by the garbage collector
+     */
+    public void close() {
+        sync(written - 1);
+    }
+}
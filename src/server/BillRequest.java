@@ -0,0 +1,110 @@
+package server;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * BillRequest - Fields of one "patientId,visitDate,patientType,serviceCode[,idempotencyKey]" request
+ * Mutable so a worker can parse every request into the same instance.
+ */
+public class BillRequest {
+    public int patientId;
+    public String visitDate;
+    public String patientType;
+    public String serviceCode;
+    // Optional client-chosen key that marks a resend of the same request, else null
+    public String idempotencyKey;
+    
+    // Returned by visitDay() for a date that is not valid
+    public static final int INVALID_DAY = Integer.MIN_VALUE;
+    
+    // Visit dates must fall in years 0000-9999, the YYYY-MM-DD range
+    private static final long MIN_EPOCH_DAY = LocalDate.of(0, 1, 1).toEpochDay();
+    private static final long MAX_EPOCH_DAY = LocalDate.of(9999, 12, 31).toEpochDay();
+    
+    /**
+     * Parse a request line
+     * Scans for the commas directly rather than through String.split, and
+     * reads the patient ID without a substring.
+     * @return false unless the line has four fields, or five with a non-empty key
+     * @throws NumberFormatException if the patient ID is not a number
+     */
+    public boolean parse(String line) {
+        int first = line.indexOf(',');
+        int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+        int third = second < 0 ? -1 : line.indexOf(',', second + 1);
+        if (third < 0) {
+            return false;
+        }
+        // Like split(), ignore trailing empty fields but reject a sixth field or an empty fourth
+        int end = line.length();
+        while (end > third + 1 && line.charAt(end - 1) == ',') {
+            end--;
+        }
+        int fourth = line.indexOf(',', third + 1);
+        if (fourth < 0 || fourth >= end) {
+            fourth = end;
+        }
+        int fifth = fourth < end ? line.indexOf(',', fourth + 1) : -1;
+        if (fourth == third + 1 || (fifth >= 0 && fifth < end)) {
+            return false;
+        }
+        patientId = parseInt(line, 0, first);
+        visitDate = line.substring(first + 1, second);
+        patientType = line.substring(second + 1, third);
+        serviceCode = line.substring(third + 1, fourth);
+        idempotencyKey = fourth < end ? line.substring(fourth + 1, end) : null;
+        return true;
+    }
+    
+    /**
+     * Epoch day of a YYYY-MM-DD visit date in years 0000-9999, or INVALID_DAY
+     * Dates that do not exist, such as 2025-02-30, are invalid.
+     */
+    public static int visitDay(String visitDate) {
+        long day;
+        try {
+            day = LocalDate.parse(visitDate).toEpochDay();
+        } catch (DateTimeException e) {
+            return INVALID_DAY;
+        }
+        return isVisitDay(day) ? (int) day : INVALID_DAY;
+    }
+
+    /**
+     * Whether an epoch day falls in years 0000-9999
+     */
+    public static boolean isVisitDay(long epochDay) {
+        return epochDay >= MIN_EPOCH_DAY && epochDay <= MAX_EPOCH_DAY;
+    }
+    
+    /**
+     * Integer.parseInt over s[start, end)
+     */
+    static int parseInt(String s, int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Empty patient ID");
+        }
+        boolean negative = s.charAt(start) == '-';
+        int i = negative || s.charAt(start) == '+' ? start + 1 : start;
+        if (i == end) {
+            throw new NumberFormatException(s.substring(start, end));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException(s.substring(start, end));
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException(s.substring(start, end));
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException(s.substring(start, end));
+        }
+        return (int) value;
+    }
+}
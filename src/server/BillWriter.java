@@ -0,0 +1,336 @@
+package server;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BillWriter - Write-behind inserter for PatientBill rows
+ * Workers queue their bill and wait; flusher threads collect queued bills
+ * into one JDBC batch and commit it as a single transaction, either when
+ * batchSize bills are waiting or lingerMillis after the first one arrived.
+ * A worker is released only after the transaction holding its bill commits.
+ * The same transaction adds each batch to the PatientBillSummary table, so
+ * the per-patient totals always match the bills.
+ */
+public class BillWriter {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    private final ConnectionPool connectionPool;
+    private final int batchSize;
+    // Whether each batch also updates PatientBillSummary
+    private final boolean maintainSummary;
+    private final long lingerNanos;
+    private final BlockingQueue<PendingBill> queue;
+    private final Thread[] flushers;
+    private volatile boolean running = true;
+
+    // Metrics
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder billCount = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+    private final AtomicLong maxBatch = new AtomicLong();
+
+    public BillWriter(ConnectionPool connectionPool, int batchSize, long lingerMillis,
+                      int queueCapacity, int flusherThreads, boolean maintainSummary) {
+        this.connectionPool = connectionPool;
+        this.batchSize = Math.max(1, batchSize);
+        this.maintainSummary = maintainSummary;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flushers = new Thread[Math.max(1, flusherThreads)];
+        for (int i = 0; i < flushers.length; i++) {
+            flushers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    flushLoop();
+                }
+            }, "bill-writer-" + i);
+            flushers[i].setDaemon(true);
+            flushers[i].start();
+        }
+    }
+
+    public static BillWriter fromConfig(ConnectionPool connectionPool) {
+        return new BillWriter(connectionPool, ServerConfig.WRITER_BATCH_SIZE, ServerConfig.WRITER_LINGER_MILLIS,
+            ServerConfig.WRITER_QUEUE_CAPACITY, ServerConfig.WRITER_THREADS, ServerConfig.SUMMARY_ENABLED);
+    }
+
+    /**
+     * PendingBill - One queued row and the future its worker waits on
+     */
+    static class PendingBill {
+        final int patientId;
+        final int visitDay;
+        final double billAmount;
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        PendingBill(int patientId, int visitDay, double billAmount) {
+            this.patientId = patientId;
+            this.visitDay = visitDay;
+            this.billAmount = billAmount;
+        }
+    }
+
+    /**
+     * Queue a bill and wait until its batch has committed
+     * @throws BillInDoubtException if the bill was queued but the wait timed out or was interrupted
+     * @throws SQLException if the batch failed or the queue stayed full, so nothing was written
+     */
+    public void write(int patientId, int visitDay, double billAmount) throws SQLException {
+        PendingBill pending = new PendingBill(patientId, visitDay, billAmount);
+        boolean queued = false;
+        try {
+            if (!running || !queue.offer(pending, ServerConfig.WRITER_ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Bill writer queue is full");
+            }
+            queued = true;
+            pending.committed.get(ServerConfig.WRITER_ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!queued) {
+                throw new SQLException("Interrupted waiting to queue bill");
+            }
+            throw new BillInDoubtException("Interrupted waiting for bill to be saved", pending.committed);
+        } catch (TimeoutException e) {
+            throw new BillInDoubtException("Timed out waiting for bill to be saved", pending.committed);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("Bill could not be saved", cause);
+        }
+    }
+
+    private void flushLoop() {
+        List<PendingBill> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingBill first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // Linger briefly so concurrent bills can share the transaction
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) break;
+                    PendingBill next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                if (!running) break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Insert the batch in one transaction and release its workers
+     */
+    private void flush(final List<PendingBill> batch) {
+        try {
+            insert(batch.size(), new Rows() {
+                @Override
+                public int patientId(int i) {
+                    return batch.get(i).patientId;
+                }
+
+                @Override
+                public int visitDay(int i) {
+                    return batch.get(i).visitDay;
+                }
+
+                @Override
+                public double billAmount(int i) {
+                    return batch.get(i).billAmount;
+                }
+            });
+        } catch (SQLException e) {
+            for (PendingBill bill : batch) {
+                bill.committed.completeExceptionally(e);
+            }
+            return;
+        }
+        for (PendingBill bill : batch) {
+            bill.committed.complete(null);
+        }
+    }
+
+    /**
+     * Insert a caller's rows in one transaction on the calling thread
+     * Used for bulk submissions, which already arrive as large batches.
+     * @param rows indexes of the rows to insert
+     */
+    public void writeAll(final int[] rows, int count, final int[] patientIds, final int[] visitDays,
+                         final double[] billAmounts) throws SQLException {
+        insert(count, new Rows() {
+            @Override
+            public int patientId(int i) {
+                return patientIds[rows[i]];
+            }
+
+            @Override
+            public int visitDay(int i) {
+                return visitDays[rows[i]];
+            }
+
+            @Override
+            public double billAmount(int i) {
+                return billAmounts[rows[i]];
+            }
+        });
+    }
+
+    /**
+     * Rows - The i-th row of a batch
+     */
+    private interface Rows {
+        int patientId(int i);
+
+        int visitDay(int i);
+
+        double billAmount(int i);
+    }
+
+    private void insert(int count, Rows rows) throws SQLException {
+        long start = System.nanoTime();
+        try (PooledConnection pooled = connectionPool.borrow()) {
+            Connection conn = pooled.getConnection();
+            try {
+                conn.setAutoCommit(false);
+                PreparedStatement pstmt = pooled.insertBillStatement();
+                for (int i = 0; i < count; i++) {
+                    pstmt.setInt(1, rows.patientId(i));
+                    pstmt.setString(2, sqlDate(rows.visitDay(i)));
+                    pstmt.setDouble(3, rows.billAmount(i));
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                if (maintainSummary) {
+                    updateSummary(pooled, count, rows);
+                }
+                conn.commit();
+                conn.setAutoCommit(true);
+            } catch (SQLException | RuntimeException e) {
+                pooled.invalidate();
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackError) {
+                    // connection is discarded anyway
+                }
+                throw e;
+            }
+        } catch (SQLException e) {
+            failedBatches.increment();
+            log.warn("Error inserting bill batch", "bills", count, "error", e.getMessage());
+            throw e;
+        }
+
+        long nanos = System.nanoTime() - start;
+        batchCount.increment();
+        billCount.add(count);
+        commitNanos.add(nanos);
+        updateMax(maxCommitNanos, nanos);
+        updateMax(maxBatch, count);
+    }
+
+    /**
+     * Add the batch to PatientBillSummary in the insert's transaction
+     * One upsert per patient in the batch, in patient id order so that
+     * flushers updating the same patients lock their rows in the same order.
+     * Amounts are rounded to cents first, as each bill row stores them.
+     */
+    private static void updateSummary(PooledConnection pooled, int count, Rows rows) throws SQLException {
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = ((long) rows.patientId(i) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        PreparedStatement pstmt = pooled.upsertSummaryStatement();
+        int i = 0;
+        while (i < count) {
+            int patientId = (int) (order[i] >> 32);
+            int bills = 0;
+            BigDecimal total = BigDecimal.ZERO;
+            int lastVisit = Integer.MIN_VALUE;
+            for (; i < count && (int) (order[i] >> 32) == patientId; i++) {
+                int row = (int) order[i];
+                bills++;
+                total = total.add(BigDecimal.valueOf(rows.billAmount(row)).setScale(2, RoundingMode.HALF_UP));
+                lastVisit = Math.max(lastVisit, rows.visitDay(row));
+            }
+            pstmt.setInt(1, patientId);
+            pstmt.setInt(2, bills);
+            pstmt.setBigDecimal(3, total);
+            pstmt.setString(4, sqlDate(lastVisit));
+            pstmt.addBatch();
+        }
+        pstmt.executeBatch();
+    }
+
+    /**
+     * Epoch day as the YYYY-MM-DD text a DATE parameter is bound with
+     */
+    private static String sqlDate(int visitDay) {
+        return LocalDate.ofEpochDay(visitDay).toString();
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Flush everything still queued and stop the flusher threads
+     */
+    public void close() {
+        running = false;
+        for (Thread flusher : flushers) {
+            try {
+                flusher.join(ServerConfig.WRITER_ACK_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public double getAverageBatchSize() {
+        long batches = batchCount.sum();
+        return batches == 0 ? 0.0 : (double) billCount.sum() / batches;
+    }
+
+    public double getAverageCommitMillis() {
+        long batches = batchCount.sum();
+        return batches == 0 ? 0.0 : commitNanos.sum() / (batches * 1_000_000.0);
+    }
+
+    public String getStats() {
+        return "writer[batches=" + batchCount.sum()
+            + ", bills=" + billCount.sum()
+            + ", queued=" + queue.size()
+            + ", avgBatch=" + String.format("%.1f", getAverageBatchSize())
+            + ", maxBatch=" + maxBatch.get()
+            + ", avgCommitMs=" + String.format("%.3f", getAverageCommitMillis())
+            + ", maxCommitMs=" + String.format("%.3f", maxCommitNanos.get() / 1_000_000.0)
+            + ", failedBatches=" + failedBatches.sum()
+            + "]";
+    }
+}
@@ -0,0 +1,166 @@
+package server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BillingProtocol - Per-connection state of the line protocol
+ * Shared by the blocking and NIO front ends; each line received is passed
+ * to handleLine() and the reply is appended to a ResponseEncoder.
+ *
+ *   Single-shot  - the first line is "patientId,visitDate,patientType,serviceCode[,key]";
+ *                  the bill is sent back followed by END and the connection closes.
+ *   Keep-alive   - the first line is KEEPALIVE (answered with "OK KEEPALIVE").
+ *                  Each following "REQ <id> <csv>" line is answered with "RES <id>",
+ *                  the bill lines and END, in the order the requests arrived, so
+ *                  clients may pipeline many requests before reading replies.
+ *                  QUIT (answered with BYE) or end of stream closes the connection.
+ *   Reply format - "MODE COMPACT" or "MODE RECEIPT" (answered with "OK MODE ...")
+ *                  may be sent at any point and applies to the following bills.
+ *   Bulk         - "BULK" (answered with "OK BULK") is followed by any number of
+ *                  record lines and a final END line. Results come back per
+ *                  chunk of records as "<line>,OK,<compact bill>" or
+ *                  "<line>,ERROR,<message>", then "DONE,<records>,<billed>,<failed>"
+ *                  and END. "BULK FILE <name>" bills a claim file on the server
+ *                  instead. A single-shot connection closes after either.
+ *   Codes        - "CODES" may be sent at any point and is answered with
+ *                  "TARIFF <version>", then "SERVICES", "TYPES" and "PLANS" lines
+ *                  listing the current codes in tariff id order, and END.
+ *   Binary       - "MODE BINARY" (answered with "OK MODE BINARY") switches the
+ *                  connection to BinaryProtocol frames for good; the front end
+ *                  then passes each frame to handleFrame() instead.
+ */
+public class BillingProtocol {
+    static final String KEEPALIVE = "KEEPALIVE";
+    static final String REQUEST_PREFIX = "REQ ";
+    static final String RESPONSE_PREFIX = "RES ";
+    static final String MODE_PREFIX = "MODE ";
+    static final String QUIT = "QUIT";
+    static final String BULK = "BULK";
+    static final String BULK_FILE_PREFIX = "BULK FILE ";
+    static final String BULK_END = "END";
+    static final String CODES = "CODES";
+
+    private boolean firstRequest = true;
+    private boolean keepAlive = false;
+    private boolean compact = false;
+    private boolean binary = false;
+    // Submission in progress between BULK and END
+    private BulkBilling bulk;
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Whether the following input is BinaryProtocol frames rather than lines
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Handle one request line
+     * @return true if the connection should be closed once the reply is sent
+     */
+    public boolean handleLine(String line, BillingService service, ResponseEncoder out) {
+        if (bulk != null) {
+            if (line.equals(BULK_END)) {
+                bulk.finish(out);
+                bulk = null;
+                return !keepAlive;
+            }
+            bulk.add(line, out);
+            return false;
+        }
+        if (line.equals(BULK)) {
+            firstRequest = false;
+            bulk = service.startBulk();
+            out.append("OK ").line(BULK);
+            return false;
+        }
+        if (line.startsWith(BULK_FILE_PREFIX)) {
+            firstRequest = false;
+            service.handleBulkFile(line.substring(BULK_FILE_PREFIX.length()), out);
+            return !keepAlive;
+        }
+        if (line.equals(BinaryProtocol.MODE_LINE)) {
+            binary = true;
+            out.append("OK ").line(line);
+            return false;
+        }
+        if (line.equals(CODES)) {
+            out.codes(TariffEngine.current());
+            return false;
+        }
+        if (line.startsWith(MODE_PREFIX)) {
+            String mode = line.substring(MODE_PREFIX.length());
+            if (mode.equals("COMPACT") || mode.equals("RECEIPT")) {
+                compact = mode.equals("COMPACT");
+                out.append("OK ").line(line);
+            } else {
+                ServerMetrics.ERRORS.increment();
+                out.error("Unknown mode: " + mode + ", expected COMPACT, RECEIPT or BINARY");
+            }
+            return false;
+        }
+
+        if (firstRequest) {
+            firstRequest = false;
+            if (line.equals(KEEPALIVE)) {
+                keepAlive = true;
+                out.append("OK ").line(KEEPALIVE);
+                return false;
+            }
+            service.handleRequest(line, compact, out);
+            return true;
+        }
+
+        if (line.equals(QUIT)) {
+            out.line("BYE");
+            return true;
+        }
+        if (line.startsWith(REQUEST_PREFIX)) {
+            int idEnd = line.indexOf(' ', REQUEST_PREFIX.length());
+            if (idEnd > 0) {
+                out.append(RESPONSE_PREFIX).append(line, REQUEST_PREFIX.length(), idEnd).newline();
+                service.handleRequest(line.substring(idEnd + 1), compact, out);
+                return false;
+            }
+        } else if (line.isEmpty()) {
+            return false;
+        }
+        ServerMetrics.ERRORS.increment();
+        out.error("Malformed request, expected REQ <id> <data>");
+        return false;
+    }
+
+    /**
+     * Handle one binary request frame, the bytes after its length prefix
+     * @return true if the connection should be closed once the reply is sent
+     */
+    public boolean handleFrame(ByteBuffer frame, BillingService service, ResponseEncoder out) {
+        int requestId = BinaryProtocol.requestId(frame);
+        byte type = frame.remaining() > 0 ? frame.get() : 0;
+        if (type == BinaryProtocol.BILL && frame.remaining() == BinaryProtocol.BILL_REQUEST_BYTES - 1) {
+            frame.getInt();
+            int layout = frame.getInt();
+            int patientId = frame.getInt();
+            int visitDay = frame.getInt();
+            int patientType = frame.get() & 0xFF;
+            int serviceCode = frame.getShort() & 0xFFFF;
+            service.handleBinaryRequest(requestId, layout, patientId, visitDay, patientType, serviceCode, out);
+            return false;
+        }
+        if (type == BinaryProtocol.CODES && frame.remaining() == BinaryProtocol.CODES_REQUEST_BYTES - 1) {
+            out.binaryCodes(requestId, TariffEngine.current());
+            return false;
+        }
+        if (type == BinaryProtocol.QUIT && frame.remaining() == BinaryProtocol.QUIT_REQUEST_BYTES - 1) {
+            out.binaryBye(requestId);
+            return true;
+        }
+        ServerMetrics.ERRORS.increment();
+        out.binaryError(requestId, "Malformed frame of type " + type);
+        return false;
+    }
+}
@@ -0,0 +1,76 @@
+package server;
+
+import java.sql.SQLException;
+
+/**
+ * BillingRepository - Where patients are looked up and bills are stored
+ * The billing path only talks to this interface, so the server can run
+ * against MySQL, an embedded database or plain memory. Chosen with
+ * billing.repository:
+ *   mysql    - JdbcBillingRepository on billing.db.url (the default)
+ *   embedded - EmbeddedBillingRepository, an H2 database inside the server process
+ *   memory   - InMemoryBillingRepository, optionally syncing bills to MySQL behind it
+ * Any of them can sit behind a LedgerBillingRepository (billing.ledger.dir).
+ * Failures are reported as SQLException whatever the backend, so callers
+ * keep one error path.
+ */
+public interface BillingRepository {
+
+    /**
+     * @return the patient's insurance plan, or null if the patient does not exist
+     */
+    String findInsurancePlan(int patientId) throws SQLException;
+
+    /**
+     * Plans of many patients in one go
+     * @param patientIds distinct ids in ascending order
+     * @param plans filled with the plan of each id, left null if the patient does not exist
+     */
+    void findInsurancePlans(int[] patientIds, int count, String[] plans) throws SQLException;
+
+    /**
+     * Store one bill, returning once the repository has accepted it
+     * Concurrent callers may be grouped into one write.
+     * @param visitDay visit date as an epoch day, already checked by BillRequest.isVisitDay
+     */
+    void saveBill(int patientId, int visitDay, double billAmount) throws SQLException;
+
+    /**
+     * Store several bills together on the calling thread
+     * @param rows indexes of the column entries to store
+     */
+    void saveBills(int[] rows, int count, int[] patientIds, int[] visitDays, double[] billAmounts)
+        throws SQLException;
+
+    /**
+     * One line per component, for the metrics report
+     */
+    String getStats();
+
+    /**
+     * Finish pending writes and release resources
+     */
+    void close();
+
+    /**
+     * Repository selected by billing.repository, behind the bill ledger if billing.ledger.dir is set
+     */
+    static BillingRepository fromConfig() {
+        BillingRepository repository;
+        switch (ServerConfig.REPOSITORY) {
+            case "embedded":
+                repository = EmbeddedBillingRepository.fromConfig();
+                break;
+            case "memory":
+                repository = InMemoryBillingRepository.fromConfig();
+                break;
+            case "mysql":
+                repository = JdbcBillingRepository.fromConfig();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown billing.repository: " + ServerConfig.REPOSITORY
+                    + ", expected mysql, embedded or memory");
+        }
+        return ServerConfig.LEDGER_DIR.isEmpty() ? repository : LedgerBillingRepository.fromConfig(repository);
+    }
+}
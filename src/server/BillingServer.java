@@ -2,43 +2,164 @@ package server;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 
 /**
  * BillingServer - Main server class
- * Listens for client connections and spawns threads
+ * Listens for client connections and hands each one to the worker pool
  * ix. Create a main class, instantiate Thread object, and start the Thread
  */
 public class BillingServer {
-    private static final int PORT = 5000;
+    private static final AsyncLogger log = AsyncLogger.get();
+    
+    private static final int PORT = ServerConfig.PORT;
+    
+    // Reply sent when the worker pool refuses a connection
+    private static final byte[] BUSY_REPLY =
+        "BUSY: Server is at capacity, please retry shortly\nEND\n".getBytes(StandardCharsets.UTF_8);
+    
+    private static volatile boolean running = true;
     
     public static void main(String[] args) {
         ServerSocket serverSocket = null;
+        final WorkerPool workerPool = WorkerPool.create();
+        final ServerResources resources = ServerResources.fromConfig();
+        if (ServerConfig.WARMUP_REQUESTS > 0) {
+            System.out.println("Warming up the billing path...");
+            System.out.println("Warm-up billed " + ServerConfig.WARMUP_REQUESTS + " requests in "
+                + Warmup.run(ServerConfig.WARMUP_REQUESTS, resources.getRepository()) + " ms");
+        }
+        final AdminServer admin = new AdminServer(resources);
+        admin.start();
+        
+        if ("nio".equalsIgnoreCase(ServerConfig.ENGINE)) {
+            runNio(workerPool, resources, admin);
+            return;
+        }
         
         try {
             serverSocket = new ServerSocket(PORT);
             System.out.println("=== MediCare Billing Server ===");
             System.out.println("Server started on port " + PORT);
+            System.out.println("Worker mode: " + workerPool.getMode());
+            System.out.println("Repository: " + ServerConfig.REPOSITORY);
+            System.out.println("Logging to " + (ServerConfig.LOG_FILE.isEmpty() ? "console" : ServerConfig.LOG_FILE));
             System.out.println("Waiting for client connections...\n");
             
-            while (true) {
+            registerShutdownHook(serverSocket, null, workerPool, resources, admin);
+            
+            while (running) {
                 // Accept client connection
                 Socket clientSocket = serverSocket.accept();
+                ServerMetrics.CONNECTIONS_ACCEPTED.increment();
                 
-                // Create new thread for each client
-                BillingServerThread serverThread = new BillingServerThread(clientSocket);
-                serverThread.start();
+                // Hand the client to a worker, or turn it away if we are full
+                BillingServerThread handler = new BillingServerThread(clientSocket, resources.newBillingService(),
+                    System.nanoTime());
+                if (!workerPool.submit(handler)) {
+                    rejectBusy(clientSocket);
+                }
+            }
+        
+        } catch (SocketException e) {
+            if (running) {
+                log.error("Server error", "error", e.getMessage());
             }
-            
         } catch (IOException e) {
-            System.out.println("Server error: " + e.getMessage());
+            log.error("Server error", "error", e.getMessage());
         } finally {
             try {
                 if (serverSocket != null) {
                     serverSocket.close();
                 }
             } catch (IOException e) {
-                e.printStackTrace();
+                log.error("Error closing server socket", e);
             }
         }
     }
+    
+    /**
+     * Serve clients with the selector based NIO engine
+     */
+    private static void runNio(WorkerPool workerPool, ServerResources resources, AdminServer admin) {
+        NioBillingServer nioServer = new NioBillingServer(PORT, ServerConfig.NIO_IO_THREADS,
+            workerPool, resources);
+        System.out.println("=== MediCare Billing Server ===");
+        System.out.println("Server started on port " + PORT + " (NIO engine, "
+            + ServerConfig.NIO_IO_THREADS + " I/O threads)");
+        System.out.println("Worker mode: " + workerPool.getMode());
+        System.out.println("Repository: " + ServerConfig.REPOSITORY);
+        System.out.println("Logging to " + (ServerConfig.LOG_FILE.isEmpty() ? "console" : ServerConfig.LOG_FILE));
+        System.out.println("Waiting for client connections...\n");
+        
+        registerShutdownHook(null, nioServer, workerPool, resources, admin);
+        try {
+            nioServer.run();
+        } catch (IOException e) {
+            log.error("Server error", "error", e.getMessage());
+        }
+    }
+    
+    /**
+     * Tell a client the server is busy and close its socket
+     */
+    private static void rejectBusy(Socket clientSocket) {
+        ServerMetrics.REJECTED.increment();
+        try {
+            clientSocket.getOutputStream().write(BUSY_REPLY);
+            clientSocket.getOutputStream().flush();
+        } catch (IOException e) {
+            // Client already gone, nothing to tell it
+        } finally {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                log.error("Error closing rejected connection", e);
+            }
+        }
+        log.warn("Connection rejected: server busy");
+    }
+    
+    /**
+     * On JVM shutdown stop accepting, then let in-flight bills finish
+     */
+    private static void registerShutdownHook(final ServerSocket serverSocket, final NioBillingServer nioServer,
+                                             final WorkerPool workerPool, final ServerResources resources,
+                                             final AdminServer admin) {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                System.out.println("\n[SERVER] Shutting down, draining in-flight bills...");
+                running = false;
+                if (serverSocket != null) {
+                    try {
+                        serverSocket.close();
+                    } catch (IOException e) {
+                        log.error("Error closing server socket", e);
+                    }
+                }
+                if (nioServer != null) {
+                    nioServer.stopAccepting();
+                } else {
+                    // Clients idle in a read would otherwise hold their workers for the whole drain
+                    BillingServerThread.endAllInput();
+                }
+                if (workerPool.shutdown(ServerConfig.SHUTDOWN_DRAIN_SECONDS)) {
+                    System.out.println("[SERVER] All bills completed, server stopped");
+                } else {
+                    System.out.println("[SERVER] Drain timed out, remaining workers interrupted");
+                }
+                if (nioServer != null) {
+                    nioServer.closeConnections();
+                }
+                admin.stop();
+                if (log.isEnabled(AsyncLogger.INFO)) {
+                    log.info("Final metrics", "report", ServerMetrics.report(null));
+                }
+                resources.close();
+                // Last, so everything above reaches the log
+                log.close();
+            }
+        }, "billing-shutdown"));
+    }
 }
\ No newline at end of file
@@ -2,211 +2,229 @@ package server;
 
 import java.io.*;
 import java.net.*;
-import java.sql.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * BillingServerThread - Handles individual client connections
- * Extends Thread for multithreading support
+ * Implements Runnable so BillingServer can run it on a pooled or virtual thread
+ * Speaks the line protocol described in BillingProtocol, and BinaryProtocol
+ * frames once the client switches to them.
  */
-public class BillingServerThread extends Thread {
-    private Socket clientSocket;
+public class BillingServerThread implements Runnable {
+    private static final AsyncLogger log = AsyncLogger.get();
     
-    // Database connection details
-    static final String JDBC_DRIVER = "com.mysql.cj.jdbc.Driver";
-    static final String DB_URL = "jdbc:mysql://localhost:3306/medicareBilling";
-    static final String USER = "root";
-    static final String PASSWORD = "";
+    // Sockets of the connections being served, so shutdown can end their input
+    private static final Set<Socket> OPEN_SOCKETS = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private static volatile boolean inputEnded = false;
     
-    // Service pricing map
-    private Map<String, Double> servicePrices;
+    private Socket clientSocket;
     
-    // Insurance discount map
-    private Map<String, Double> insuranceDiscounts;
+    // Bill calculation and storage, one instance per connection
+    private BillingService billingService;
     
-    // Insurance per-visit fee map
-    private Map<String, Double> perVisitFees;
+    // Protocol state and the reused reply buffer of this connection
+    private final BillingProtocol protocol = new BillingProtocol();
+    private final ResponseEncoder encoder = new ResponseEncoder();
     
-    // Patient type extra charge map
-    private Map<String, Double> patientTypeCharges;
+    // System.nanoTime() when the connection was accepted
+    private final long acceptedAt;
     
     // Constructor
-    public BillingServerThread(Socket socket) {
+    public BillingServerThread(Socket socket, BillingService billingService, long acceptedAt) {
         this.clientSocket = socket;
-        initializeMaps();
+        this.billingService = billingService;
+        this.acceptedAt = acceptedAt;
     }
     
     /**
-     * Initialize pricing and discount maps
-     */
-    private void initializeMaps() {
-        // Service codes and prices
-        servicePrices = new HashMap<>();
-        servicePrices.put("CONS100", 12.00);
-        servicePrices.put("LAB210", 8.50);
-        servicePrices.put("IMG330", 25.00);
-        servicePrices.put("US400", 35.00);
-        servicePrices.put("MRI700", 180.00);
-        
-        // Insurance plan discounts
-        insuranceDiscounts = new HashMap<>();
-        insuranceDiscounts.put("Premium", 0.15);
-        insuranceDiscounts.put("Standard", 0.10);
-        insuranceDiscounts.put("Basic", 0.00);
-        
-        // Per-visit fees
-        perVisitFees = new HashMap<>();
-        perVisitFees.put("Premium", 5.00);
-        perVisitFees.put("Standard", 8.00);
-        perVisitFees.put("Basic", 10.00);
-        
-        // Patient type extra charges
-        patientTypeCharges = new HashMap<>();
-        patientTypeCharges.put("Outpatient", 0.00);
-        patientTypeCharges.put("Inpatient", 0.05);
-        patientTypeCharges.put("Emergency", 0.15);
-    }
-    
-    /**
-     * run() - Main execution method of the thread
+     * run() - Main execution method, called by a worker thread
+     * Each reply is built in the encoder and written in one piece; the socket
+     * is only flushed once no further pipelined request is waiting.
      */
     @Override
     public void run() {
-        BufferedReader in = null;
-        PrintWriter out = null;
-        Connection conn = null;
+        InputStream in = null;
+        OutputStream out = null;
+        ServerMetrics.ACCEPT.recordSince(acceptedAt);
+        ServerMetrics.ACTIVE_CONNECTIONS.incrementAndGet();
+        OPEN_SOCKETS.add(clientSocket);
+        if (inputEnded) {
+            endInput(clientSocket);
+        }
         
         try {
-            // Initialize streams
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
+            // Initialize streams; lines are read off the byte stream so it can switch to binary frames
+            in = new BufferedInputStream(clientSocket.getInputStream(), 8192);
+            out = new BufferedOutputStream(clientSocket.getOutputStream(), 8192);
             
-            System.out.println("\n[SERVER] New client connected: " + clientSocket.getInetAddress());
+            log.debug("Client connected", "address", clientSocket.getInetAddress());
             
             // ii. Accept data from client
-            String request = in.readLine();
-            if (request == null) return;
-            
-            System.out.println("[SERVER] Received request: " + request);
-            
-            // Parse client data
-            String[] parts = request.split(",");
-            int patientId = Integer.parseInt(parts[0]);
-            String visitDate = parts[1];
-            String patientType = parts[2];
-            String serviceCode = parts[3];
-            
-            // iii. Make connection to database
-            Class.forName(JDBC_DRIVER);
-            conn = DriverManager.getConnection(DB_URL, USER, PASSWORD);
-            System.out.println("[SERVER] Database connection established");
-            
-            // iv. Retrieve insurance plan from database
-            String insurancePlan = getInsurancePlan(conn, patientId);
-            
-            if (insurancePlan == null) {
-                out.println("ERROR: Patient ID not found in database");
-                out.println("END");
-                return;
+            String request;
+            boolean close = false;
+            while (!close && !protocol.isBinary() && (request = readLine(in)) != null) {
+                encoder.reset();
+                if (request == LINE_TOO_LONG) {
+                    ServerMetrics.ERRORS.increment();
+                    encoder.error("Request line too long");
+                    close = true;
+                } else {
+                    close = protocol.handleLine(request, billingService, encoder);
+                }
+                writeReply(out, close || in.available() == 0);
+                if ((protocol.isKeepAlive() || protocol.isBinary()) && clientSocket.getSoTimeout() == 0) {
+                    clientSocket.setSoTimeout(ServerConfig.KEEPALIVE_IDLE_TIMEOUT_MILLIS);
+                }
             }
-            
-            // v. Calculate bill amount
-            double serviceAmount = servicePrices.get(serviceCode);
-            double insuranceDiscount = insuranceDiscounts.get(insurancePlan) * serviceAmount;
-            double discountedAmount = serviceAmount - insuranceDiscount;
-            double perVisitFee = perVisitFees.get(insurancePlan);
-            double subtotal = discountedAmount + perVisitFee;
-            double extraCharge = subtotal * patientTypeCharges.get(patientType);
-            double finalBillAmount = subtotal + extraCharge;
-            
-            // vi. Insert bill record into database
-            insertBillRecord(conn, patientId, visitDate, finalBillAmount);
-            
-            // vii. Send results back to client
-            out.println("=====================================");
-            out.println("         PATIENT BILL DETAILS        ");
-            out.println("=====================================");
-            out.println("Patient ID: " + patientId);
-            out.println("Visit Date: " + visitDate);
-            out.println("Service Code: " + serviceCode);
-            out.println("Patient Type: " + patientType);
-            out.println("Insurance Plan: " + insurancePlan);
-            out.println("-------------------------------------");
-            out.println("Service Amount: OMR " + String.format("%.2f", serviceAmount));
-            out.println("Insurance Discount (" + 
-                (insuranceDiscounts.get(insurancePlan) * 100) + "%): -OMR " + 
-                String.format("%.2f", insuranceDiscount));
-            out.println("Discounted Amount: OMR " + String.format("%.2f", discountedAmount));
-            out.println("Per-Visit Fee: OMR " + String.format("%.2f", perVisitFee));
-            out.println("Subtotal: OMR " + String.format("%.2f", subtotal));
-            out.println("Extra Charge (" + 
-                (patientTypeCharges.get(patientType) * 100) + "%): OMR " + 
-                String.format("%.2f", extraCharge));
-            out.println("=====================================");
-            out.println("FINAL BILL AMOUNT: OMR " + String.format("%.2f", finalBillAmount));
-            out.println("=====================================");
-            out.println("END");
-            
-            System.out.println("[SERVER] Bill calculated and sent to client. Final Amount: OMR " + 
-                String.format("%.2f", finalBillAmount));
-            
-        } catch (ClassNotFoundException e) {
-            System.out.println("[SERVER ERROR] JDBC Driver not found: " + e.getMessage());
-        } catch (SQLException e) {
-            System.out.println("[SERVER ERROR] Database error: " + e.getMessage());
+            if (!close && protocol.isBinary()) {
+                serveFrames(in, out);
+            }
+            out.flush();
+        
+        } catch (SocketTimeoutException e) {
+            log.debug("Keep-alive connection idle, closing");
         } catch (IOException e) {
-            System.out.println("[SERVER ERROR] IO Error: " + e.getMessage());
+            ServerMetrics.IO_ERRORS.increment();
+            log.warn("IO error", "error", e.getMessage());
         } finally {
-            // viii. Close database connection
-            try {
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-            
+            OPEN_SOCKETS.remove(clientSocket);
+            ServerMetrics.ACTIVE_CONNECTIONS.decrementAndGet();
             // Close client connection
             try {
-                if (in != null) in.close();
                 if (out != null) out.close();
+                if (in != null) in.close();
                 if (clientSocket != null) clientSocket.close();
-                System.out.println("[SERVER] Client connection closed");
+                log.debug("Client connection closed");
             } catch (IOException e) {
-                e.printStackTrace();
+                log.error("Error closing client connection", e);
             }
         }
     }
     
     /**
-     * Retrieve insurance plan from Patient table using patient ID
+     * Stop reading from every client, for shutdown
+     * Connections waiting for their next request see the end of the stream
+     * and finish at once instead of holding a worker through the drain; a
+     * request being handled still gets its reply.
      */
-    private String getInsurancePlan(Connection conn, int patientId) {
-        String query = "SELECT insurance_plan FROM Patient WHERE patient_id = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setInt(1, patientId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getString("insurance_plan");
+    static void endAllInput() {
+        inputEnded = true;
+        for (Socket socket : OPEN_SOCKETS) {
+            endInput(socket);
+        }
+    }
+    
+    private static void endInput(Socket socket) {
+        try {
+            socket.shutdownInput();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+    
+    /**
+     * Answer BinaryProtocol frames until QUIT or end of stream
+     */
+    private void serveFrames(InputStream in, OutputStream out) throws IOException {
+        byte[] frame = new byte[BinaryProtocol.MAX_FRAME_BYTES];
+        ByteBuffer view = ByteBuffer.wrap(frame);
+        boolean close = false;
+        while (!close) {
+            long header = readFrameLength(in);
+            if (header == END_OF_STREAM) {
+                return;
+            }
+            int length = (int) header;
+            encoder.reset();
+            if (length < 0 || length > frame.length) {
+                // The stream cannot be resynchronised after a bad length
+                ServerMetrics.ERRORS.increment();
+                encoder.binaryError(0, "Frame too long: " + length + " bytes");
+                close = true;
+            } else {
+                readFully(in, frame, length);
+                view.clear().limit(length);
+                close = protocol.handleFrame(view, billingService, encoder);
             }
-        } catch (SQLException e) {
-            System.out.println("[SERVER] Error retrieving insurance plan: " + e.getMessage());
+            writeReply(out, close || in.available() == 0);
         }
-        return null;
     }
     
     /**
-     * Insert bill record into PatientBill table
+     * Send the encoded reply, flushing the socket only when asked
      */
-    private void insertBillRecord(Connection conn, int patientId, String visitDate, double billAmount) {
-        String query = "INSERT INTO PatientBill (patient_id, visit_date, bill_amount) VALUES (?, ?, ?)";
-        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setInt(1, patientId);
-            pstmt.setString(2, visitDate);
-            pstmt.setDouble(3, billAmount);
-            pstmt.executeUpdate();
-            System.out.println("[SERVER] Bill record inserted into database");
-        } catch (SQLException e) {
-            System.out.println("[SERVER] Error inserting bill record: " + e.getMessage());
+    private void writeReply(OutputStream out, boolean flush) throws IOException {
+        long start = System.nanoTime();
+        encoder.writeTo(out);
+        if (flush) {
+            out.flush();
+        }
+        ServerMetrics.WRITE.recordSince(start);
+    }
+    
+    // Returned by readFrameLength() at a clean end of stream; outside the int range of a length
+    private static final long END_OF_STREAM = Long.MIN_VALUE;
+    
+    // Returned by readLine() for a line over the configured limit
+    private static final String LINE_TOO_LONG = new String("<too long>");
+    
+    private byte[] lineBuffer = new byte[128];
+    
+    /**
+     * Read one line as UTF-8 without its terminator
+     * @return the line, LINE_TOO_LONG, or null at end of stream
+     */
+    private String readLine(InputStream in) throws IOException {
+        int length = 0;
+        boolean overflow = false;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (length == 0 && !overflow) return null;
+                break;
+            }
+            if (b == '\r' || overflow) continue;
+            if (length == lineBuffer.length) {
+                if (length >= ServerConfig.NIO_MAX_LINE_BYTES) {
+                    overflow = true;
+                    continue;
+                }
+                lineBuffer = Arrays.copyOf(lineBuffer, Math.min(length * 2, ServerConfig.NIO_MAX_LINE_BYTES));
+            }
+            lineBuffer[length++] = (byte) b;
+        }
+        return overflow ? LINE_TOO_LONG : new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * @return the next frame length as sent, negative if its top bit is set,
+     *         or END_OF_STREAM at a clean end of stream
+     */
+    private static long readFrameLength(InputStream in) throws IOException {
+        int b1 = in.read();
+        if (b1 < 0) return END_OF_STREAM;
+        int b2 = in.read();
+        int b3 = in.read();
+        int b4 = in.read();
+        if ((b2 | b3 | b4) < 0) {
+            throw new EOFException("Connection closed inside a frame header");
+        }
+        return (b1 << 24) | (b2 << 16) | (b3 << 8) | b4;
+    }
+    
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Connection closed inside a frame");
+            }
+            read += n;
         }
     }
 }
\ No newline at end of file
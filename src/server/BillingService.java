@@ -0,0 +1,340 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * BillingService - Calculates, stores and formats one bill per request
+ * Independent of how the request arrived, so both the blocking and the NIO
+ * server front ends use it. Not thread-safe: each connection or worker keeps
+ * its own instance, which lets the Bill scratch object be reused.
+ */
+public class BillingService {
+    private static final AsyncLogger log = AsyncLogger.get();
+    
+    // Shared store of patients and bills
+    private BillingRepository repository;
+    
+    // Shared cache of patient insurance plans
+    private InsurancePlanCache planCache;
+    
+    // Shared table of recently billed requests, null if disabled
+    private DedupeWindow dedupe;
+    
+    // Reused for every request this instance handles
+    private final BillRequest billRequest = new BillRequest();
+    private final Bill bill = new Bill();
+    
+    // Bill to reply with: the scratch bill, or the earlier one when a resend was recognised
+    private Bill result;
+    
+    // Set when the last bill was queued but its commit not confirmed; completes once the writer knows
+    private CompletableFuture<Void> inDoubt;
+    
+    public BillingService(BillingRepository repository, InsurancePlanCache planCache, DedupeWindow dedupe) {
+        this.repository = repository;
+        this.planCache = planCache;
+        this.dedupe = dedupe;
+    }
+    
+    /**
+     * Calculate, store and reply with one bill
+     * Appends a reply terminated by END to out; sending it is left to the caller.
+     * @param compact reply with the one-line compact form instead of the receipt
+     */
+    public void handleRequest(String request, boolean compact, ResponseEncoder out) {
+        long start = System.nanoTime();
+        ServerMetrics.REQUESTS.increment();
+        log.debug("Received request", "request", request);
+        try {
+            billRequest(request, compact, out);
+        } finally {
+            ServerMetrics.REQUEST.recordSince(start);
+        }
+    }
+    
+    private void billRequest(String request, boolean compact, ResponseEncoder out) {
+        long start = System.nanoTime();
+        
+        // Parse client data
+        try {
+            if (!billRequest.parse(request)) {
+                reject(out, request, "Malformed request, expected patientId,visitDate,patientType,serviceCode[,key]");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            reject(out, request, "Invalid patient ID");
+            return;
+        }
+        int visitDay = BillRequest.visitDay(billRequest.visitDate);
+        if (visitDay == BillRequest.INVALID_DAY) {
+            reject(out, request, "Invalid visit date");
+            return;
+        }
+        
+        // Resolve codes against the shared tariff
+        Tariff tariff = TariffEngine.current();
+        int serviceId = tariff.serviceId(billRequest.serviceCode);
+        int typeId = tariff.patientTypeId(billRequest.patientType);
+        ServerMetrics.PARSE.recordSince(start);
+        if (serviceId < 0 || typeId < 0) {
+            reject(out, request, "Unknown " + (serviceId < 0 ? "service code: " + billRequest.serviceCode
+                : "patient type: " + billRequest.patientType));
+            return;
+        }
+        
+        String error = billOnce(tariff, billRequest.idempotencyKey, billRequest.patientId, visitDay,
+            typeId, serviceId);
+        if (error != null) {
+            reject(out, request, error);
+            return;
+        }
+        
+        // vii. Send results back to client
+        if (compact) {
+            out.compact(result);
+        } else {
+            out.receipt(result);
+        }
+        if (result == bill) {
+            log.info("Bill calculated", "request", request, "finalAmount", bill.finalAmount);
+        } else {
+            log.info("Resent request answered with earlier bill", "request", request, "finalAmount", result.finalAmount);
+        }
+    }
+    
+    private static void reject(ResponseEncoder out, String request, String message) {
+        ServerMetrics.ERRORS.increment();
+        log.info("Request rejected", "request", request, "error", message);
+        out.error(message);
+    }
+    
+    /**
+     * Binary counterpart of handleRequest(); codes arrive as Tariff ids
+     * Appends one BinaryProtocol reply frame to out.
+     * @param layout Tariff layout the client took the ids from
+     */
+    public void handleBinaryRequest(int requestId, int layout, int patientId, int visitDay, int typeId,
+                                    int serviceId, ResponseEncoder out) {
+        long start = System.nanoTime();
+        ServerMetrics.REQUESTS.increment();
+        Tariff tariff = TariffEngine.current();
+        String error;
+        if (!tariff.acceptsLayout(layout)) {
+            ServerMetrics.ERRORS.increment();
+            out.binaryStale(requestId, tariff);
+            ServerMetrics.REQUEST.recordSince(start);
+            return;
+        }
+        if (!tariff.isActiveService(serviceId) || !tariff.isActivePatientType(typeId)) {
+            error = "Unknown " + (!tariff.isActiveService(serviceId)
+                ? "service code id: " + serviceId : "patient type id: " + typeId);
+        } else if (!BillRequest.isVisitDay(visitDay)) {
+            error = "Invalid visit date";
+        } else {
+            ServerMetrics.PARSE.recordSince(start);
+            error = billOnce(tariff, null, patientId, visitDay, typeId, serviceId);
+        }
+        if (error != null) {
+            ServerMetrics.ERRORS.increment();
+            out.binaryError(requestId, error);
+        } else {
+            out.binaryBill(requestId, result);
+        }
+        ServerMetrics.REQUEST.recordSince(start);
+    }
+    
+    /**
+     * Start a bulk submission sharing this service's repository and cache
+     */
+    public BulkBilling startBulk() {
+        return new BulkBilling(repository, planCache, ServerConfig.BULK_CHUNK_SIZE);
+    }
+    
+    /**
+     * Bill every record of a claim file in ServerConfig.BULK_DIR
+     * Per-record results go to "<file>.results" next to it; the reply names
+     * that file and carries the DONE summary line, then END.
+     */
+    public void handleBulkFile(String name, ResponseEncoder out) {
+        if (ServerConfig.BULK_DIR.isEmpty()) {
+            reject(out, name, "Bulk files are not enabled on this server");
+            return;
+        }
+        Path dir = Paths.get(ServerConfig.BULK_DIR).toAbsolutePath().normalize();
+        Path input = dir.resolve(name).normalize();
+        if (!input.startsWith(dir) || !Files.isRegularFile(input)) {
+            reject(out, name, "Bulk file not found: " + name);
+            return;
+        }
+        Path results = input.resolveSibling(input.getFileName() + ".results");
+        log.info("Bulk file", "path", input);
+        
+        BulkBilling bulk = startBulk();
+        ResponseEncoder chunk = new ResponseEncoder(64 * 1024);
+        try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             OutputStream file = new BufferedOutputStream(Files.newOutputStream(results))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                bulk.add(line, chunk);
+                if (chunk.size() >= 32 * 1024) {
+                    chunk.writeTo(file);
+                    chunk.reset();
+                }
+            }
+            bulk.finish(chunk);
+            chunk.writeTo(file);
+        } catch (IOException e) {
+            log.error("Bulk file failed", "error", e.getMessage());
+            reject(out, name, "Cannot process bulk file: " + name);
+            return;
+        }
+        out.append("RESULTS ").line(dir.relativize(results).toString());
+        out.append("DONE,").append(bulk.getRecords()).append(',').append(bulk.getBilled())
+            .append(',').append(bulk.getFailed()).newline();
+        out.line("END");
+    }
+    
+    /**
+     * Bill a request unless the same request was billed within the dedupe window
+     * Sets result to the bill to reply with.
+     * @param key the client's idempotency key, or null to key by the request itself
+     * @return null on success, otherwise the error message for the client
+     */
+    private String billOnce(Tariff tariff, String key, int patientId, int visitDay, int typeId, int serviceId) {
+        result = bill;
+        if (dedupe == null || (key == null && !ServerConfig.DEDUPE_DERIVE_KEYS)) {
+            return calculateAndStore(tariff, patientId, visitDay, typeId, serviceId);
+        }
+        // Codes rather than ids, so the fingerprint means the same request under any tariff
+        String fingerprint = patientId + "," + visitDay + "," + tariff.patientType(typeId) + ","
+            + tariff.serviceCode(serviceId);
+        // Explicit keys live apart from derived ones, which start with a digit or '-'
+        DedupeWindow.Entry attempt = new DedupeWindow.Entry(key != null ? "#" + key : fingerprint, fingerprint);
+        DedupeWindow.Entry earlier;
+        while ((earlier = dedupe.putIfAbsent(attempt)) != null) {
+            if (!earlier.fingerprint.equals(fingerprint)) {
+                dedupe.conflict();
+                return "Idempotency key already used for a different request";
+            }
+            try {
+                Bill previous = dedupe.await(earlier, ServerConfig.WRITER_ACK_TIMEOUT_MILLIS);
+                if (previous != null) {
+                    result = previous;
+                    return null;
+                }
+                // The earlier attempt failed, so this one bills the request
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "Same request is still being processed, please retry";
+            } catch (TimeoutException e) {
+                return "Same request is still being processed, please retry";
+            }
+        }
+        boolean billed = false;
+        try {
+            String error = calculateAndStore(tariff, patientId, visitDay, typeId, serviceId);
+            billed = error == null;
+            return error;
+        } finally {
+            if (billed) {
+                dedupe.complete(attempt, bill.copy());
+            } else if (inDoubt != null) {
+                settleWhenSaved(attempt, inDoubt, bill.copy());
+            } else {
+                dedupe.abandon(attempt);
+            }
+        }
+    }
+    
+    /**
+     * Keep an in-doubt attempt's entry, so resends wait for it instead of billing again,
+     * and complete or abandon it once the writer reports whether the row was written
+     */
+    private void settleWhenSaved(final DedupeWindow.Entry attempt, CompletableFuture<Void> saved, final Bill copy) {
+        final DedupeWindow window = dedupe;
+        saved.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void ignored, Throwable error) {
+                if (error == null) {
+                    window.complete(attempt, copy);
+                } else {
+                    window.abandon(attempt);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Price the bill into the scratch Bill and store it
+     * @return null on success, otherwise the error message for the client
+     */
+    private String calculateAndStore(Tariff tariff, int patientId, int visitDay, int typeId, int serviceId) {
+        inDoubt = null;
+        // iii/iv. Retrieve insurance plan, from the cache or else the database
+        String insurancePlan;
+        long start = System.nanoTime();
+        try {
+            insurancePlan = planCache.get(patientId, planLoader);
+        } catch (SQLException e) {
+            log.error("Database error", "error", e.getMessage());
+            return "Database unavailable, please retry";
+        } finally {
+            ServerMetrics.PLAN.recordSince(start);
+        }
+        if (insurancePlan == null) {
+            return "Patient ID not found in database";
+        }
+        int planId = tariff.planId(insurancePlan);
+        if (planId < 0) {
+            return "Unknown insurance plan: " + insurancePlan;
+        }
+        
+        // v. Calculate bill amount
+        start = System.nanoTime();
+        bill.patientId = patientId;
+        bill.visitDay = visitDay;
+        tariff.price(planId, typeId, serviceId, bill);
+        ServerMetrics.CALCULATE.recordSince(start);
+        
+        // vi. Insert bill record into database; reply only once it is committed
+        start = System.nanoTime();
+        try {
+            insertBillRecord(patientId, visitDay, bill.finalAmount);
+        } catch (BillInDoubtException e) {
+            log.warn("Bill record not confirmed yet", "error", e.getMessage());
+            inDoubt = e.getSaved();
+            return "Bill is still being saved, please retry";
+        } catch (SQLException e) {
+            log.warn("Error inserting bill record", "error", e.getMessage());
+            return "Bill could not be saved, please retry";
+        } finally {
+            ServerMetrics.INSERT.recordSince(start);
+        }
+        return null;
+    }
+    
+    /**
+     * Cache loader: look the plan up in the repository
+     */
+    private final InsurancePlanCache.Loader planLoader = new InsurancePlanCache.Loader() {
+        @Override
+        public String load(int patientId) throws SQLException {
+            return repository.findInsurancePlan(patientId);
+        }
+    };
+    
+    /**
+     * Insert bill record into PatientBill table
+     * The repository may group it with other workers' bills; returns once it is stored.
+     */
+    private void insertBillRecord(int patientId, int visitDay, double billAmount) throws SQLException {
+        repository.saveBill(patientId, visitDay, billAmount);
+        log.debug("Bill record inserted into database");
+    }
+}
@@ -0,0 +1,79 @@
+package server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BinaryProtocol - Length-prefixed binary framing for machine clients
+ * A connection switches to it by sending the line "MODE BINARY" and waiting
+ * for "OK MODE BINARY"; from then on both directions carry frames only.
+ * Every frame is a big-endian int length followed by that many bytes.
+ *
+ * Requests:
+ *   BILL  byte 1, int requestId, int layout, int patientId, int visitDate (epoch day),
+ *         byte patientType, short serviceCode (Tariff ids)
+ *   QUIT  byte 2, int requestId
+ *   CODES byte 3, int requestId
+ * Ids are positions in the current tariff. CODES returns them with the
+ * tariff's layout, which every BILL must carry; a BILL whose layout the
+ * current tariff does not accept is answered with STALE and not billed, so
+ * ids are never read against a different tariff than they came from.
+ * Replies, answering requests in order:
+ *   OK    byte 0, int requestId, int patientId, int visitDate, byte patientType,
+ *         short serviceCode, byte insurancePlan, int discountRate, int extraChargeRate
+ *         (basis points), then long serviceAmount, insuranceDiscount, discountedAmount,
+ *         perVisitFee, subtotal, extraCharge, finalAmount (baisa, 1/1000 OMR),
+ *         int tariffVersion
+ *   ERROR byte 1, int requestId, short length, UTF-8 message
+ *   BYE   byte 2, int requestId; the server then closes the connection
+ *   CODES byte 3, int requestId, int tariffVersion, int layout, then the services,
+ *         patient types and plans, each a short count followed by
+ *         (byte retired, short length, UTF-8 code) in id order
+ *   STALE byte 4, int requestId, int layout of the current tariff
+ */
+public final class BinaryProtocol {
+    public static final String MODE_LINE = "MODE BINARY";
+
+    // Request types
+    public static final byte BILL = 1;
+    public static final byte QUIT = 2;
+    public static final byte CODES = 3;
+
+    // Reply statuses
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+    public static final byte BYE = 2;
+    public static final byte CODES_REPLY = 3;
+    public static final byte STALE = 4;
+
+    // Fixed-point scales of amounts and rates
+    public static final long AMOUNT_SCALE = 1000;
+    public static final long RATE_SCALE = 10000;
+
+    // Body sizes, excluding the length prefix
+    public static final int BILL_REQUEST_BYTES = 20;
+    public static final int QUIT_REQUEST_BYTES = 5;
+    public static final int CODES_REQUEST_BYTES = 5;
+    public static final int OK_REPLY_BYTES = 85;
+
+    // Longest frame a server accepts; anything bigger is a framing error
+    public static final int MAX_FRAME_BYTES = 64;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Request id of a request frame body, 0 if it is too short to have one
+     */
+    static int requestId(ByteBuffer frame) {
+        return frame.remaining() >= 5 ? frame.getInt(frame.position() + 1) : 0;
+    }
+
+    /**
+     * Standalone error frame, for replies built outside a worker
+     */
+    static byte[] errorFrame(int requestId, String message) {
+        ResponseEncoder out = new ResponseEncoder(64);
+        out.binaryError(requestId, message);
+        return out.toByteArray();
+    }
+}
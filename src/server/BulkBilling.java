@@ -0,0 +1,263 @@
+package server;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * BulkBilling - Prices a stream of visit records in chunks
+ * Records are collected until a chunk is full. The chunk's insurance plans
+ * then come from the plan cache, with all misses fetched from the repository
+ * in one call (batched "WHERE patient_id IN (...)" queries for a database);
+ * the bills are priced in parallel on the common ForkJoinPool and saved
+ * together. One result
+ * line per record is appended in record order:
+ *   <line>,OK,<compact bill fields>    or    <line>,ERROR,<message>
+ * so a bad record fails only its own line.
+ * Not thread-safe: one instance serves one bulk submission.
+ */
+public class BulkBilling {
+    // Records priced by one task before it splits
+    private static final int PRICE_THRESHOLD = 256;
+    
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    private final BillingRepository repository;
+    private final InsurancePlanCache planCache;
+    private final BillRequest billRequest = new BillRequest();
+
+    // Current chunk, one column per field
+    private final int[] lineNumbers;
+    private final int[] patientIds;
+    private final int[] visitDays;
+    private final int[] typeIds;
+    private final int[] serviceIds;
+    private final String[] plans;
+    private final String[] errors;
+    private final Bill[] bills;
+    private final double[] amounts;
+    private final int[] priced;
+    private int count = 0;
+    // Tariff the current chunk's codes were resolved against
+    private Tariff tariff;
+
+    // Totals for the whole submission
+    private int lineNumber = 0;
+    private long records = 0;
+    private long billed = 0;
+    private long failed = 0;
+
+    public BulkBilling(BillingRepository repository, InsurancePlanCache planCache, int chunkSize) {
+        this.repository = repository;
+        this.planCache = planCache;
+        chunkSize = Math.max(1, chunkSize);
+        lineNumbers = new int[chunkSize];
+        patientIds = new int[chunkSize];
+        visitDays = new int[chunkSize];
+        typeIds = new int[chunkSize];
+        serviceIds = new int[chunkSize];
+        plans = new String[chunkSize];
+        errors = new String[chunkSize];
+        bills = new Bill[chunkSize];
+        amounts = new double[chunkSize];
+        priced = new int[chunkSize];
+        for (int i = 0; i < chunkSize; i++) {
+            bills[i] = new Bill();
+        }
+    }
+
+    /**
+     * Take one record line, appending the results of the chunk it completes
+     * Blank lines are counted but otherwise ignored.
+     */
+    public void add(String line, ResponseEncoder out) {
+        lineNumber++;
+        if (line.trim().isEmpty()) {
+            return;
+        }
+        if (count == 0) {
+            tariff = TariffEngine.current();
+        }
+        int i = count++;
+        lineNumbers[i] = lineNumber;
+        errors[i] = null;
+        try {
+            // Claim files are billed once by construction; keys are only for interactive resends
+            if (!billRequest.parse(line) || billRequest.idempotencyKey != null) {
+                errors[i] = "Malformed record, expected patientId,visitDate,patientType,serviceCode";
+            }
+        } catch (NumberFormatException e) {
+            errors[i] = "Invalid patient ID";
+        }
+        if (errors[i] == null) {
+            patientIds[i] = billRequest.patientId;
+            visitDays[i] = BillRequest.visitDay(billRequest.visitDate);
+            serviceIds[i] = tariff.serviceId(billRequest.serviceCode);
+            typeIds[i] = tariff.patientTypeId(billRequest.patientType);
+            if (visitDays[i] == BillRequest.INVALID_DAY) {
+                errors[i] = "Invalid visit date";
+            } else if (serviceIds[i] < 0) {
+                errors[i] = "Unknown service code: " + billRequest.serviceCode;
+            } else if (typeIds[i] < 0) {
+                errors[i] = "Unknown patient type: " + billRequest.patientType;
+            }
+        }
+        if (count == lineNumbers.length) {
+            flush(out);
+        }
+    }
+
+    /**
+     * Process the last partial chunk and append the summary line
+     * "DONE,<records>,<billed>,<failed>" followed by END.
+     */
+    public void finish(ResponseEncoder out) {
+        flush(out);
+        out.append("DONE,").append(records).append(',').append(billed).append(',').append(failed).newline();
+        out.line("END");
+        log.info("Bulk submission finished", "records", records, "failed", failed);
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getBilled() {
+        return billed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Resolve, price, store and report the current chunk
+     */
+    private void flush(ResponseEncoder out) {
+        if (count == 0) return;
+        long start = System.currentTimeMillis();
+        resolvePlans();
+        ForkJoinPool.commonPool().invoke(new PriceTask(tariff, 0, count));
+
+        // Save every priced bill of the chunk in one transaction
+        int pricedCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (errors[i] == null) {
+                priced[pricedCount++] = i;
+            }
+        }
+        if (pricedCount > 0) {
+            try {
+                repository.saveBills(priced, pricedCount, patientIds, visitDays, amounts);
+            } catch (SQLException e) {
+                for (int i = 0; i < pricedCount; i++) {
+                    errors[priced[i]] = "Bill could not be saved, please retry";
+                }
+            }
+        }
+
+        int chunkFailed = 0;
+        for (int i = 0; i < count; i++) {
+            out.append(lineNumbers[i]).append(',');
+            if (errors[i] != null) {
+                out.append("ERROR,").line(errors[i]);
+                chunkFailed++;
+            } else {
+                out.compactLine(bills[i]);
+            }
+        }
+        ServerMetrics.REQUESTS.add(count);
+        ServerMetrics.ERRORS.add(chunkFailed);
+        records += count;
+        billed += count - chunkFailed;
+        failed += chunkFailed;
+        log.info("Bulk chunk", "records", count, "failed", chunkFailed);
+        Arrays.fill(plans, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Look up the insurance plan of every valid record in the chunk
+     */
+    private void resolvePlans() {
+        int[] ids = new int[count];
+        int[] rows = new int[count];
+        int valid = 0;
+        for (int i = 0; i < count; i++) {
+            if (errors[i] == null) {
+                rows[valid] = i;
+                ids[valid++] = patientIds[i];
+            }
+        }
+        if (valid == 0) return;
+
+        String[] found = new String[valid];
+        try {
+            planCache.getAll(ids, valid, found, planLoader);
+        } catch (SQLException e) {
+            log.error("Database error", "error", e.getMessage());
+            for (int i = 0; i < valid; i++) {
+                errors[rows[i]] = "Database unavailable, please retry";
+            }
+            return;
+        }
+        for (int i = 0; i < valid; i++) {
+            if (found[i] == null) {
+                errors[rows[i]] = "Patient ID not found in database";
+            } else {
+                plans[rows[i]] = found[i];
+            }
+        }
+    }
+
+    /**
+     * Cache loader: all missing plans of the chunk in one repository call
+     */
+    private final InsurancePlanCache.BatchLoader planLoader = new InsurancePlanCache.BatchLoader() {
+        @Override
+        public void loadAll(int[] ids, int count, String[] plans) throws SQLException {
+            repository.findInsurancePlans(ids, count, plans);
+        }
+    };
+
+    /**
+     * PriceTask - Prices a range of the chunk, splitting large ranges in two
+     * Every record has its own Bill, so the halves share nothing mutable.
+     */
+    private final class PriceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Tariff tariff;
+        private final int from;
+        private final int to;
+
+        PriceTask(Tariff tariff, int from, int to) {
+            this.tariff = tariff;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > PRICE_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PriceTask(tariff, from, mid), new PriceTask(tariff, mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                if (errors[i] != null) continue;
+                int planId = tariff.planId(plans[i]);
+                if (planId < 0) {
+                    errors[i] = "Unknown insurance plan: " + plans[i];
+                    continue;
+                }
+                Bill bill = bills[i];
+                bill.patientId = patientIds[i];
+                bill.visitDay = visitDays[i];
+                tariff.price(planId, typeIds[i], serviceIds[i], bill);
+                amounts[i] = bill.finalAmount;
+            }
+        }
+    }
+}
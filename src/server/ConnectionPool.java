@@ -0,0 +1,291 @@
+package server;
+
+import java.sql.*;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConnectionPool - Shared pool of MySQL connections for all server workers
+ * Keeps between minSize and maxSize physical connections open, validates a
+ * connection on borrow if it sat idle, closes connections idle for too long
+ * and makes callers wait at most borrowTimeoutMillis for a free connection.
+ */
+public class ConnectionPool {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long validateAfterMillis;
+
+    // Idle connections, most recently used first so warm connections get reused
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+
+    // One permit per connection that may be handed out
+    private final Semaphore permits;
+
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    // Metrics
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder borrowNanos = new LongAdder();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+    private final LongAdder saturatedBorrows = new LongAdder();
+    private final LongAdder borrowTimeouts = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long borrowTimeoutMillis, long idleTimeoutMillis, long validateAfterMillis) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "db-pool-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long period = Math.max(1000L, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Build the pool from ServerConfig and open the minimum number of connections
+     */
+    public static ConnectionPool fromConfig() {
+        return fromConfig(ServerConfig.DB_URL, ServerConfig.DB_USER, ServerConfig.DB_PASSWORD);
+    }
+
+    /**
+     * Pool with the configured sizing and timeouts for another database
+     */
+    public static ConnectionPool fromConfig(String url, String user, String password) {
+        ConnectionPool pool = new ConnectionPool(url, user, password,
+            ServerConfig.DB_POOL_MIN, ServerConfig.DB_POOL_MAX,
+            ServerConfig.DB_BORROW_TIMEOUT_MILLIS, ServerConfig.DB_IDLE_TIMEOUT_MILLIS,
+            ServerConfig.DB_VALIDATE_AFTER_MILLIS);
+        pool.fillToMinimum();
+        return pool;
+    }
+
+    /**
+     * Borrow a connection, waiting up to the borrow timeout
+     * Close the returned PooledConnection to give it back.
+     */
+    public PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        if (!permits.tryAcquire()) {
+            saturatedBorrows.increment();
+            try {
+                if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    borrowTimeouts.increment();
+                    throw new SQLException("Timed out after " + borrowTimeoutMillis
+                        + " ms waiting for a database connection");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted waiting for a database connection");
+            }
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    break;
+                }
+                validationFailures.increment();
+                discard(pooled);
+            }
+            if (pooled == null) {
+                pooled = open();
+            }
+            int active = inUse.incrementAndGet();
+            updateMax(peakInUse, active);
+            recordBorrow(System.nanoTime() - start);
+            ServerMetrics.DB_CONNECT.recordSince(start);
+            return pooled;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Called by PooledConnection.close()
+     */
+    void release(PooledConnection pooled) {
+        inUse.decrementAndGet();
+        if (closed || pooled.isBroken()) {
+            discard(pooled);
+        } else {
+            pooled.touch();
+            idle.offerFirst(pooled);
+            // close() may have drained the idle connections meanwhile; whoever removes it closes it
+            if (closed && idle.remove(pooled)) {
+                discard(pooled);
+            }
+        }
+        permits.release();
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        if (pooled.isBroken()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - pooled.getLastUsed() < validateAfterMillis) {
+            return true;
+        }
+        try {
+            return pooled.getConnection().isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection conn = DriverManager.getConnection(url, user, password);
+        totalConnections.incrementAndGet();
+        createdCount.increment();
+        return new PooledConnection(this, conn);
+    }
+
+    private void discard(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        pooled.closePhysical();
+    }
+
+    /**
+     * Close connections idle longer than the idle timeout, keeping at least minSize open
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && totalConnections.get() > minSize) {
+            PooledConnection pooled = it.next();
+            if (now - pooled.getLastUsed() > idleTimeoutMillis && idle.removeLastOccurrence(pooled)) {
+                evictedCount.increment();
+                discard(pooled);
+            }
+        }
+        fillToMinimum();
+    }
+
+    private void fillToMinimum() {
+        while (!closed && totalConnections.get() < minSize) {
+            try {
+                PooledConnection pooled = open();
+                pooled.touch();
+                idle.offerLast(pooled);
+            } catch (SQLException e) {
+                AsyncLogger.get().warn("Connection pool could not open connection", "error", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void recordBorrow(long nanos) {
+        borrowCount.increment();
+        borrowNanos.add(nanos);
+        updateMax(maxBorrowNanos, nanos);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Close every idle connection; connections still borrowed are closed on release
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public int getActiveConnections() {
+        return inUse.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Share of the pool currently borrowed, 0.0 - 1.0
+     */
+    public double getSaturation() {
+        return (double) inUse.get() / maxSize;
+    }
+
+    public double getAverageBorrowMillis() {
+        long count = borrowCount.sum();
+        return count == 0 ? 0.0 : borrowNanos.sum() / (count * 1_000_000.0);
+    }
+
+    public String getStats() {
+        return "pool[total=" + totalConnections.get()
+            + ", active=" + inUse.get()
+            + ", idle=" + idle.size()
+            + ", max=" + maxSize
+            + ", peakActive=" + peakInUse.get()
+            + ", saturation=" + String.format("%.0f%%", getSaturation() * 100)
+            + ", borrows=" + borrowCount.sum()
+            + ", waitedBorrows=" + saturatedBorrows.sum()
+            + ", timeouts=" + borrowTimeouts.sum()
+            + ", avgBorrowMs=" + String.format("%.3f", getAverageBorrowMillis())
+            + ", maxBorrowMs=" + String.format("%.3f", maxBorrowNanos.get() / 1_000_000.0)
+            + ", created=" + createdCount.sum()
+            + ", evicted=" + evictedCount.sum()
+            + ", validationFailures=" + validationFailures.sum()
+            + "]";
+    }
+}
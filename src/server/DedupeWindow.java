@@ -0,0 +1,166 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DedupeWindow - Recently billed requests by idempotency key
+ * A terminal that times out reading its reply sends the same request again;
+ * finding its key here returns the bill computed the first time instead of
+ * pricing and inserting it a second time. Entries are kept for a fixed
+ * window and at most maxEntries of them, oldest dropped first. A retry that
+ * arrives while the original is still being billed waits for its outcome.
+ */
+public class DedupeWindow {
+
+    /**
+     * Entry - One key, from the first attempt until it leaves the window
+     */
+    static final class Entry {
+        final String key;
+        // The request the key was first used for, to spot a key reused for another one
+        final String fingerprint;
+        final long createdAt = System.currentTimeMillis();
+        // Completed with a copy of the bill, or with null if that attempt failed
+        final CompletableFuture<Bill> outcome = new CompletableFuture<>();
+
+        Entry(String key, String fingerprint) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Entries in the order they were created; guarded by itself
+    private final ArrayDeque<Entry> order = new ArrayDeque<>();
+    private final long windowMillis;
+    private final int maxEntries;
+
+    // Metrics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DedupeWindow(long windowMillis, int maxEntries) {
+        this.windowMillis = windowMillis;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * @return the configured window, or null if billing.dedupe.windowMillis is 0
+     */
+    public static DedupeWindow fromConfig() {
+        if (ServerConfig.DEDUPE_WINDOW_MILLIS <= 0) {
+            return null;
+        }
+        return new DedupeWindow(ServerConfig.DEDUPE_WINDOW_MILLIS, ServerConfig.DEDUPE_MAX_ENTRIES);
+    }
+
+    /**
+     * Register a new attempt unless its key is already in the window
+     * @return null if the caller now owns the key and must complete() or abandon()
+     *         the entry, otherwise the earlier entry for the key
+     */
+    Entry putIfAbsent(Entry entry) {
+        expire(entry.createdAt);
+        while (true) {
+            Entry earlier = entries.putIfAbsent(entry.key, entry);
+            if (earlier == null) {
+                synchronized (order) {
+                    order.addLast(entry);
+                }
+                return null;
+            }
+            if (earlier.createdAt + windowMillis > entry.createdAt) {
+                return earlier;
+            }
+            // Earlier entry has left the window but was not expired yet
+            if (entries.replace(entry.key, earlier, entry)) {
+                synchronized (order) {
+                    order.addLast(entry);
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Wait for an earlier attempt of the same request
+     * @return its bill, or null if it failed and the request should be billed again
+     * @throws TimeoutException if it is still in progress after timeoutMillis
+     */
+    Bill await(Entry earlier, long timeoutMillis) throws InterruptedException, TimeoutException {
+        if (!earlier.outcome.isDone()) {
+            waits.increment();
+        }
+        try {
+            Bill bill = earlier.outcome.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (bill != null) {
+                hits.increment();
+            }
+            return bill;
+        } catch (ExecutionException e) {
+            // never completed exceptionally
+            return null;
+        }
+    }
+
+    /**
+     * Count a key that arrived with a different request than it was first used for
+     */
+    void conflict() {
+        conflicts.increment();
+    }
+
+    /**
+     * The attempt succeeded; retries within the window get this bill
+     * @param bill a copy that nobody modifies any more
+     */
+    void complete(Entry entry, Bill bill) {
+        entry.outcome.complete(bill);
+    }
+
+    /**
+     * The attempt failed; forget the key so a retry bills the request afresh
+     */
+    void abandon(Entry entry) {
+        entries.remove(entry.key, entry);
+        synchronized (order) {
+            // Usually among the newest, so search from the back
+            order.removeLastOccurrence(entry);
+        }
+        entry.outcome.complete(null);
+    }
+
+    /**
+     * Drop entries that have left the window, and the oldest ones beyond maxEntries
+     */
+    private void expire(long now) {
+        synchronized (order) {
+            Entry oldest;
+            while ((oldest = order.peekFirst()) != null
+                   && (order.size() > maxEntries || oldest.createdAt + windowMillis <= now)) {
+                order.pollFirst();
+                if (entries.remove(oldest.key, oldest) && oldest.createdAt + windowMillis > now) {
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public String getStats() {
+        return "dedupe[size=" + size()
+            + ", hits=" + hits.sum()
+            + ", waits=" + waits.sum()
+            + ", conflicts=" + conflicts.sum()
+            + ", evictions=" + evictions.sum()
+            + ", windowMs=" + windowMillis
+            + "]";
+    }
+}
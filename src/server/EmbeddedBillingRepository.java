@@ -0,0 +1,51 @@
+package server;
+
+import database.Schema;
+import java.sql.*;
+
+/**
+ * EmbeddedBillingRepository - The JDBC repository on an H2 database inside the server
+ * Needs no database server, so the billing server and benchmarks can run
+ * hermetically. The H2 jar must be on the classpath (lib/bench has one).
+ * On start the Patient, PatientBill and PatientBillSummary tables are
+ * created if missing (database.Schema) and, when there are no patients yet,
+ * the sample patients are inserted.
+ */
+public class EmbeddedBillingRepository extends JdbcBillingRepository {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    private EmbeddedBillingRepository(ConnectionPool connectionPool) {
+        super(connectionPool, BillWriter.fromConfig(connectionPool), ServerConfig.BULK_PLAN_BATCH_SIZE);
+    }
+
+    /**
+     * @throws IllegalStateException if the embedded database cannot be opened
+     */
+    public static EmbeddedBillingRepository fromConfig() {
+        String url = ServerConfig.EMBEDDED_DB_URL;
+        try {
+            createSchema(url, ServerConfig.EMBEDDED_DB_USER, ServerConfig.EMBEDDED_DB_PASSWORD);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot open embedded database " + url + ": " + e.getMessage(), e);
+        }
+        log.info("Embedded database ready", "url", url);
+        return new EmbeddedBillingRepository(ConnectionPool.fromConfig(url,
+            ServerConfig.EMBEDDED_DB_USER, ServerConfig.EMBEDDED_DB_PASSWORD));
+    }
+
+    private static void createSchema(String url, String user, String password) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url, user, password);
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(Schema.CREATE_PATIENT);
+            stmt.executeUpdate(Schema.CREATE_PATIENT_BILL);
+            Schema.ensureBillIndex(conn);
+            prepareSummary(stmt);
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Patient")) {
+                if (rs.next() && rs.getInt(1) > 0) {
+                    return;
+                }
+            }
+            log.info("Sample patients inserted", "count", Schema.insertSamplePatients(conn));
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * InMemoryBillingRepository - Patients and bills held in the server's memory
+ * Patients live in a segmented open-addressing map from int id to plan and
+ * bills in an append-only log of primitive columns, so nothing is boxed and
+ * a bill is stored with one short lock. Without an upstream the repository
+ * starts from billing.memory.patientsFile ("patientId,insurancePlan" lines)
+ * or the sample patients, and keeps every bill until shutdown.
+ * With an upstream (billing.memory.sync) it is an edge cache: unknown
+ * patients are fetched from the upstream and kept, bills are acknowledged
+ * as soon as they are in memory, and a background thread copies them to the
+ * upstream in batches, retrying until it succeeds. Bills the upstream
+ * refuses for their data are moved to RejectedBills rather than retried.
+ * Bills not yet copied are lost if the process dies.
+ */
+public class InMemoryBillingRepository implements BillingRepository {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    private static final String[] SAMPLE_PLANS = {"Premium", "Standard", "Basic", "Premium", "Standard"};
+    private static final long SYNC_RETRY_MILLIS = 1000;
+
+    private final PatientTable patients = new PatientTable();
+    private final BillLog bills = new BillLog();
+
+    // Edge mode: where bills are copied to, or null
+    private final BillingRepository upstream;
+    private final int syncBatchSize;
+    private final long syncIntervalMillis;
+    private final RejectedBills rejectedBills;
+    private final Thread syncThread;
+    private volatile boolean running = true;
+
+    // Metrics
+    private final LongAdder upstreamLookups = new LongAdder();
+    private final LongAdder syncFailures = new LongAdder();
+
+    /**
+     * @param upstream repository bills are copied to, or null to keep them here only
+     */
+    public InMemoryBillingRepository(BillingRepository upstream, int syncBatchSize, long syncIntervalMillis) {
+        this.upstream = upstream;
+        this.syncBatchSize = Math.max(1, syncBatchSize);
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.rejectedBills = RejectedBills.fromConfig();
+        if (upstream == null) {
+            this.syncThread = null;
+            return;
+        }
+        this.syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                syncLoop();
+            }
+        }, "billing-sync");
+        this.syncThread.setDaemon(true);
+        this.syncThread.start();
+    }
+
+    public static InMemoryBillingRepository fromConfig() {
+        BillingRepository upstream = ServerConfig.MEMORY_SYNC ? JdbcBillingRepository.fromConfig() : null;
+        InMemoryBillingRepository repository = new InMemoryBillingRepository(upstream,
+            ServerConfig.MEMORY_SYNC_BATCH_SIZE, ServerConfig.MEMORY_SYNC_INTERVAL_MILLIS);
+        if (!ServerConfig.MEMORY_PATIENTS_FILE.isEmpty()) {
+            repository.loadPatients(Paths.get(ServerConfig.MEMORY_PATIENTS_FILE));
+        } else if (upstream == null) {
+            for (int i = 0; i < SAMPLE_PLANS.length; i++) {
+                repository.putPatient(i + 1, SAMPLE_PLANS[i]);
+            }
+        }
+        return repository;
+    }
+
+    /**
+     * Read "patientId,insurancePlan" lines; malformed lines are logged and skipped
+     * @throws IllegalStateException if the file cannot be read
+     */
+    public void loadPatients(Path file) {
+        int loaded = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int comma = line.indexOf(',');
+                try {
+                    if (comma < 0) throw new NumberFormatException("no comma");
+                    putPatient(Integer.parseInt(line.substring(0, comma).trim()), line.substring(comma + 1).trim());
+                    loaded++;
+                } catch (NumberFormatException e) {
+                    if (!line.trim().isEmpty()) {
+                        log.warn("Skipping patient line", "line", line);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read patients file " + file + ": " + e.getMessage(), e);
+        }
+        log.info("Patients loaded", "file", file, "count", loaded);
+    }
+
+    /**
+     * Add or change a patient
+     */
+    public void putPatient(int patientId, String insurancePlan) {
+        patients.put(patientId, insurancePlan.intern());
+    }
+
+    @Override
+    public String findInsurancePlan(int patientId) throws SQLException {
+        String plan = patients.get(patientId);
+        if (plan == null && upstream != null) {
+            upstreamLookups.increment();
+            plan = upstream.findInsurancePlan(patientId);
+            if (plan != null) {
+                putPatient(patientId, plan);
+            }
+        }
+        return plan;
+    }
+
+    @Override
+    public void findInsurancePlans(int[] patientIds, int count, String[] plans) throws SQLException {
+        int[] missing = null;
+        int missingCount = 0;
+        for (int i = 0; i < count; i++) {
+            plans[i] = patients.get(patientIds[i]);
+            if (plans[i] == null && upstream != null) {
+                if (missing == null) missing = new int[count - i];
+                missing[missingCount++] = patientIds[i];
+            }
+        }
+        if (missingCount == 0) return;
+
+        // Ids arrive ascending, so the missing ones are ascending too
+        upstreamLookups.add(missingCount);
+        String[] loaded = new String[missingCount];
+        upstream.findInsurancePlans(missing, missingCount, loaded);
+        for (int i = 0; i < missingCount; i++) {
+            if (loaded[i] != null) {
+                putPatient(missing[i], loaded[i]);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (plans[i] == null) {
+                int at = Arrays.binarySearch(missing, 0, missingCount, patientIds[i]);
+                if (at >= 0) plans[i] = loaded[at];
+            }
+        }
+    }
+
+    @Override
+    public void saveBill(int patientId, int visitDay, double billAmount) throws SQLException {
+        bills.append(patientId, visitDay, billAmount);
+    }
+
+    @Override
+    public void saveBills(int[] rows, int count, int[] patientIds, int[] visitDays, double[] billAmounts)
+            throws SQLException {
+        bills.appendAll(rows, count, patientIds, visitDays, billAmounts);
+    }
+
+    public long getBillCount() {
+        return bills.size();
+    }
+
+    /**
+     * Bills stored here but not yet copied to the upstream
+     */
+    public long getUnsyncedCount() {
+        return upstream == null ? 0 : bills.size() - bills.synced();
+    }
+
+    /**
+     * Copy bills to the upstream in batches until stopped and everything is copied
+     */
+    private void syncLoop() {
+        int[] rows = new int[syncBatchSize];
+        for (int i = 0; i < syncBatchSize; i++) {
+            rows[i] = i;
+        }
+        int[] patientIds = new int[syncBatchSize];
+        int[] visitDays = new int[syncBatchSize];
+        double[] amounts = new double[syncBatchSize];
+        while (true) {
+            boolean stopping = !running;
+            int count = bills.readUnsynced(syncBatchSize, patientIds, visitDays, amounts);
+            if (count > 0) {
+                try {
+                    upstream.saveBills(rows, count, patientIds, visitDays, amounts);
+                    bills.markSynced(count);
+                    continue;
+                } catch (SQLException | RuntimeException e) {
+                    syncFailures.increment();
+                    if (RejectedBills.isRejection(e)) {
+                        int handled = rejectedBills.saveEach(upstream, count, patientIds, visitDays, amounts);
+                        bills.markSynced(handled);
+                        if (handled == count) continue;
+                    }
+                    log.warn("Bill sync failed, retrying", "unsynced", getUnsyncedCount(), "error", e.getMessage());
+                    if (stopping) return;
+                    pause(SYNC_RETRY_MILLIS);
+                    continue;
+                }
+            }
+            if (stopping) return;
+            pause(syncIntervalMillis);
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // woken early; the loop checks whether to stop
+        }
+    }
+
+    private String memoryStats() {
+        return "memory[patients=" + patients.size()
+            + ", bills=" + bills.size()
+            + (upstream == null ? "" : ", unsynced=" + getUnsyncedCount()
+                + ", upstreamLookups=" + upstreamLookups.sum()
+                + ", syncFailures=" + syncFailures.sum()
+                + ", rejectedBills=" + rejectedBills.getCount())
+            + "]";
+    }
+
+    @Override
+    public String getStats() {
+        return upstream == null ? memoryStats() : memoryStats() + "\n" + upstream.getStats();
+    }
+
+    /**
+     * Copy the remaining bills to the upstream, then close it
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (syncThread != null) {
+            try {
+                syncThread.join(ServerConfig.SHUTDOWN_DRAIN_SECONDS * 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info("Repository closed", "stats", memoryStats());
+        if (getUnsyncedCount() > 0) {
+            log.error("Bills not copied to the database", "unsynced", getUnsyncedCount());
+        }
+        if (upstream != null) {
+            upstream.close();
+        }
+    }
+
+    /**
+     * PatientTable - Concurrent map from patient id to plan
+     * Split into segments, each an open-addressing table of primitive keys
+     * behind its own lock, growing when it is half full.
+     */
+    private static final class PatientTable {
+        private static final int SEGMENTS = 16;
+        private final Segment[] segments = new Segment[SEGMENTS];
+
+        PatientTable() {
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new Segment();
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        String get(int key) {
+            int h = hash(key);
+            return segments[h >>> 28].get(key, h);
+        }
+
+        void put(int key, String value) {
+            int h = hash(key);
+            segments[h >>> 28].put(key, h, value);
+        }
+
+        int size() {
+            int size = 0;
+            for (Segment segment : segments) {
+                size += segment.size();
+            }
+            return size;
+        }
+
+        private static final class Segment {
+            private int[] keys = new int[16];
+            private String[] values = new String[16];
+            private int size = 0;
+
+            synchronized String get(int key, int h) {
+                int mask = keys.length - 1;
+                for (int slot = h & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                    if (keys[slot] == key) return values[slot];
+                }
+                return null;
+            }
+
+            synchronized void put(int key, int h, String value) {
+                if ((size + 1) * 2 > keys.length) {
+                    grow();
+                }
+                int mask = keys.length - 1;
+                int slot = h & mask;
+                while (values[slot] != null && keys[slot] != key) {
+                    slot = (slot + 1) & mask;
+                }
+                if (values[slot] == null) size++;
+                keys[slot] = key;
+                values[slot] = value;
+            }
+
+            synchronized int size() {
+                return size;
+            }
+
+            private void grow() {
+                int[] oldKeys = keys;
+                String[] oldValues = values;
+                keys = new int[oldKeys.length * 2];
+                values = new String[oldKeys.length * 2];
+                int mask = keys.length - 1;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldValues[i] == null) continue;
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * BillLog - Append-only bills in chunks of primitive columns
+     * Rows before the synced mark have been copied upstream; chunks wholly
+     * before it are released.
+     */
+    private static final class BillLog {
+        private static final int CHUNK_BITS = 16;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        private final List<Chunk> chunks = new ArrayList<>();
+        private long size = 0;
+        private long synced = 0;
+
+        private static final class Chunk {
+            final int[] patientIds = new int[CHUNK_SIZE];
+            final int[] visitDays = new int[CHUNK_SIZE];
+            final double[] amounts = new double[CHUNK_SIZE];
+        }
+
+        private void add(int patientId, int visitDay, double amount) {
+            int at = (int) (size & CHUNK_MASK);
+            if (at == 0) {
+                chunks.add(new Chunk());
+            }
+            Chunk chunk = chunks.get(chunks.size() - 1);
+            chunk.patientIds[at] = patientId;
+            chunk.visitDays[at] = visitDay;
+            chunk.amounts[at] = amount;
+            size++;
+        }
+
+        synchronized void append(int patientId, int visitDay, double amount) {
+            add(patientId, visitDay, amount);
+        }
+
+        synchronized void appendAll(int[] rows, int count, int[] patientIds, int[] visitDays, double[] amounts) {
+            for (int i = 0; i < count; i++) {
+                add(patientIds[rows[i]], visitDays[rows[i]], amounts[rows[i]]);
+            }
+        }
+
+        synchronized long size() {
+            return size;
+        }
+
+        synchronized long synced() {
+            return synced;
+        }
+
+        /**
+         * Copy up to max rows after the synced mark into the given columns
+         * @return rows copied
+         */
+        synchronized int readUnsynced(int max, int[] patientIds, int[] visitDays, double[] amounts) {
+            int count = (int) Math.min(max, size - synced);
+            for (int i = 0; i < count; i++) {
+                long row = synced + i;
+                Chunk chunk = chunks.get((int) (row >>> CHUNK_BITS));
+                int at = (int) (row & CHUNK_MASK);
+                patientIds[i] = chunk.patientIds[at];
+                visitDays[i] = chunk.visitDays[at];
+                amounts[i] = chunk.amounts[at];
+            }
+            return count;
+        }
+
+        synchronized void markSynced(int count) {
+            long before = synced >>> CHUNK_BITS;
+            synced += count;
+            for (long c = before; c < synced >>> CHUNK_BITS; c++) {
+                chunks.set((int) c, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package server;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * InsurancePlanCache - Read-through cache of patient id to insurance plan
+ * Keys are primitive ints held in open-addressing tables, so lookups do not
+ * box. The cache is split into segments, each with its own lock, a fixed
+ * number of entries and LRU eviction. Entries expire after a TTL; unknown
+ * patient ids are cached too, with a shorter TTL, so repeated bad ids do
+ * not reach the database either.
+ */
+public class InsurancePlanCache {
+
+    /**
+     * Loader - Fetches a plan on a cache miss
+     */
+    public interface Loader {
+        /**
+         * @return the plan, or null if the patient does not exist
+         * @throws SQLException if the lookup failed; failures are not cached
+         */
+        String load(int patientId) throws SQLException;
+    }
+
+    /**
+     * BatchLoader - Fetches the plans of many patients in one go
+     */
+    public interface BatchLoader {
+        /**
+         * @param patientIds distinct ids in ascending order
+         * @param plans filled with the plan of each id, left null if the patient does not exist
+         * @throws SQLException if the lookup failed; failures are not cached
+         */
+        void loadAll(int[] patientIds, int count, String[] plans) throws SQLException;
+    }
+
+    // Stored for patient ids the database does not know; compared by identity
+    private static final String NOT_FOUND = new String("<not found>");
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+
+    // Metrics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public InsurancePlanCache(int maxEntries, long ttlMillis, long negativeTtlMillis) {
+        int segmentCount = 16;
+        while (segmentCount > 1 && maxEntries / segmentCount < 16) {
+            segmentCount >>= 1;
+        }
+        this.segments = new Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        int perSegment = Math.max(1, (maxEntries + segmentCount - 1) / segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    public static InsurancePlanCache fromConfig() {
+        return new InsurancePlanCache(ServerConfig.PLAN_CACHE_MAX_ENTRIES,
+            ServerConfig.PLAN_CACHE_TTL_MILLIS, ServerConfig.PLAN_CACHE_NEGATIVE_TTL_MILLIS);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int h) {
+        return segments[(h >>> 28) & segmentMask];
+    }
+
+    /**
+     * Cached plan for a patient, loading it on a miss
+     * @return the plan, or null if the patient does not exist
+     */
+    public String get(int patientId, Loader loader) throws SQLException {
+        int h = hash(patientId);
+        Segment segment = segmentFor(h);
+        long now = System.currentTimeMillis();
+        String plan = segment.get(patientId, h, now);
+        if (plan != null) {
+            if (plan == NOT_FOUND) {
+                negativeHits.increment();
+                return null;
+            }
+            hits.increment();
+            return plan;
+        }
+
+        misses.increment();
+        String loaded;
+        try {
+            loaded = loader.load(patientId);
+        } catch (SQLException e) {
+            loadFailures.increment();
+            throw e;
+        }
+        if (loaded == null) {
+            segment.put(patientId, h, NOT_FOUND, now + negativeTtlMillis);
+        } else {
+            loaded = loaded.intern();
+            segment.put(patientId, h, loaded, now + ttlMillis);
+        }
+        return loaded;
+    }
+
+    /**
+     * Cached plans for many patients, loading all misses with one loader call
+     * @param plans filled with the plan of each patient, null if the patient does not exist
+     */
+    public void getAll(int[] patientIds, int count, String[] plans, BatchLoader loader) throws SQLException {
+        long now = System.currentTimeMillis();
+        int[] missing = null;
+        int missingCount = 0;
+        for (int i = 0; i < count; i++) {
+            int h = hash(patientIds[i]);
+            String plan = segmentFor(h).get(patientIds[i], h, now);
+            if (plan == null) {
+                if (missing == null) missing = new int[count - i];
+                missing[missingCount++] = patientIds[i];
+            } else if (plan == NOT_FOUND) {
+                negativeHits.increment();
+            } else {
+                hits.increment();
+            }
+            plans[i] = plan == NOT_FOUND ? null : plan;
+        }
+        if (missingCount == 0) return;
+
+        // Each missing patient is loaded once however often it appears
+        Arrays.sort(missing, 0, missingCount);
+        int distinct = 0;
+        for (int i = 0; i < missingCount; i++) {
+            if (distinct == 0 || missing[distinct - 1] != missing[i]) {
+                missing[distinct++] = missing[i];
+            }
+        }
+        misses.add(distinct);
+        String[] loaded = new String[distinct];
+        try {
+            loader.loadAll(missing, distinct, loaded);
+        } catch (SQLException e) {
+            loadFailures.add(distinct);
+            throw e;
+        }
+        for (int i = 0; i < distinct; i++) {
+            int h = hash(missing[i]);
+            if (loaded[i] == null) {
+                segmentFor(h).put(missing[i], h, NOT_FOUND, now + negativeTtlMillis);
+            } else {
+                loaded[i] = loaded[i].intern();
+                segmentFor(h).put(missing[i], h, loaded[i], now + ttlMillis);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (plans[i] == null) {
+                int at = Arrays.binarySearch(missing, 0, distinct, patientIds[i]);
+                if (at >= 0) plans[i] = loaded[at];
+            }
+        }
+    }
+
+    /**
+     * Store a plan directly, e.g. after the patient record was written
+     */
+    public void put(int patientId, String plan) {
+        int h = hash(patientId);
+        long now = System.currentTimeMillis();
+        if (plan == null) {
+            segmentFor(h).put(patientId, h, NOT_FOUND, now + negativeTtlMillis);
+        } else {
+            segmentFor(h).put(patientId, h, plan.intern(), now + ttlMillis);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public double getHitRate() {
+        long found = hits.sum() + negativeHits.sum();
+        long total = found + misses.sum();
+        return total == 0 ? 0.0 : (double) found / total;
+    }
+
+    public String getStats() {
+        return "planCache[size=" + size()
+            + ", hits=" + hits.sum()
+            + ", negativeHits=" + negativeHits.sum()
+            + ", misses=" + misses.sum()
+            + ", hitRate=" + String.format("%.1f%%", getHitRate() * 100)
+            + ", evictions=" + evictions.sum()
+            + ", expirations=" + expirations.sum()
+            + ", loadFailures=" + loadFailures.sum()
+            + "]";
+    }
+
+    /**
+     * Segment - Fixed-capacity LRU map from int key to plan
+     * Entries live in parallel arrays and are linked in recency order;
+     * the slot table maps a key to its entry with linear probing.
+     */
+    private final class Segment {
+        private final int capacity;
+        private final int[] keys;
+        private final String[] values;
+        private final long[] expiresAt;
+        private final int[] hashes;
+        private final int[] prev;
+        private final int[] next;
+
+        // entry index + 1, 0 for an empty slot
+        private final int[] slots;
+        private final int slotMask;
+
+        private int head = -1;
+        private int tail = -1;
+        private int freeHead;
+        private int size = 0;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            keys = new int[capacity];
+            values = new String[capacity];
+            expiresAt = new long[capacity];
+            hashes = new int[capacity];
+            prev = new int[capacity];
+            next = new int[capacity];
+            int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+            slots = new int[tableSize];
+            slotMask = tableSize - 1;
+            resetFreeList();
+        }
+
+        private void resetFreeList() {
+            for (int i = 0; i < capacity; i++) {
+                next[i] = i + 1 < capacity ? i + 1 : -1;
+            }
+            freeHead = 0;
+        }
+
+        private int findSlot(int key, int h) {
+            int slot = h & slotMask;
+            int entry;
+            while ((entry = slots[slot]) != 0) {
+                if (keys[entry - 1] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & slotMask;
+            }
+            return -1;
+        }
+
+        synchronized String get(int key, int h, long now) {
+            int slot = findSlot(key, h);
+            if (slot < 0) return null;
+            int entry = slots[slot] - 1;
+            if (expiresAt[entry] <= now) {
+                removeAt(slot);
+                expirations.increment();
+                return null;
+            }
+            moveToHead(entry);
+            return values[entry];
+        }
+
+        synchronized void put(int key, int h, String value, long expiry) {
+            int slot = findSlot(key, h);
+            int entry;
+            if (slot >= 0) {
+                entry = slots[slot] - 1;
+                moveToHead(entry);
+            } else {
+                if (size == capacity) {
+                    removeAt(findSlot(keys[tail], hashes[tail]));
+                    evictions.increment();
+                }
+                entry = freeHead;
+                freeHead = next[entry];
+                keys[entry] = key;
+                hashes[entry] = h;
+                slot = h & slotMask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & slotMask;
+                }
+                slots[slot] = entry + 1;
+                linkAtHead(entry);
+                size++;
+            }
+            values[entry] = value;
+            expiresAt[entry] = expiry;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Remove the entry in a slot, shifting later probes back so lookups still find them
+         */
+        private void removeAt(int slot) {
+            int entry = slots[slot] - 1;
+            unlink(entry);
+            values[entry] = null;
+            next[entry] = freeHead;
+            freeHead = entry;
+            size--;
+
+            int hole = slot;
+            int probe = (slot + 1) & slotMask;
+            while (slots[probe] != 0) {
+                int home = hashes[slots[probe] - 1] & slotMask;
+                // Move the probed entry into the hole unless its home lies cyclically in (hole, probe]
+                boolean between = hole <= probe ? (home > hole && home <= probe) : (home > hole || home <= probe);
+                if (!between) {
+                    slots[hole] = slots[probe];
+                    hole = probe;
+                }
+                probe = (probe + 1) & slotMask;
+            }
+            slots[hole] = 0;
+        }
+
+        private void linkAtHead(int entry) {
+            prev[entry] = -1;
+            next[entry] = head;
+            if (head >= 0) prev[head] = entry;
+            head = entry;
+            if (tail < 0) tail = entry;
+        }
+
+        private void unlink(int entry) {
+            if (prev[entry] >= 0) next[prev[entry]] = next[entry]; else head = next[entry];
+            if (next[entry] >= 0) prev[next[entry]] = prev[entry]; else tail = prev[entry];
+        }
+
+        private void moveToHead(int entry) {
+            if (head == entry) return;
+            unlink(entry);
+            linkAtHead(entry);
+        }
+    }
+}
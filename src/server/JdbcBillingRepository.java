@@ -0,0 +1,136 @@
+package server;
+
+import database.Schema;
+import java.sql.*;
+import java.util.Arrays;
+
+/**
+ * JdbcBillingRepository - Patients and bills in a JDBC database, MySQL by default
+ * Lookups borrow a pooled connection and run prepared statements; single
+ * bills go through the BillWriter so concurrent workers share a transaction.
+ * With billing.summary.enabled the PatientBillSummary table the writer
+ * updates is created on start if missing, and filled from PatientBill when
+ * it is empty.
+ */
+public class JdbcBillingRepository implements BillingRepository {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    private final ConnectionPool connectionPool;
+    private final BillWriter billWriter;
+    // Patient ids per "WHERE patient_id IN (...)" query
+    private final int planBatchSize;
+
+    public JdbcBillingRepository(ConnectionPool connectionPool, BillWriter billWriter, int planBatchSize) {
+        this.connectionPool = connectionPool;
+        this.billWriter = billWriter;
+        this.planBatchSize = planBatchSize;
+    }
+
+    public static JdbcBillingRepository fromConfig() {
+        ConnectionPool connectionPool = ConnectionPool.fromConfig();
+        if (ServerConfig.SUMMARY_ENABLED) {
+            try (PooledConnection pooled = connectionPool.borrow();
+                 Statement stmt = pooled.getConnection().createStatement()) {
+                prepareSummary(stmt);
+            } catch (SQLException e) {
+                log.warn("Cannot prepare bill summary; bills fail until PatientBillSummary exists",
+                    "error", e.getMessage());
+            }
+        }
+        return new JdbcBillingRepository(connectionPool, BillWriter.fromConfig(connectionPool),
+            ServerConfig.BULK_PLAN_BATCH_SIZE);
+    }
+
+    /**
+     * Create PatientBillSummary if missing and fill it if empty, e.g. on a database from before the table
+     */
+    static void prepareSummary(Statement stmt) throws SQLException {
+        stmt.executeUpdate(Schema.CREATE_PATIENT_BILL_SUMMARY);
+        int patients = Schema.fillEmptySummary(stmt);
+        if (patients > 0) {
+            log.info("Bill summary built from existing bills", "patients", patients);
+        }
+    }
+
+    /**
+     * Retrieve insurance plan from Patient table using patient ID
+     */
+    @Override
+    public String findInsurancePlan(int patientId) throws SQLException {
+        try (PooledConnection conn = connectionPool.borrow()) {
+            try {
+                PreparedStatement pstmt = conn.insurancePlanStatement();
+                pstmt.setInt(1, patientId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        return rs.getString("insurance_plan");
+                    }
+                }
+            } catch (SQLException e) {
+                conn.invalidate();
+                log.warn("Error retrieving insurance plan", "error", e.getMessage());
+                throw e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One pooled connection, planBatchSize ids per query
+     */
+    @Override
+    public void findInsurancePlans(int[] ids, int count, String[] plans) throws SQLException {
+        try (PooledConnection conn = connectionPool.borrow()) {
+            try {
+                PreparedStatement pstmt = conn.insurancePlansStatement();
+                for (int from = 0; from < count; from += planBatchSize) {
+                    int to = Math.min(count, from + planBatchSize);
+                    for (int p = 0; p < planBatchSize; p++) {
+                        // Pad a short last batch by repeating its final id
+                        pstmt.setInt(p + 1, ids[Math.min(from + p, to - 1)]);
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            int at = Arrays.binarySearch(ids, from, to, rs.getInt(1));
+                            if (at >= 0) plans[at] = rs.getString(2);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                conn.invalidate();
+                log.warn("Error retrieving insurance plans", "error", e.getMessage());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Queued on the shared BillWriter; returns once its batch has committed
+     */
+    @Override
+    public void saveBill(int patientId, int visitDay, double billAmount) throws SQLException {
+        billWriter.write(patientId, visitDay, billAmount);
+    }
+
+    @Override
+    public void saveBills(int[] rows, int count, int[] patientIds, int[] visitDays, double[] billAmounts)
+            throws SQLException {
+        billWriter.writeAll(rows, count, patientIds, visitDays, billAmounts);
+    }
+
+    @Override
+    public String getStats() {
+        return billWriter.getStats() + "\n" + connectionPool.getStats();
+    }
+
+    /**
+     * Flush pending bills, then close database connections
+     */
+    @Override
+    public void close() {
+        billWriter.close();
+        log.info("Bill writer closed", "stats", billWriter.getStats());
+        log.info("Database closed", "stats", connectionPool.getStats());
+        connectionPool.close();
+    }
+}
@@ -0,0 +1,192 @@
+package server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LedgerBillingRepository - Acknowledges bills from a local BillLedger
+ * Wraps another repository when billing.ledger.dir is set. A bill is saved
+ * once its ledger record is on disk, so a slow or unavailable database no
+ * longer holds up the reply or loses the bill. A replicator thread copies
+ * ledger records to the wrapped repository in batches and moves the
+ * ledger checkpoint after each stored batch, retrying while the database
+ * is down. A batch the database refuses for its data is replicated again
+ * bill by bill and the bills refused again are moved to RejectedBills,
+ * so one bad record does not stop replication. After a restart it resumes from the checkpoint, so records the
+ * previous run did not replicate are replayed. A crash between a stored
+ * batch and its checkpoint replays that batch again. Patient lookups go
+ * straight to the wrapped repository.
+ */
+public class LedgerBillingRepository implements BillingRepository {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    private static final long RETRY_MILLIS = 1000;
+
+    private final BillingRepository upstream;
+    private final BillLedger ledger;
+    private final int batchSize;
+    private final long intervalMillis;
+    private final RejectedBills rejectedBills = RejectedBills.fromConfig();
+    private final Thread replicator;
+    private volatile boolean running = true;
+
+    // Metrics
+    private final LongAdder replicatedBatches = new LongAdder();
+    private final LongAdder replicationFailures = new LongAdder();
+
+    public LedgerBillingRepository(BillingRepository upstream, BillLedger ledger, int batchSize,
+                                   long intervalMillis) {
+        this.upstream = upstream;
+        this.ledger = ledger;
+        this.batchSize = Math.max(1, batchSize);
+        this.intervalMillis = intervalMillis;
+        long recovered = ledger.getPending();
+        if (recovered > 0) {
+            log.warn("Replaying bills not yet in the database", "bills", recovered);
+        }
+        this.replicator = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replicateLoop();
+            }
+        }, "billing-replicator");
+        this.replicator.setDaemon(true);
+        this.replicator.start();
+    }
+
+    /**
+     * Put the configured ledger in front of a repository
+     * @throws IllegalStateException if the ledger cannot be opened
+     */
+    public static LedgerBillingRepository fromConfig(BillingRepository upstream) {
+        try {
+            return new LedgerBillingRepository(upstream, BillLedger.fromConfig(),
+                ServerConfig.LEDGER_REPLICATE_BATCH_SIZE, ServerConfig.LEDGER_REPLICATE_INTERVAL_MILLIS);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open bill ledger in " + ServerConfig.LEDGER_DIR + ": "
+                + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String findInsurancePlan(int patientId) throws SQLException {
+        return upstream.findInsurancePlan(patientId);
+    }
+
+    @Override
+    public void findInsurancePlans(int[] patientIds, int count, String[] plans) throws SQLException {
+        upstream.findInsurancePlans(patientIds, count, plans);
+    }
+
+    /**
+     * Returns once the bill's ledger record is on disk
+     */
+    @Override
+    public void saveBill(int patientId, int visitDay, double billAmount) throws SQLException {
+        try {
+            ledger.sync(ledger.append(patientId, visitDay, billAmount));
+        } catch (IOException e) {
+            throw new SQLException("Bill ledger write failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void saveBills(int[] rows, int count, int[] patientIds, int[] visitDays, double[] billAmounts)
+            throws SQLException {
+        try {
+            ledger.sync(ledger.appendAll(rows, count, patientIds, visitDays, billAmounts));
+        } catch (IOException e) {
+            throw new SQLException("Bill ledger write failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Copy ledger records to the wrapped repository until stopped and caught up
+     */
+    private void replicateLoop() {
+        int[] rows = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            rows[i] = i;
+        }
+        int[] patientIds = new int[batchSize];
+        int[] visitDays = new int[batchSize];
+        double[] amounts = new double[batchSize];
+        while (true) {
+            boolean stopping = !running;
+            int count = ledger.read(batchSize, patientIds, visitDays, amounts);
+            if (count > 0) {
+                try {
+                    upstream.saveBills(rows, count, patientIds, visitDays, amounts);
+                    ledger.markReplicated(count);
+                    replicatedBatches.increment();
+                    continue;
+                } catch (SQLException | IOException | RuntimeException e) {
+                    replicationFailures.increment();
+                    if (!(e instanceof IOException) && RejectedBills.isRejection(e)
+                            && replicateEach(count, patientIds, visitDays, amounts)) {
+                        continue;
+                    }
+                    log.warn("Bill replication failed, retrying", "pending", ledger.getPending(),
+                        "error", e.getMessage());
+                    if (stopping) return;
+                    pause(RETRY_MILLIS);
+                    continue;
+                }
+            }
+            if (stopping) return;
+            pause(intervalMillis);
+        }
+    }
+
+    /**
+     * Replicate a refused batch one bill at a time, setting aside the bills refused again
+     * @return whether the whole batch is now done
+     */
+    private boolean replicateEach(int count, int[] patientIds, int[] visitDays, double[] amounts) {
+        int handled = rejectedBills.saveEach(upstream, count, patientIds, visitDays, amounts);
+        try {
+            ledger.markReplicated(handled);
+        } catch (IOException e) {
+            log.warn("Cannot move ledger checkpoint", "error", e.getMessage());
+            return false;
+        }
+        return handled == count;
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // woken early; the loop checks whether to stop
+        }
+    }
+
+    @Override
+    public String getStats() {
+        return ledger.getStats().replace("]", ", replicatedBatches=" + replicatedBatches.sum()
+            + ", replicationFailures=" + replicationFailures.sum()
+            + ", rejectedBills=" + rejectedBills.getCount() + "]")
+            + "\n" + upstream.getStats();
+    }
+
+    /**
+     * Give the replicator the drain time to catch up, then close the ledger and the wrapped repository
+     * Whatever is left stays in the ledger and is replayed on the next start.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            replicator.join(ServerConfig.SHUTDOWN_DRAIN_SECONDS * 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ledger.close();
+        log.info("Bill ledger closed", "stats", ledger.getStats());
+        if (ledger.getPending() > 0) {
+            log.warn("Bills left in the ledger for the next start", "bills", ledger.getPending());
+        }
+        upstream.close();
+    }
+}
@@ -0,0 +1,470 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * NioBillingServer - Selector based server front end
+ * The main thread accepts connections and spreads them over a few I/O
+ * reactor threads. Reactors read and frame request lines without blocking
+ * and write replies; bill calculation and database work run on the
+ * WorkerPool, so an idle or slow client never pins a thread.
+ * Speaks the same BillingProtocol as BillingServerThread, including the
+ * switch to BinaryProtocol frames.
+ */
+public class NioBillingServer {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    private static final String BUSY_MESSAGE = "Server is at capacity, please retry shortly";
+    private static final byte[] BUSY_REPLY = bytes("BUSY: " + BUSY_MESSAGE + "\nEND\n");
+    private static final byte[] LINE_TOO_LONG = bytes("ERROR: Request line too long\nEND\n");
+
+    private final int port;
+    private final WorkerPool workerPool;
+    private final Reactor[] reactors;
+    private final ServerResources resources;
+
+    // Billing services and reply buffers, borrowed by a worker for one request
+    private final ConcurrentLinkedQueue<WorkerContext> contexts = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private Selector acceptSelector;
+    private ServerSocketChannel serverChannel;
+
+    public NioBillingServer(int port, int ioThreads, WorkerPool workerPool, ServerResources resources) {
+        this.port = port;
+        this.workerPool = workerPool;
+        this.reactors = new Reactor[Math.max(1, ioThreads)];
+        this.resources = resources;
+    }
+
+    /**
+     * WorkerContext - Per-request scratch state, pooled instead of thread-local
+     * so it is reused whether workers are platform or virtual threads
+     */
+    private static class WorkerContext {
+        final BillingService service;
+        final ResponseEncoder encoder = new ResponseEncoder();
+
+        WorkerContext(BillingService service) {
+            this.service = service;
+        }
+    }
+
+    private WorkerContext borrowContext() {
+        WorkerContext context = contexts.poll();
+        return context != null ? context : new WorkerContext(resources.newBillingService());
+    }
+
+    /**
+     * Accept connections until stopAccepting() is called
+     */
+    public void run() throws IOException {
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+            reactors[i].start();
+        }
+        acceptSelector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+        int next = 0;
+        try {
+            while (running) {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    ServerMetrics.CONNECTIONS_ACCEPTED.increment();
+                    reactors[next].adopt(channel, System.nanoTime());
+                    next = (next + 1) % reactors.length;
+                }
+            }
+        } catch (ClosedSelectorException | ClosedChannelException e) {
+            // stopAccepting() closed the selector
+        } finally {
+            serverChannel.close();
+        }
+    }
+
+    /**
+     * Stop accepting new connections; open ones keep being served
+     */
+    public void stopAccepting() {
+        running = false;
+        if (acceptSelector != null) {
+            try {
+                acceptSelector.close();
+            } catch (IOException e) {
+                log.error("Error closing accept selector", e);
+            }
+        }
+    }
+
+    /**
+     * Close all connections and stop the I/O threads
+     * Call after the worker pool has drained so finished bills are still delivered.
+     */
+    public void closeConnections() {
+        for (Reactor reactor : reactors) {
+            if (reactor != null) {
+                reactor.shutdown();
+                try {
+                    reactor.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reactor - One I/O thread with its own Selector
+     * All connection state is only touched on this thread; workers hand
+     * finished replies back through the task queue.
+     */
+    private class Reactor extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        // Shared by every connection on this reactor; bytes are copied out line by line
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        private volatile boolean active = true;
+        private long lastIdleCheck = System.currentTimeMillis();
+
+        Reactor(int index) throws IOException {
+            super("billing-io-" + index);
+            this.selector = Selector.open();
+        }
+
+        void adopt(final SocketChannel channel, final long acceptedAt) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    ServerMetrics.ACCEPT.recordSince(acceptedAt);
+                    try {
+                        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                        key.attach(new Connection(Reactor.this, channel, key));
+                    } catch (IOException e) {
+                        closeQuietly(channel);
+                    }
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            active = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (active) {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection conn = (Connection) key.attachment();
+                        if (!key.isValid() || conn == null) continue;
+                        try {
+                            if (key.isReadable()) conn.onReadable(readBuffer);
+                            if (key.isValid() && key.isWritable()) conn.onWritable();
+                        } catch (IOException e) {
+                            ServerMetrics.IO_ERRORS.increment();
+                            conn.close();
+                        }
+                    }
+                    closeIdle();
+                }
+            } catch (IOException e) {
+                log.error("Reactor failed", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    Connection conn = (Connection) key.attachment();
+                    if (conn != null) conn.close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    log.error("Error closing reactor selector", e);
+                }
+            }
+        }
+
+        private void closeIdle() {
+            long now = System.currentTimeMillis();
+            if (now - lastIdleCheck < 1000) return;
+            lastIdleCheck = now;
+            long cutoff = now - ServerConfig.KEEPALIVE_IDLE_TIMEOUT_MILLIS;
+            for (SelectionKey key : selector.keys()) {
+                Connection conn = (Connection) key.attachment();
+                if (conn != null && !conn.busy && conn.lastActivity < cutoff) {
+                    conn.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Connection - Framing and ordering state of one client
+     * Requests are processed one at a time per connection so pipelined
+     * replies leave in the order the requests arrived.
+     */
+    private class Connection {
+        private final Reactor reactor;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private byte[] line = new byte[128];
+        private int lineLength = 0;
+        private boolean lineOverflow = false;
+        // Set once the client has sent BinaryProtocol.MODE_LINE; input is then length-prefixed frames
+        private boolean binary = false;
+        private int headerBytes = 0;
+        private int frameLength = 0;
+        private byte[] frame;
+        private int frameFill = 0;
+        // Set when the client stops sending or after a framing error; nothing more is read
+        private boolean inputEnded = false;
+        private final BillingProtocol protocol = new BillingProtocol();
+        private boolean closeAfterWrite = false;
+        private boolean busy = false;
+        // Request lines (String) and frame bodies (byte[]) waiting for a worker,
+        // or a final reply (ByteBuffer) to send in turn before closing
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> writes = new ArrayDeque<>();
+        private long lastActivity = System.currentTimeMillis();
+        private boolean closed = false;
+
+        Connection(Reactor reactor, SocketChannel channel, SelectionKey key) {
+            this.reactor = reactor;
+            this.channel = channel;
+            this.key = key;
+            ServerMetrics.ACTIVE_CONNECTIONS.incrementAndGet();
+        }
+
+        void onReadable(ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            int n = channel.read(buffer);
+            if (n < 0) {
+                // Client finished sending; answer what is queued, then close
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                inputEnded = true;
+                if (!busy && pending.isEmpty() && writes.isEmpty()) close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            buffer.flip();
+            while (buffer.hasRemaining() && !closed && !inputEnded) {
+                if (binary) {
+                    readFrame(buffer);
+                    continue;
+                }
+                byte b = buffer.get();
+                if (b == '\n') {
+                    if (lineOverflow) {
+                        lineOverflow = false;
+                        lineLength = 0;
+                        ServerMetrics.ERRORS.increment();
+                        write(LINE_TOO_LONG);
+                    } else {
+                        onLine(new String(line, 0, lineLength, StandardCharsets.UTF_8));
+                        lineLength = 0;
+                    }
+                } else if (b != '\r' && !lineOverflow) {
+                    appendByte(b);
+                }
+            }
+            // Stop reading from a client that pipelines faster than we answer
+            if (!closed && pending.size() >= ServerConfig.NIO_MAX_PIPELINED) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        private void appendByte(byte b) {
+            if (lineLength == line.length) {
+                if (line.length >= ServerConfig.NIO_MAX_LINE_BYTES) {
+                    lineOverflow = true;
+                    return;
+                }
+                line = Arrays.copyOf(line, Math.min(line.length * 2, ServerConfig.NIO_MAX_LINE_BYTES));
+            }
+            line[lineLength++] = b;
+        }
+
+        private void onLine(String request) {
+            // Bytes after this line are already frames, so switch before the reply
+            if (request.equals(BinaryProtocol.MODE_LINE)) {
+                binary = true;
+            }
+            pending.add(request);
+            dispatchNext();
+        }
+
+        /**
+         * Consume the next part of a frame header or body
+         */
+        private void readFrame(ByteBuffer buffer) {
+            if (headerBytes < 4) {
+                frameLength = (frameLength << 8) | (buffer.get() & 0xFF);
+                if (++headerBytes < 4) return;
+                if (frameLength < 0 || frameLength > BinaryProtocol.MAX_FRAME_BYTES) {
+                    // The stream cannot be resynchronised after a bad length
+                    inputEnded = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    ServerMetrics.ERRORS.increment();
+                    pending.add(ByteBuffer.wrap(BinaryProtocol.errorFrame(0, "Frame too long: " + frameLength + " bytes")));
+                    dispatchNext();
+                    return;
+                }
+                frame = new byte[frameLength];
+                frameFill = 0;
+            }
+            int n = Math.min(buffer.remaining(), frame.length - frameFill);
+            buffer.get(frame, frameFill, n);
+            frameFill += n;
+            if (frameFill == frame.length) {
+                headerBytes = 0;
+                frameLength = 0;
+                pending.add(frame);
+                dispatchNext();
+            }
+        }
+
+        /**
+         * Start the next queued request if none is in progress
+         */
+        private void dispatchNext() {
+            if (closed) return;
+            while (!busy && !pending.isEmpty() && !closeAfterWrite) {
+                final Object request = pending.poll();
+                if (request instanceof ByteBuffer) {
+                    pending.clear();
+                    closeAfterWrite = true;
+                    write((ByteBuffer) request);
+                    break;
+                }
+                busy = true;
+                boolean accepted = workerPool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        WorkerContext context = borrowContext();
+                        final boolean closeConnection;
+                        final byte[] reply;
+                        try {
+                            context.encoder.reset();
+                            closeConnection = request instanceof byte[]
+                                ? protocol.handleFrame(ByteBuffer.wrap((byte[]) request), context.service, context.encoder)
+                                : protocol.handleLine((String) request, context.service, context.encoder);
+                            reply = context.encoder.toByteArray();
+                        } finally {
+                            contexts.offer(context);
+                        }
+                        reactor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                busy = false;
+                                if (closed) return;
+                                if (closeConnection) {
+                                    pending.clear();
+                                    closeAfterWrite = true;
+                                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                                }
+                                write(reply);
+                                dispatchNext();
+                            }
+                        });
+                    }
+                });
+                if (!accepted) {
+                    busy = false;
+                    ServerMetrics.REJECTED.increment();
+                    write(request instanceof byte[]
+                        ? BinaryProtocol.errorFrame(BinaryProtocol.requestId(ByteBuffer.wrap((byte[]) request)), BUSY_MESSAGE)
+                        : BUSY_REPLY);
+                }
+            }
+            if (closed) return;
+            if (!busy && pending.size() < ServerConfig.NIO_MAX_PIPELINED && !closeAfterWrite && !inputEnded) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+            if (!busy && writes.isEmpty() && (closeAfterWrite || inputEnded && pending.isEmpty())) {
+                close();
+            }
+        }
+
+        private void write(byte[] reply) {
+            write(ByteBuffer.wrap(reply));
+        }
+
+        private void write(ByteBuffer reply) {
+            if (closed) return;
+            writes.add(reply);
+            long start = System.nanoTime();
+            try {
+                onWritable();
+            } catch (IOException e) {
+                ServerMetrics.IO_ERRORS.increment();
+                close();
+            }
+            ServerMetrics.WRITE.recordSince(start);
+        }
+
+        void onWritable() throws IOException {
+            ByteBuffer head;
+            while ((head = writes.peek()) != null) {
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    // Socket buffer full, wait until it drains
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writes.poll();
+            }
+            if (closed) return;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            lastActivity = System.currentTimeMillis();
+            if ((closeAfterWrite || inputEnded) && !busy && pending.isEmpty()) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            ServerMetrics.ACTIVE_CONNECTIONS.decrementAndGet();
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package server;
+
+import java.sql.*;
+
+/**
+ * PooledConnection - A connection borrowed from ConnectionPool
+ * Keeps the billing PreparedStatements open for the life of the physical
+ * connection so they are only prepared on the server once.
+ * close() returns the connection to the pool.
+ */
+public class PooledConnection implements AutoCloseable {
+    static final String SELECT_INSURANCE_PLAN =
+        "SELECT insurance_plan FROM Patient WHERE patient_id = ?";
+    static final String INSERT_BILL =
+        "INSERT INTO PatientBill (patient_id, visit_date, bill_amount) VALUES (?, ?, ?)";
+    static final String UPSERT_SUMMARY =
+        "INSERT INTO PatientBillSummary (patient_id, bill_count, total_billed, last_visit) VALUES (?, ?, ?, ?) "
+        + "ON DUPLICATE KEY UPDATE bill_count = bill_count + VALUES(bill_count), "
+        + "total_billed = total_billed + VALUES(total_billed), "
+        + "last_visit = GREATEST(last_visit, VALUES(last_visit))";
+    static final String SELECT_INSURANCE_PLANS =
+        "SELECT patient_id, insurance_plan FROM Patient WHERE patient_id IN (" + placeholders(ServerConfig.BULK_PLAN_BATCH_SIZE) + ")";
+
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private PreparedStatement insurancePlanStatement;
+    private PreparedStatement insertBillStatement;
+    private PreparedStatement insurancePlansStatement;
+    private PreparedStatement upsertSummaryStatement;
+    private volatile long lastUsed;
+    private volatile boolean broken = false;
+
+    PooledConnection(ConnectionPool pool, Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Cached statement for SELECT insurance_plan FROM Patient WHERE patient_id = ?
+     */
+    public PreparedStatement insurancePlanStatement() throws SQLException {
+        if (insurancePlanStatement == null) {
+            insurancePlanStatement = connection.prepareStatement(SELECT_INSURANCE_PLAN);
+        }
+        return insurancePlanStatement;
+    }
+
+    /**
+     * Cached statement for INSERT INTO PatientBill
+     */
+    public PreparedStatement insertBillStatement() throws SQLException {
+        if (insertBillStatement == null) {
+            insertBillStatement = connection.prepareStatement(INSERT_BILL);
+        }
+        return insertBillStatement;
+    }
+
+    /**
+     * Cached statement looking up ServerConfig.BULK_PLAN_BATCH_SIZE patients at once
+     * Unused parameters may repeat an id already in the batch.
+     */
+    public PreparedStatement insurancePlansStatement() throws SQLException {
+        if (insurancePlansStatement == null) {
+            insurancePlansStatement = connection.prepareStatement(SELECT_INSURANCE_PLANS);
+        }
+        return insurancePlansStatement;
+    }
+
+    /**
+     * Cached statement adding bills to a patient's PatientBillSummary row
+     */
+    public PreparedStatement upsertSummaryStatement() throws SQLException {
+        if (upsertSummaryStatement == null) {
+            upsertSummaryStatement = connection.prepareStatement(UPSERT_SUMMARY);
+        }
+        return upsertSummaryStatement;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Mark the connection as unusable so the pool closes it instead of reusing it
+     */
+    public void invalidate() {
+        broken = true;
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Give the connection back to the pool
+     */
+    @Override
+    public void close() {
+        pool.release(this);
+    }
+
+    /**
+     * Really close the statements and the underlying connection
+     */
+    void closePhysical() {
+        try {
+            if (insurancePlanStatement != null) insurancePlanStatement.close();
+            if (insertBillStatement != null) insertBillStatement.close();
+            if (insurancePlansStatement != null) insurancePlansStatement.close();
+            if (upsertSummaryStatement != null) upsertSummaryStatement.close();
+            connection.close();
+        } catch (SQLException e) {
+            // Connection is being dropped anyway
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RejectedBills - Bills a background copy could not store because of their data
+ * A batch the database refuses for its contents (SQLState class 22 or 23,
+ * such as a bill for a patient id that does not exist) fails the same way
+ * on every retry. Such a batch is saved again one bill at a time, and the
+ * bills that are still refused are appended to billing.rejectedBills.file
+ * as "patientId,visitDate,billAmount,error" lines instead of holding up
+ * every bill behind them. A bill that cannot even be bound, such as a
+ * damaged record whose visit day is out of range, is refused the same way.
+ * Other failures (connection lost, timeouts) are left for the caller to
+ * retry.
+ */
+final class RejectedBills {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    private final Path file;
+    private final int[] single = new int[1];
+    private final LongAdder rejected = new LongAdder();
+
+    RejectedBills(Path file) {
+        this.file = file;
+    }
+
+    static RejectedBills fromConfig() {
+        return new RejectedBills(Paths.get(ServerConfig.REJECTED_BILLS_FILE));
+    }
+
+    /**
+     * Whether the bill data itself was refused or could not be bound, so retrying cannot succeed
+     */
+    static boolean isRejection(Exception e) {
+        if (e instanceof RuntimeException) {
+            return true;
+        }
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                for (SQLException next = (SQLException) t; next != null; next = next.getNextException()) {
+                    String state = next.getSQLState();
+                    if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Save a refused batch one bill at a time, writing the bills refused again to the file
+     * Called by one copying thread.
+     * @return bills from the first that are stored or written to the file; fewer than count
+     *         when a bill failed for another reason and should be retried later
+     */
+    int saveEach(BillingRepository upstream, int count, int[] patientIds, int[] visitDays, double[] amounts) {
+        for (int i = 0; i < count; i++) {
+            single[0] = i;
+            try {
+                upstream.saveBills(single, 1, patientIds, visitDays, amounts);
+            } catch (SQLException | RuntimeException e) {
+                if (!isRejection(e) || !write(patientIds[i], visitDays[i], amounts[i], e)) {
+                    return i;
+                }
+            }
+        }
+        return count;
+    }
+
+    private boolean write(int patientId, int visitDay, double amount, Exception e) {
+        String error = String.valueOf(e.getMessage()).replace('\n', ' ').replace(',', ';');
+        String date = BillRequest.isVisitDay(visitDay) ? LocalDate.ofEpochDay(visitDay).toString() : "day " + visitDay;
+        String line = patientId + "," + date + "," + amount + "," + error + "\n";
+        try {
+            Files.write(file, line.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        } catch (IOException writeError) {
+            log.error("Cannot write rejected bill", "file", file, "error", writeError.getMessage());
+            return false;
+        }
+        rejected.increment();
+        log.error("Bill rejected by the database", "patientId", patientId, "error", e.getMessage());
+        return true;
+    }
+
+    long getCount() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,497 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * ResponseEncoder - Builds a complete reply in a reusable byte buffer
+ * Each worker keeps one encoder, so rendering a bill allocates nothing:
+ * amounts are written as fixed-point digits instead of String.format, and
+ * the finished reply goes out in a single write.
+ *
+ * Two bill formats are supported:
+ *   receipt - the human-readable block shown by the interactive client
+ *   compact - one comma-separated line for integrations:
+ *             OK,patientId,visitDate,serviceCode,patientType,insurancePlan,serviceAmount,
+ *             discountPercent,insuranceDiscount,discountedAmount,perVisitFee,subtotal,
+ *             extraChargePercent,extraCharge,finalAmount
+ * Every reply, including errors, ends with an END line.
+ *
+ * Connections in BinaryProtocol mode get length-prefixed frames instead,
+ * with amounts as fixed-point longs.
+ */
+public final class ResponseEncoder {
+    private static final byte[] DIGITS = "0123456789".getBytes();
+    private static final double[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000};
+
+    private byte[] buf;
+    private int len = 0;
+
+    public ResponseEncoder() {
+        this(1024);
+    }
+
+    public ResponseEncoder(int initialCapacity) {
+        buf = new byte[initialCapacity];
+    }
+
+    public void reset() {
+        len = 0;
+    }
+
+    public int size() {
+        return len;
+    }
+
+    /**
+     * Backing array; only the first size() bytes are valid
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+
+    /**
+     * Send the reply in one write
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, len);
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+
+    public ResponseEncoder append(char c) {
+        if (c < 0x80) {
+            ensure(1);
+            buf[len++] = (byte) c;
+        } else {
+            appendUtf8(c, (char) 0);
+        }
+        return this;
+    }
+
+    /**
+     * Append text as UTF-8 without an intermediate byte array
+     */
+    public ResponseEncoder append(String s) {
+        return append(s, 0, s.length());
+    }
+
+    /**
+     * Append s[start, end) as UTF-8
+     */
+    public ResponseEncoder append(String s, int start, int end) {
+        ensure(end - start);
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[len++] = (byte) c;
+            } else {
+                char low = Character.isHighSurrogate(c) && i + 1 < end ? s.charAt(i + 1) : 0;
+                if (appendUtf8(c, low)) i++;
+                ensure(end - i);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return true if the low surrogate was consumed too
+     */
+    private boolean appendUtf8(char c, char low) {
+        ensure(4);
+        if (c < 0x800) {
+            buf[len++] = (byte) (0xC0 | (c >> 6));
+            buf[len++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(low)) {
+            int cp = Character.toCodePoint(c, low);
+            buf[len++] = (byte) (0xF0 | (cp >> 18));
+            buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buf[len++] = (byte) (0x80 | (cp & 0x3F));
+            return true;
+        } else if (Character.isSurrogate(c)) {
+            buf[len++] = '?';
+        } else {
+            buf[len++] = (byte) (0xE0 | (c >> 12));
+            buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[len++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return false;
+    }
+
+    public ResponseEncoder append(long value) {
+        ensure(20);
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return append(Long.toString(value));
+            }
+            buf[len++] = '-';
+            value = -value;
+        }
+        int start = len;
+        do {
+            buf[len++] = DIGITS[(int) (value % 10)];
+            value /= 10;
+        } while (value > 0);
+        // digits were written least significant first
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+        return this;
+    }
+
+    public ResponseEncoder newline() {
+        ensure(1);
+        buf[len++] = '\n';
+        return this;
+    }
+
+    public ResponseEncoder line(String s) {
+        return append(s).newline();
+    }
+
+    /**
+     * Append an epoch day in years 0000-9999 as YYYY-MM-DD, like LocalDate.toString()
+     * Converted arithmetically (days to civil date), so no LocalDate is built.
+     */
+    public ResponseEncoder date(int epochDay) {
+        // Count from 0000-03-01 so the leap day falls at the end of each year
+        long z = epochDay + 719468L;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long marchMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * marchMonth + 2) / 5 + 1);
+        int month = (int) (marchMonth < 10 ? marchMonth + 3 : marchMonth - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        ensure(10);
+        buf[len++] = DIGITS[year / 1000 % 10];
+        buf[len++] = DIGITS[year / 100 % 10];
+        buf[len++] = DIGITS[year / 10 % 10];
+        buf[len++] = DIGITS[year % 10];
+        buf[len++] = '-';
+        buf[len++] = DIGITS[month / 10];
+        buf[len++] = DIGITS[month % 10];
+        buf[len++] = '-';
+        buf[len++] = DIGITS[day / 10];
+        buf[len++] = DIGITS[day % 10];
+        return this;
+    }
+
+    /**
+     * Append an amount with two decimals, rounded exactly like String.format("%.2f")
+     */
+    public ResponseEncoder amount(double value) {
+        return fixed(value, 2);
+    }
+
+    /**
+     * Append value with the given number of decimals (0-4), rounding half up
+     * Only near-ties fall back to BigDecimal; everything else allocates nothing.
+     */
+    public ResponseEncoder fixed(double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return append(String.format("%." + decimals + "f", value));
+        }
+        double scaled = Math.abs(value) * POWERS_OF_TEN[decimals];
+        double fraction = scaled - Math.floor(scaled);
+        long units;
+        if (Math.abs(fraction - 0.5) < 1e-6 || Math.abs(value) >= 1e9) {
+            // Near a tie, or too large for the scaled double to be exact. Formatter rounds the
+            // shortest decimal form of the double (1.005 prints as 1.01), so do the same here
+            units = BigDecimal.valueOf(Math.abs(value)).setScale(decimals, RoundingMode.HALF_UP)
+                .unscaledValue().longValue();
+        } else {
+            units = (long) Math.floor(scaled + 0.5);
+        }
+        if (Double.doubleToRawLongBits(value) < 0) {
+            // String.format keeps the sign even when the amount rounds to zero
+            append('-');
+        }
+        long factor = (long) POWERS_OF_TEN[decimals];
+        append(units / factor);
+        if (decimals > 0) {
+            append('.');
+            long rest = units % factor;
+            for (long div = factor / 10; div > 0; div /= 10) {
+                ensure(1);
+                buf[len++] = DIGITS[(int) (rest / div % 10)];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Append a rate as a percentage exactly as Double.toString(rate * 100) prints it, e.g. 15.0
+     * Digits are written directly only when the product is the double nearest to a
+     * one-decimal number, whose shortest form is that number; anything else, such as
+     * 0.132 * 100 = 13.200000000000001, goes through Double.toString.
+     */
+    public ResponseEncoder percent(double rate) {
+        double pct = rate * 100;
+        if (Math.abs(pct) < 1e6) {
+            long t = Math.round(pct * 10);
+            if (t / 10.0 == pct) {
+                if (Double.doubleToRawLongBits(pct) < 0) {
+                    append('-');
+                    t = -t;
+                }
+                append(t / 10).append('.');
+                ensure(1);
+                buf[len++] = DIGITS[(int) (t % 10)];
+                return this;
+            }
+        }
+        return append(Double.toString(pct));
+    }
+
+    /**
+     * Error reply: "ERROR: message" then END
+     */
+    public void error(String message) {
+        append("ERROR: ").line(message).line("END");
+    }
+
+    /**
+     * Full human-readable bill followed by END
+     */
+    public void receipt(Bill bill) {
+        Tariff tariff = bill.tariff;
+        line("=====================================");
+        line("         PATIENT BILL DETAILS        ");
+        line("=====================================");
+        append("Patient ID: ").append(bill.patientId).newline();
+        append("Visit Date: ").date(bill.visitDay).newline();
+        append("Service Code: ").line(tariff.serviceCode(bill.serviceCode));
+        append("Patient Type: ").line(tariff.patientType(bill.patientType));
+        append("Insurance Plan: ").line(tariff.insurancePlan(bill.insurancePlan));
+        append("Tariff Version: ").append(tariff.getVersion()).newline();
+        line("-------------------------------------");
+        append("Service Amount: OMR ").amount(bill.serviceAmount).newline();
+        append("Insurance Discount (").percent(bill.discountRate).append("%): -OMR ")
+            .amount(bill.insuranceDiscount).newline();
+        append("Discounted Amount: OMR ").amount(bill.discountedAmount).newline();
+        append("Per-Visit Fee: OMR ").amount(bill.perVisitFee).newline();
+        append("Subtotal: OMR ").amount(bill.subtotal).newline();
+        append("Extra Charge (").percent(bill.extraChargeRate).append("%): OMR ")
+            .amount(bill.extraCharge).newline();
+        line("=====================================");
+        append("FINAL BILL AMOUNT: OMR ").amount(bill.finalAmount).newline();
+        line("=====================================");
+        line("END");
+    }
+
+    /**
+     * Codes a client may send, in tariff id order, followed by END
+     * Retired codes are left out.
+     */
+    public void codes(Tariff tariff) {
+        append("TARIFF ").append(tariff.getVersion()).newline();
+        append("SERVICES ");
+        boolean first = true;
+        for (int i = 0; i < tariff.serviceCount(); i++) {
+            if (tariff.isActiveService(i)) {
+                if (!first) append(',');
+                append(tariff.serviceCode(i));
+                first = false;
+            }
+        }
+        newline().append("TYPES ");
+        first = true;
+        for (int i = 0; i < tariff.patientTypeCount(); i++) {
+            if (tariff.isActivePatientType(i)) {
+                if (!first) append(',');
+                append(tariff.patientType(i));
+                first = false;
+            }
+        }
+        newline().append("PLANS ");
+        first = true;
+        for (int i = 0; i < tariff.planCount(); i++) {
+            if (tariff.isActivePlan(i)) {
+                if (!first) append(',');
+                append(tariff.insurancePlan(i));
+                first = false;
+            }
+        }
+        newline().line("END");
+    }
+
+    /**
+     * Single machine-readable line followed by END
+     */
+    public void compact(Bill bill) {
+        compactLine(bill);
+        line("END");
+    }
+
+    /**
+     * The compact bill line alone, without END
+     */
+    public ResponseEncoder compactLine(Bill bill) {
+        Tariff tariff = bill.tariff;
+        return append("OK,").append(bill.patientId).append(',')
+            .date(bill.visitDay).append(',')
+            .append(tariff.serviceCode(bill.serviceCode)).append(',')
+            .append(tariff.patientType(bill.patientType)).append(',')
+            .append(tariff.insurancePlan(bill.insurancePlan)).append(',')
+            .amount(bill.serviceAmount).append(',')
+            .percent(bill.discountRate).append(',')
+            .amount(bill.insuranceDiscount).append(',')
+            .amount(bill.discountedAmount).append(',')
+            .amount(bill.perVisitFee).append(',')
+            .amount(bill.subtotal).append(',')
+            .percent(bill.extraChargeRate).append(',')
+            .amount(bill.extraCharge).append(',')
+            .amount(bill.finalAmount).append(',')
+            .append(tariff.getVersion()).newline();
+    }
+
+    public ResponseEncoder putByte(int value) {
+        ensure(1);
+        buf[len++] = (byte) value;
+        return this;
+    }
+
+    public ResponseEncoder putShort(int value) {
+        ensure(2);
+        buf[len++] = (byte) (value >>> 8);
+        buf[len++] = (byte) value;
+        return this;
+    }
+
+    public ResponseEncoder putInt(int value) {
+        ensure(4);
+        buf[len++] = (byte) (value >>> 24);
+        buf[len++] = (byte) (value >>> 16);
+        buf[len++] = (byte) (value >>> 8);
+        buf[len++] = (byte) value;
+        return this;
+    }
+
+    public ResponseEncoder putLong(long value) {
+        return putInt((int) (value >>> 32)).putInt((int) value);
+    }
+
+    private void putIntAt(int at, int value) {
+        buf[at] = (byte) (value >>> 24);
+        buf[at + 1] = (byte) (value >>> 16);
+        buf[at + 2] = (byte) (value >>> 8);
+        buf[at + 3] = (byte) value;
+    }
+
+    /**
+     * Reserve a frame length prefix
+     * @return the position to pass to endFrame()
+     */
+    public int beginFrame() {
+        ensure(4);
+        int start = len;
+        len += 4;
+        return start;
+    }
+
+    /**
+     * Fill in the length of the frame started at start
+     */
+    public void endFrame(int start) {
+        putIntAt(start, len - start - 4);
+    }
+
+    /**
+     * Binary OK frame for a priced bill
+     */
+    public void binaryBill(int requestId, Bill bill) {
+        int frame = beginFrame();
+        putByte(BinaryProtocol.OK).putInt(requestId)
+            .putInt(bill.patientId).putInt(bill.visitDay)
+            .putByte(bill.patientType).putShort(bill.serviceCode).putByte(bill.insurancePlan)
+            .putInt((int) Math.round(bill.discountRate * BinaryProtocol.RATE_SCALE))
+            .putInt((int) Math.round(bill.extraChargeRate * BinaryProtocol.RATE_SCALE))
+            .putLong(Math.round(bill.serviceAmount * BinaryProtocol.AMOUNT_SCALE))
+            .putLong(Math.round(bill.insuranceDiscount * BinaryProtocol.AMOUNT_SCALE))
+            .putLong(Math.round(bill.discountedAmount * BinaryProtocol.AMOUNT_SCALE))
+            .putLong(Math.round(bill.perVisitFee * BinaryProtocol.AMOUNT_SCALE))
+            .putLong(Math.round(bill.subtotal * BinaryProtocol.AMOUNT_SCALE))
+            .putLong(Math.round(bill.extraCharge * BinaryProtocol.AMOUNT_SCALE))
+            .putLong(Math.round(bill.finalAmount * BinaryProtocol.AMOUNT_SCALE))
+            .putInt(bill.tariff.getVersion());
+        endFrame(frame);
+    }
+
+    /**
+     * Binary ERROR frame
+     */
+    public void binaryError(int requestId, String message) {
+        int frame = beginFrame();
+        putByte(BinaryProtocol.ERROR).putInt(requestId);
+        putString(message);
+        endFrame(frame);
+    }
+
+    /**
+     * Binary CODES frame: the tariff's layout and every code in id order, retired ones marked
+     */
+    public void binaryCodes(int requestId, Tariff tariff) {
+        int frame = beginFrame();
+        putByte(BinaryProtocol.CODES_REPLY).putInt(requestId).putInt(tariff.getVersion()).putInt(tariff.getLayout());
+        putShort(tariff.serviceCount());
+        for (int i = 0; i < tariff.serviceCount(); i++) {
+            putByte(tariff.isActiveService(i) ? 0 : 1).putString(tariff.serviceCode(i));
+        }
+        putShort(tariff.patientTypeCount());
+        for (int i = 0; i < tariff.patientTypeCount(); i++) {
+            putByte(tariff.isActivePatientType(i) ? 0 : 1).putString(tariff.patientType(i));
+        }
+        putShort(tariff.planCount());
+        for (int i = 0; i < tariff.planCount(); i++) {
+            putByte(tariff.isActivePlan(i) ? 0 : 1).putString(tariff.insurancePlan(i));
+        }
+        endFrame(frame);
+    }
+
+    /**
+     * Binary STALE frame: the request's ids were taken from a tariff that no longer applies
+     */
+    public void binaryStale(int requestId, Tariff tariff) {
+        int frame = beginFrame();
+        putByte(BinaryProtocol.STALE).putInt(requestId).putInt(tariff.getLayout());
+        endFrame(frame);
+    }
+
+    /**
+     * Short UTF-8 byte length followed by the text
+     */
+    private ResponseEncoder putString(String s) {
+        int lengthAt = len;
+        putShort(0);
+        append(s);
+        int length = len - lengthAt - 2;
+        buf[lengthAt] = (byte) (length >>> 8);
+        buf[lengthAt + 1] = (byte) length;
+        return this;
+    }
+
+    /**
+     * Binary BYE frame, sent before the server closes the connection
+     */
+    public void binaryBye(int requestId) {
+        int frame = beginFrame();
+        putByte(BinaryProtocol.BYE).putInt(requestId);
+        endFrame(frame);
+    }
+}
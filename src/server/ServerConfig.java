@@ -0,0 +1,138 @@
+package server;
+
+/**
+ * ServerConfig - Tunable server settings
+ * Each value is read once from a -D system property, falling back to the default shown
+ */
+final class ServerConfig {
+    
+    // Port the billing server listens on
+    static final int PORT = Integer.getInteger("billing.port", 5000);
+    
+    // Worker execution mode: "virtual" (one virtual thread per connection) or "platform" (bounded pool)
+    static final String EXECUTION_MODE = System.getProperty("billing.executionMode", "virtual");
+    
+    // Platform mode: number of worker threads and how many accepted connections may wait for one
+    static final int MAX_WORKERS = Integer.getInteger("billing.maxWorkers", 64);
+    static final int QUEUE_LIMIT = Integer.getInteger("billing.queueLimit", 1000);
+    
+    // Virtual mode: maximum connections being served at the same time
+    static final int MAX_CONNECTIONS = Integer.getInteger("billing.maxConnections", 10000);
+    
+    // How long shutdown waits for in-flight bills before forcing workers to stop
+    static final long SHUTDOWN_DRAIN_SECONDS = Long.getLong("billing.shutdownDrainSeconds", 30L);
+    
+    // Server front end: "blocking" (one worker per connection) or "nio" (selector based)
+    static final String ENGINE = System.getProperty("billing.engine", "blocking");
+    
+    // NIO engine: I/O threads, longest accepted request line and requests queued per connection
+    static final int NIO_IO_THREADS = Integer.getInteger("billing.nio.ioThreads",
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    static final int NIO_MAX_LINE_BYTES = Integer.getInteger("billing.nio.maxLineBytes", 8192);
+    static final int NIO_MAX_PIPELINED = Integer.getInteger("billing.nio.maxPipelined", 256);
+    
+    // Keep-alive connections with no request for this long are closed
+    static final int KEEPALIVE_IDLE_TIMEOUT_MILLIS = Integer.getInteger("billing.keepAliveIdleTimeoutMillis", 60000);
+    
+    // Where patients and bills live: "mysql" (billing.db.*), "embedded" (H2 in this process)
+    // or "memory" (server memory, optionally copied to billing.db.* in the background)
+    static final String REPOSITORY = System.getProperty("billing.repository", "mysql");
+    
+    // Embedded repository: JDBC URL and credentials of the H2 database
+    static final String EMBEDDED_DB_URL = System.getProperty("billing.embedded.url",
+        "jdbc:h2:./data/medicareBilling;MODE=MySQL");
+    static final String EMBEDDED_DB_USER = System.getProperty("billing.embedded.user", "sa");
+    static final String EMBEDDED_DB_PASSWORD = System.getProperty("billing.embedded.password", "");
+    
+    // Memory repository: "patientId,insurancePlan" file to start from (empty uses the sample patients),
+    // whether bills are copied to the billing.db.* database, bills per copy and pause between copies
+    static final String MEMORY_PATIENTS_FILE = System.getProperty("billing.memory.patientsFile", "");
+    static final boolean MEMORY_SYNC = Boolean.parseBoolean(System.getProperty("billing.memory.sync", "false"));
+    static final int MEMORY_SYNC_BATCH_SIZE = Integer.getInteger("billing.memory.syncBatchSize", 1000);
+    static final long MEMORY_SYNC_INTERVAL_MILLIS = Long.getLong("billing.memory.syncIntervalMillis", 100L);
+    
+    // Bills the database refused while they were copied in the background, as CSV lines
+    static final String REJECTED_BILLS_FILE = System.getProperty("billing.rejectedBills.file", "rejected-bills.csv");
+    
+    // Bill ledger: directory of the write-ahead log (empty disables it), segment file size,
+    // whether each acknowledged bill is forced to disk, and bills copied to the repository per batch
+    // and the pause when caught up
+    static final String LEDGER_DIR = System.getProperty("billing.ledger.dir", "");
+    static final int LEDGER_SEGMENT_BYTES = Integer.getInteger("billing.ledger.segmentBytes", 16 * 1024 * 1024);
+    static final boolean LEDGER_FORCE = Boolean.parseBoolean(System.getProperty("billing.ledger.force", "true"));
+    static final int LEDGER_REPLICATE_BATCH_SIZE = Integer.getInteger("billing.ledger.replicateBatchSize", 1000);
+    static final long LEDGER_REPLICATE_INTERVAL_MILLIS = Long.getLong("billing.ledger.replicateIntervalMillis", 50L);
+    
+    // Tariff file, watched and published again whenever it is saved with a higher version
+    // (empty uses the built-in rates)
+    static final String TARIFF_FILE = System.getProperty("billing.tariff.file", "");
+    
+    // Fast start: snapshot file with the tariff and patient plans (empty disables it), written by
+    // server.StartupSnapshot, and synthetic requests billed before accepting connections (0, the default,
+    // skips the warm-up; 20000 is enough to compile the request path)
+    static final String SNAPSHOT_FILE = System.getProperty("billing.snapshot.file", "");
+    static final int WARMUP_REQUESTS = Integer.getInteger("billing.warmup.requests", 0);
+    
+    // Database connection details
+    // useServerPrepStmts/cachePrepStmts keep the billing statements prepared on the MySQL server,
+    // rewriteBatchedStatements turns a bill batch into one multi-row INSERT
+    static final String DB_URL = System.getProperty("billing.db.url",
+        "jdbc:mysql://localhost:3306/medicareBilling"
+        + "?useServerPrepStmts=true&cachePrepStmts=true&rewriteBatchedStatements=true");
+    static final String DB_USER = System.getProperty("billing.db.user", "root");
+    static final String DB_PASSWORD = System.getProperty("billing.db.password", "");
+    
+    // Connection pool sizing and timeouts
+    static final int DB_POOL_MIN = Integer.getInteger("billing.db.poolMin", 4);
+    static final int DB_POOL_MAX = Integer.getInteger("billing.db.poolMax", 32);
+    static final long DB_BORROW_TIMEOUT_MILLIS = Long.getLong("billing.db.borrowTimeoutMillis", 5000L);
+    static final long DB_IDLE_TIMEOUT_MILLIS = Long.getLong("billing.db.idleTimeoutMillis", 300000L);
+    
+    // A connection idle longer than this is checked with isValid() before it is handed out
+    static final long DB_VALIDATE_AFTER_MILLIS = Long.getLong("billing.db.validateAfterMillis", 1000L);
+    
+    // Bill writer: rows per transaction, how long the first queued bill waits for company,
+    // queue size, flusher threads and how long a worker waits for its commit
+    static final int WRITER_BATCH_SIZE = Integer.getInteger("billing.writer.batchSize", 100);
+    static final long WRITER_LINGER_MILLIS = Long.getLong("billing.writer.lingerMillis", 5L);
+    static final int WRITER_QUEUE_CAPACITY = Integer.getInteger("billing.writer.queueCapacity", 10000);
+    static final int WRITER_THREADS = Integer.getInteger("billing.writer.threads", 2);
+    static final long WRITER_ACK_TIMEOUT_MILLIS = Long.getLong("billing.writer.ackTimeoutMillis", 10000L);
+    
+    // Whether every bill batch also updates the per-patient PatientBillSummary table
+    static final boolean SUMMARY_ENABLED = Boolean.parseBoolean(System.getProperty("billing.summary.enabled", "true"));
+    
+    // Patient insurance plan cache: entries kept, TTL of a cached plan and of an unknown patient id
+    static final int PLAN_CACHE_MAX_ENTRIES = Integer.getInteger("billing.planCache.maxEntries", 100000);
+    static final long PLAN_CACHE_TTL_MILLIS = Long.getLong("billing.planCache.ttlMillis", 600000L);
+    static final long PLAN_CACHE_NEGATIVE_TTL_MILLIS = Long.getLong("billing.planCache.negativeTtlMillis", 30000L);
+    
+    // Bulk submission: records priced and saved together, patient ids per IN (...) plan query,
+    // and the directory BULK FILE may read claim files from (empty disables it)
+    static final int BULK_CHUNK_SIZE = Integer.getInteger("billing.bulk.chunkSize", 1000);
+    static final int BULK_PLAN_BATCH_SIZE = Integer.getInteger("billing.bulk.planBatchSize", 100);
+    static final String BULK_DIR = System.getProperty("billing.bulk.dir", "");
+    
+    // Idempotent submission: how long a billed request is remembered (0 disables it), entries kept,
+    // and whether requests without an explicit key are keyed by patient, date, type and service
+    static final long DEDUPE_WINDOW_MILLIS = Long.getLong("billing.dedupe.windowMillis", 120000L);
+    static final int DEDUPE_MAX_ENTRIES = Integer.getInteger("billing.dedupe.maxEntries", 100000);
+    static final boolean DEDUPE_DERIVE_KEYS = Boolean.parseBoolean(
+        System.getProperty("billing.dedupe.deriveKeys", "false"));
+    
+    // Loopback port that serves the metrics report (0 disables it), and how often
+    // the report is printed to the console (0 disables it)
+    static final int ADMIN_PORT = Integer.getInteger("billing.admin.port", 0);
+    static final int METRICS_DUMP_SECONDS = Integer.getInteger("billing.metrics.dumpSeconds", 0);
+    
+    // Server log: file (empty logs to the console), rotation size and files kept,
+    // lowest level written (DEBUG, INFO, WARN, ERROR) and events buffered before new ones are dropped
+    static final String LOG_FILE = System.getProperty("billing.log.file", "logs/billing-server.log");
+    static final long LOG_MAX_BYTES = Long.getLong("billing.log.maxBytes", 10L * 1024 * 1024);
+    static final int LOG_MAX_FILES = Integer.getInteger("billing.log.maxFiles", 5);
+    static final String LOG_LEVEL = System.getProperty("billing.log.level", "INFO");
+    static final int LOG_BUFFER_EVENTS = Integer.getInteger("billing.log.bufferEvents", 65536);
+    
+    private ServerConfig() {
+    }
+}
@@ -0,0 +1,89 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ServerMetrics - Process-wide counters and per-phase latency histograms
+ * Everything here is lock-free, so any thread may record without
+ * coordinating with the others. Phases of one request:
+ *   accept    - connection accepted until a worker or reactor takes it up
+ *   parse     - request line parsed and its codes resolved
+ *   dbConnect - waiting for a pooled database connection
+ *   plan      - insurance plan lookup, cache hit or database query
+ *   calculate - pricing the bill
+ *   insert    - bill queued until its batch committed
+ *   write     - reply written to the socket
+ *   request   - whole request, parse to reply rendered
+ */
+public final class ServerMetrics {
+    public static final LatencyHistogram ACCEPT = new LatencyHistogram("accept");
+    public static final LatencyHistogram PARSE = new LatencyHistogram("parse");
+    public static final LatencyHistogram DB_CONNECT = new LatencyHistogram("dbConnect");
+    public static final LatencyHistogram PLAN = new LatencyHistogram("plan");
+    public static final LatencyHistogram CALCULATE = new LatencyHistogram("calculate");
+    public static final LatencyHistogram INSERT = new LatencyHistogram("insert");
+    public static final LatencyHistogram WRITE = new LatencyHistogram("write");
+    public static final LatencyHistogram REQUEST = new LatencyHistogram("request");
+
+    private static final LatencyHistogram[] PHASES = {
+        ACCEPT, PARSE, DB_CONNECT, PLAN, CALCULATE, INSERT, WRITE, REQUEST
+    };
+
+    public static final LongAdder CONNECTIONS_ACCEPTED = new LongAdder();
+    public static final AtomicInteger ACTIVE_CONNECTIONS = new AtomicInteger();
+    // Connections or requests turned away because the workers were at capacity
+    public static final LongAdder REJECTED = new LongAdder();
+    public static final LongAdder REQUESTS = new LongAdder();
+    public static final LongAdder ERRORS = new LongAdder();
+    public static final LongAdder IO_ERRORS = new LongAdder();
+
+    private static final long STARTED_AT = System.currentTimeMillis();
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * Zero the request counters and phase histograms, e.g. after the start-up warm-up
+     * Connection counters are left alone.
+     */
+    public static void resetRequests() {
+        for (LatencyHistogram phase : PHASES) {
+            phase.reset();
+        }
+        REQUESTS.reset();
+        ERRORS.reset();
+    }
+
+    /**
+     * Plain-text report of every counter and phase, latencies in microseconds
+     * @param resources shared components whose own statistics are appended, or null
+     */
+    public static String report(ServerResources resources) {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("uptimeSeconds ").append((System.currentTimeMillis() - STARTED_AT) / 1000).append('\n');
+        sb.append("connections.accepted ").append(CONNECTIONS_ACCEPTED.sum()).append('\n');
+        sb.append("connections.active ").append(ACTIVE_CONNECTIONS.get()).append('\n');
+        sb.append("rejected ").append(REJECTED.sum()).append('\n');
+        sb.append("requests ").append(REQUESTS.sum()).append('\n');
+        sb.append("errors ").append(ERRORS.sum()).append('\n');
+        sb.append("ioErrors ").append(IO_ERRORS.sum()).append('\n');
+        sb.append(String.format("%-10s %10s %10s %10s %10s %10s %10s %10s%n",
+            "phase", "count", "mean_us", "p50_us", "p90_us", "p99_us", "p999_us", "max_us"));
+        for (LatencyHistogram phase : PHASES) {
+            LatencyHistogram.Snapshot s = phase.snapshot();
+            sb.append(String.format("%-10s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                phase.getName(), s.getCount(), phase.getMean() / 1000.0,
+                s.valueAt(0.50) / 1000.0, s.valueAt(0.90) / 1000.0, s.valueAt(0.99) / 1000.0,
+                s.valueAt(0.999) / 1000.0, phase.getMax() / 1000.0));
+        }
+        if (resources != null) {
+            sb.append(resources.repository.getStats()).append('\n');
+            sb.append(resources.planCache.getStats()).append('\n');
+            if (resources.dedupe != null) {
+                sb.append(resources.dedupe.getStats()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * ServerResources - Components shared by every connection
+ * Created once at startup; each connection or worker gets its own
+ * BillingService wired to these shared pieces.
+ */
+public class ServerResources {
+    final BillingRepository repository;
+    final InsurancePlanCache planCache;
+    // Null when idempotent submission is disabled
+    final DedupeWindow dedupe;
+    // Null when no tariff file is configured
+    private TariffWatcher tariffWatcher;
+
+    ServerResources(BillingRepository repository, InsurancePlanCache planCache, DedupeWindow dedupe) {
+        this.repository = repository;
+        this.planCache = planCache;
+        this.dedupe = dedupe;
+    }
+
+    public static ServerResources fromConfig() {
+        ServerResources resources = new ServerResources(BillingRepository.fromConfig(),
+            InsurancePlanCache.fromConfig(), DedupeWindow.fromConfig());
+        if (!ServerConfig.SNAPSHOT_FILE.isEmpty()) {
+            resources.loadSnapshot(ServerConfig.SNAPSHOT_FILE);
+        }
+        // The tariff file, when there is one, overrides the snapshot's tariff
+        resources.tariffWatcher = TariffWatcher.fromConfig();
+        return resources;
+    }
+
+    /**
+     * Publish a snapshot's tariff and put its patients' plans in the plan cache,
+     * as many as the cache holds; a missing or damaged file only logs a warning
+     */
+    private void loadSnapshot(String file) {
+        AsyncLogger log = AsyncLogger.get();
+        long start = System.nanoTime();
+        StartupSnapshot snapshot;
+        try {
+            snapshot = StartupSnapshot.load(Paths.get(file));
+        } catch (IOException e) {
+            log.warn("Starting without snapshot", "file", file, "error", e.getMessage());
+            return;
+        }
+        TariffEngine.publish(snapshot.getTariff());
+        int count = Math.min(snapshot.getPatientCount(), ServerConfig.PLAN_CACHE_MAX_ENTRIES);
+        for (int i = 0; i < count; i++) {
+            planCache.put(snapshot.patientId(i), snapshot.patientPlan(i));
+        }
+        log.info("Snapshot loaded", "patients", count, "millis", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public BillingService newBillingService() {
+        return new BillingService(repository, planCache, dedupe);
+    }
+
+    public BillingRepository getRepository() {
+        return repository;
+    }
+
+    public InsurancePlanCache getPlanCache() {
+        return planCache;
+    }
+
+    /**
+     * Stop watching the tariff, flush pending bills, report statistics and release the repository
+     */
+    public void close() {
+        if (tariffWatcher != null) {
+            tariffWatcher.close();
+        }
+        repository.close();
+        AsyncLogger log = AsyncLogger.get();
+        log.info("Insurance plan cache closed", "stats", planCache.getStats());
+        if (dedupe != null) {
+            log.info("Request dedupe closed", "stats", dedupe.getStats());
+        }
+    }
+}
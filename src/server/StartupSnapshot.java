@@ -0,0 +1,324 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * StartupSnapshot - Tariff and patient plans saved in one binary file
+ * Lets a restarted server start pricing and answering plan lookups without
+ * first asking the database. The file is memory-mapped and read in place:
+ *   int magic | int version
+ *   tariff:   int version, services (code, price), plans (code, discount, per-visit fee),
+ *             patient types (code, extra charge rate), each list count-prefixed
+ *             and in id order, each entry ending in a byte that is 1 if retired
+ *   plans:    int count, plan names
+ *   patients: int count, then (int patientId, int plan index) sorted by id
+ *   int crc32 of everything before it
+ * Strings are an unsigned short byte length and UTF-8 bytes. Written with
+ *   java server.StartupSnapshot <file>
+ * which reads the Patient table of the configured database and the tariff
+ * of billing.tariff.file, or the built-in one. Plans in the
+ * snapshot are as old as the file; they are used like plan cache entries.
+ */
+public final class StartupSnapshot {
+    private static final int MAGIC = 0x4D434253; // "MCBS"
+    private static final int VERSION = 3;
+
+    private final Tariff tariff;
+    private final String[] planNames;
+    private final MappedByteBuffer buffer;
+    private final int patientsAt;
+    private final int patientCount;
+
+    private StartupSnapshot(Tariff tariff, String[] planNames, MappedByteBuffer buffer, int patientsAt,
+                            int patientCount) {
+        this.tariff = tariff;
+        this.planNames = planNames;
+        this.buffer = buffer;
+        this.patientsAt = patientsAt;
+        this.patientCount = patientCount;
+    }
+
+    /**
+     * Map and check a snapshot file
+     * @throws IOException if it cannot be read or is damaged
+     */
+    public static StartupSnapshot load(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return read(buffer);
+        } catch (RuntimeException e) {
+            throw new IOException("Damaged snapshot " + file + ": " + e, e);
+        }
+    }
+
+    private static StartupSnapshot read(MappedByteBuffer buffer) throws IOException {
+        int end = buffer.capacity() - 4;
+        if (end < 8 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a billing snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + buffer.getInt(4));
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.limit(end);
+        crc.update(body);
+        if (buffer.getInt(end) != (int) crc.getValue()) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+
+        ByteBuffer in = buffer.duplicate();
+        in.position(8);
+        int tariffVersion = in.getInt();
+        int services = in.getInt();
+        String[] serviceCodes = new String[services];
+        double[] servicePrices = new double[services];
+        boolean[] retiredServices = new boolean[services];
+        for (int i = 0; i < services; i++) {
+            serviceCodes[i] = getString(in);
+            servicePrices[i] = in.getDouble();
+            retiredServices[i] = in.get() != 0;
+        }
+        int plans = in.getInt();
+        String[] insurancePlans = new String[plans];
+        double[] discountRates = new double[plans];
+        double[] perVisitFees = new double[plans];
+        boolean[] retiredPlans = new boolean[plans];
+        for (int i = 0; i < plans; i++) {
+            insurancePlans[i] = getString(in);
+            discountRates[i] = in.getDouble();
+            perVisitFees[i] = in.getDouble();
+            retiredPlans[i] = in.get() != 0;
+        }
+        int types = in.getInt();
+        String[] patientTypes = new String[types];
+        double[] extraChargeRates = new double[types];
+        boolean[] retiredPatientTypes = new boolean[types];
+        for (int i = 0; i < types; i++) {
+            patientTypes[i] = getString(in);
+            extraChargeRates[i] = in.getDouble();
+            retiredPatientTypes[i] = in.get() != 0;
+        }
+        Tariff tariff = new Tariff(tariffVersion, serviceCodes, servicePrices, retiredServices,
+            insurancePlans, discountRates, perVisitFees, retiredPlans,
+            patientTypes, extraChargeRates, retiredPatientTypes, new int[0]);
+
+        String[] planNames = new String[in.getInt()];
+        for (int i = 0; i < planNames.length; i++) {
+            planNames[i] = getString(in).intern();
+        }
+        int patientCount = in.getInt();
+        int patientsAt = in.position();
+        if ((long) patientsAt + patientCount * 8L != end) {
+            throw new IOException("Snapshot patient table has the wrong size");
+        }
+        return new StartupSnapshot(tariff, planNames, buffer, patientsAt, patientCount);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public Tariff getTariff() {
+        return tariff;
+    }
+
+    public int getPatientCount() {
+        return patientCount;
+    }
+
+    /**
+     * Id of the i-th patient, in ascending id order
+     */
+    public int patientId(int i) {
+        return buffer.getInt(patientsAt + i * 8);
+    }
+
+    /**
+     * Plan of the i-th patient
+     */
+    public String patientPlan(int i) {
+        return planNames[buffer.getInt(patientsAt + i * 8 + 4)];
+    }
+
+    /**
+     * Write a snapshot to a temporary file and rename it over the target
+     * @param patientIds distinct ids; they need not be sorted
+     */
+    public static void write(Path file, Tariff tariff, int[] patientIds, String[] plans, int count)
+            throws IOException {
+        // Index of each distinct plan name
+        Map<String, Integer> planIndex = new HashMap<>();
+        List<String> planNames = new ArrayList<>();
+        long[] entries = new long[count];
+        for (int i = 0; i < count; i++) {
+            Integer index = planIndex.get(plans[i]);
+            if (index == null) {
+                index = planNames.size();
+                planIndex.put(plans[i], index);
+                planNames.add(plans[i]);
+            }
+            // Sorts by id, carrying the plan index in the low half
+            entries[i] = ((long) patientIds[i] << 32) | index;
+        }
+        Arrays.sort(entries, 0, count);
+
+        Builder out = new Builder(64 + count * 8);
+        out.putInt(MAGIC).putInt(VERSION);
+        out.putInt(tariff.getVersion());
+        out.putInt(tariff.serviceCount());
+        for (int i = 0; i < tariff.serviceCount(); i++) {
+            out.putString(tariff.serviceCode(i)).putDouble(tariff.servicePrice(i))
+                .putBoolean(!tariff.isActiveService(i));
+        }
+        out.putInt(tariff.planCount());
+        for (int i = 0; i < tariff.planCount(); i++) {
+            out.putString(tariff.insurancePlan(i)).putDouble(tariff.discountRate(i)).putDouble(tariff.perVisitFee(i))
+                .putBoolean(!tariff.isActivePlan(i));
+        }
+        out.putInt(tariff.patientTypeCount());
+        for (int i = 0; i < tariff.patientTypeCount(); i++) {
+            out.putString(tariff.patientType(i)).putDouble(tariff.extraChargeRate(i))
+                .putBoolean(!tariff.isActivePatientType(i));
+        }
+        out.putInt(planNames.size());
+        for (String name : planNames) {
+            out.putString(name);
+        }
+        out.putInt(count);
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && (int) (entries[i] >> 32) == (int) (entries[i - 1] >> 32)) {
+                throw new IllegalArgumentException("Duplicate patient id " + (int) (entries[i] >> 32));
+            }
+            out.putInt((int) (entries[i] >> 32)).putInt((int) entries[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.buffer.array(), 0, out.buffer.position());
+        out.putInt((int) crc.getValue());
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        ByteBuffer data = out.buffer;
+        data.flip();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Builder - Growable big-endian buffer
+     */
+    private static final class Builder {
+        ByteBuffer buffer;
+
+        Builder(int capacity) {
+            buffer = ByteBuffer.allocate(capacity);
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+
+        Builder putInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+            return this;
+        }
+
+        Builder putDouble(double value) {
+            ensure(8);
+            buffer.putDouble(value);
+            return this;
+        }
+
+        Builder putBoolean(boolean value) {
+            ensure(1);
+            buffer.put((byte) (value ? 1 : 0));
+            return this;
+        }
+
+        Builder putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("Code too long for a snapshot: " + value);
+            }
+            ensure(2 + bytes.length);
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+            return this;
+        }
+    }
+
+    /**
+     * Write a snapshot of the current tariff and the Patient table of the
+     * configured database (billing.embedded.* for the embedded repository,
+     * billing.db.* otherwise)
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java server.StartupSnapshot <snapshot file>");
+            System.exit(2);
+        }
+        boolean embedded = "embedded".equals(ServerConfig.REPOSITORY);
+        String url = embedded ? ServerConfig.EMBEDDED_DB_URL : ServerConfig.DB_URL;
+        String user = embedded ? ServerConfig.EMBEDDED_DB_USER : ServerConfig.DB_USER;
+        String password = embedded ? ServerConfig.EMBEDDED_DB_PASSWORD : ServerConfig.DB_PASSWORD;
+
+        int[] patientIds = new int[1024];
+        String[] plans = new String[1024];
+        int count = 0;
+        try (Connection conn = DriverManager.getConnection(url, user, password);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT patient_id, insurance_plan FROM Patient")) {
+            while (rs.next()) {
+                if (count == patientIds.length) {
+                    patientIds = Arrays.copyOf(patientIds, count * 2);
+                    plans = Arrays.copyOf(plans, count * 2);
+                }
+                patientIds[count] = rs.getInt(1);
+                plans[count] = rs.getString(2);
+                count++;
+            }
+        } catch (SQLException e) {
+            System.err.println("✗ Cannot read patients from " + url + ": " + e.getMessage());
+            System.exit(1);
+        }
+
+        Path file = Paths.get(args[0]);
+        try {
+            Tariff tariff = ServerConfig.TARIFF_FILE.isEmpty() ? TariffEngine.current()
+                : TariffFile.load(Paths.get(ServerConfig.TARIFF_FILE));
+            write(file, tariff, patientIds, plans, count);
+        } catch (IOException e) {
+            System.err.println("✗ Cannot write snapshot " + file + ": " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("✓ Snapshot written to " + file + " (" + count + " patients)");
+    }
+}
@@ -0,0 +1,377 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Tariff - Immutable snapshot of all billing rates
+ * Service codes, insurance plans and patient types are mapped to dense int ids
+ * (their position in the arrays below) so pricing works on primitive arrays;
+ * codes are turned into ids through hash maps. The breakdown of every
+ * (plan, patientType, service) combination is computed once when the
+ * snapshot is built, so pricing a bill only copies it. Each snapshot carries the
+ * version it was published as, which is stamped on the bills priced with it.
+ * Ids never change meaning while the server runs: a reloaded tariff is aligned
+ * to the one it replaces, keeping every code in its slot and appending new
+ * ones; a code dropped from the file keeps its slot as retired and is no
+ * longer accepted. The layout, a checksum of the codes in id order, tells a
+ * binary client whether the ids it fetched still mean what it thinks; an
+ * aligned tariff also accepts the layouts of those it extends.
+ */
+public final class Tariff {
+    private final int version;
+
+    private final String[] serviceCodes;
+    private final double[] servicePrices;
+
+    private final String[] insurancePlans;
+    private final double[] discountRates;
+    private final double[] perVisitFees;
+
+    private final String[] patientTypes;
+    private final double[] extraChargeRates;
+
+    // Slots kept for codes the tariff no longer offers
+    private final boolean[] retiredServices;
+    private final boolean[] retiredPlans;
+    private final boolean[] retiredPatientTypes;
+
+    // Checksum of the codes in id order, and every layout whose ids still mean the same here
+    private final int layout;
+    private final int[] layouts;
+
+    // Code to id
+    private final Map<String, Integer> serviceIds;
+    private final Map<String, Integer> planIds;
+    private final Map<String, Integer> patientTypeIds;
+
+    // BREAKDOWN_FIELDS amounts per combination, starting at
+    // ((plan * patientTypes + patientType) * services + service) * BREAKDOWN_FIELDS
+    private static final int BREAKDOWN_FIELDS = 6;
+    private final double[] breakdowns;
+
+    public Tariff(int version, String[] serviceCodes, double[] servicePrices,
+                  String[] insurancePlans, double[] discountRates, double[] perVisitFees,
+                  String[] patientTypes, double[] extraChargeRates) {
+        this(version, serviceCodes, servicePrices, new boolean[serviceCodes.length],
+            insurancePlans, discountRates, perVisitFees, new boolean[insurancePlans.length],
+            patientTypes, extraChargeRates, new boolean[patientTypes.length], new int[0]);
+    }
+
+    /**
+     * @param olderLayouts layouts of earlier tariffs this one extends, whose ids stay valid
+     */
+    Tariff(int version, String[] serviceCodes, double[] servicePrices, boolean[] retiredServices,
+           String[] insurancePlans, double[] discountRates, double[] perVisitFees, boolean[] retiredPlans,
+           String[] patientTypes, double[] extraChargeRates, boolean[] retiredPatientTypes, int[] olderLayouts) {
+        if (serviceCodes.length != servicePrices.length
+                || serviceCodes.length != retiredServices.length
+                || insurancePlans.length != retiredPlans.length
+                || patientTypes.length != retiredPatientTypes.length
+                || insurancePlans.length != discountRates.length
+                || insurancePlans.length != perVisitFees.length
+                || patientTypes.length != extraChargeRates.length) {
+            throw new IllegalArgumentException("Tariff code and rate lists differ in length");
+        }
+        this.version = version;
+        this.serviceCodes = internAll(serviceCodes);
+        this.servicePrices = servicePrices.clone();
+        this.insurancePlans = internAll(insurancePlans);
+        this.discountRates = discountRates.clone();
+        this.perVisitFees = perVisitFees.clone();
+        this.patientTypes = internAll(patientTypes);
+        this.extraChargeRates = extraChargeRates.clone();
+        this.retiredServices = retiredServices.clone();
+        this.retiredPlans = retiredPlans.clone();
+        this.retiredPatientTypes = retiredPatientTypes.clone();
+        this.serviceIds = ids(this.serviceCodes, this.retiredServices);
+        this.planIds = ids(this.insurancePlans, this.retiredPlans);
+        this.patientTypeIds = ids(this.patientTypes, this.retiredPatientTypes);
+        this.layout = layout(this.serviceCodes, this.patientTypes, this.insurancePlans);
+        this.layouts = withLayout(olderLayouts, layout);
+
+        this.breakdowns = new double[insurancePlans.length * patientTypes.length * serviceCodes.length
+            * BREAKDOWN_FIELDS];
+        for (int plan = 0; plan < insurancePlans.length; plan++) {
+            for (int type = 0; type < patientTypes.length; type++) {
+                for (int service = 0; service < serviceCodes.length; service++) {
+                    calculate(plan, type, service, index(plan, type, service));
+                }
+            }
+        }
+    }
+
+    /**
+     * The rates the system has always shipped with, as version 1
+     */
+    public static Tariff defaults() {
+        return new Tariff(1,
+            new String[] {"CONS100", "LAB210", "IMG330", "US400", "MRI700"},
+            new double[] {12.00, 8.50, 25.00, 35.00, 180.00},
+            new String[] {"Premium", "Standard", "Basic"},
+            new double[] {0.15, 0.10, 0.00},
+            new double[] {5.00, 8.00, 10.00},
+            new String[] {"Outpatient", "Inpatient", "Emergency"},
+            new double[] {0.00, 0.05, 0.15});
+    }
+
+    private static String[] internAll(String[] codes) {
+        String[] interned = new String[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            interned[i] = codes[i].intern();
+        }
+        return interned;
+    }
+
+    private static Map<String, Integer> ids(String[] codes, boolean[] retired) {
+        Map<String, Integer> ids = new HashMap<>(codes.length * 2);
+        for (int i = 0; i < codes.length; i++) {
+            if (!retired[i]) {
+                ids.put(codes[i], i);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * This tariff's rates laid out in the id slots of previous
+     * Codes previous knew keep their ids, new codes are appended after them,
+     * and codes this tariff dropped stay retired at their old rates.
+     */
+    public Tariff alignedTo(Tariff previous) {
+        int[] services = align(previous.serviceCodes, serviceCodes);
+        int[] plans = align(previous.insurancePlans, insurancePlans);
+        int[] types = align(previous.patientTypes, patientTypes);
+        return new Tariff(version,
+            pick(services, previous.serviceCodes, serviceCodes),
+            pick(services, previous.servicePrices, servicePrices),
+            retired(services),
+            pick(plans, previous.insurancePlans, insurancePlans),
+            pick(plans, previous.discountRates, discountRates),
+            pick(plans, previous.perVisitFees, perVisitFees),
+            retired(plans),
+            pick(types, previous.patientTypes, patientTypes),
+            pick(types, previous.extraChargeRates, extraChargeRates),
+            retired(types),
+            previous.layouts);
+    }
+
+    /**
+     * CRC32 of the code lists, each code followed by a newline and each list by an empty line
+     */
+    private static int layout(String[]... lists) {
+        CRC32 crc = new CRC32();
+        for (String[] codes : lists) {
+            for (String code : codes) {
+                crc.update(code.getBytes(StandardCharsets.UTF_8));
+                crc.update('\n');
+            }
+            crc.update('\n');
+        }
+        return (int) crc.getValue();
+    }
+
+    private static int[] withLayout(int[] layouts, int layout) {
+        for (int known : layouts) {
+            if (known == layout) {
+                return layouts.clone();
+            }
+        }
+        int[] all = Arrays.copyOf(layouts, layouts.length + 1);
+        all[layouts.length] = layout;
+        return all;
+    }
+
+    /**
+     * Where each aligned slot comes from: i for current[i], -1 - i for previous[i]
+     * when current no longer has that code
+     */
+    private static int[] align(String[] previous, String[] current) {
+        Map<String, Integer> currentIds = new HashMap<>(current.length * 2);
+        for (int i = 0; i < current.length; i++) {
+            currentIds.put(current[i], i);
+        }
+        int[] sources = new int[current.length + previous.length];
+        boolean[] placed = new boolean[current.length];
+        int count = 0;
+        for (int i = 0; i < previous.length; i++) {
+            Integer at = currentIds.get(previous[i]);
+            if (at == null) {
+                sources[count++] = -1 - i;
+            } else {
+                sources[count++] = at;
+                placed[at] = true;
+            }
+        }
+        for (int i = 0; i < current.length; i++) {
+            if (!placed[i]) {
+                sources[count++] = i;
+            }
+        }
+        return Arrays.copyOf(sources, count);
+    }
+
+    private static String[] pick(int[] sources, String[] previous, String[] current) {
+        String[] picked = new String[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            picked[i] = sources[i] >= 0 ? current[sources[i]] : previous[-1 - sources[i]];
+        }
+        return picked;
+    }
+
+    private static double[] pick(int[] sources, double[] previous, double[] current) {
+        double[] picked = new double[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            picked[i] = sources[i] >= 0 ? current[sources[i]] : previous[-1 - sources[i]];
+        }
+        return picked;
+    }
+
+    private static boolean[] retired(int[] sources) {
+        boolean[] retired = new boolean[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            retired[i] = sources[i] < 0;
+        }
+        return retired;
+    }
+
+    private int index(int plan, int type, int service) {
+        return ((plan * patientTypes.length + type) * serviceCodes.length + service) * BREAKDOWN_FIELDS;
+    }
+
+    /**
+     * Look up the id of a code, -1 if it is not in the map
+     */
+    private static int find(Map<String, Integer> ids, String code) {
+        Integer id = code == null ? null : ids.get(code);
+        return id == null ? -1 : id;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getLayout() {
+        return layout;
+    }
+
+    /**
+     * Whether ids a client took from a tariff with the given layout mean the same here
+     */
+    public boolean acceptsLayout(int layout) {
+        for (int known : layouts) {
+            if (known == layout) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int serviceId(String serviceCode) {
+        return find(serviceIds, serviceCode);
+    }
+
+    public int planId(String insurancePlan) {
+        return find(planIds, insurancePlan);
+    }
+
+    public int patientTypeId(String patientType) {
+        return find(patientTypeIds, patientType);
+    }
+
+    public String serviceCode(int serviceId) {
+        return serviceCodes[serviceId];
+    }
+
+    public String insurancePlan(int planId) {
+        return insurancePlans[planId];
+    }
+
+    public String patientType(int typeId) {
+        return patientTypes[typeId];
+    }
+
+    /**
+     * Whether an id names a service the tariff still offers
+     */
+    public boolean isActiveService(int serviceId) {
+        return serviceId >= 0 && serviceId < serviceCodes.length && !retiredServices[serviceId];
+    }
+
+    public boolean isActivePlan(int planId) {
+        return planId >= 0 && planId < insurancePlans.length && !retiredPlans[planId];
+    }
+
+    public boolean isActivePatientType(int typeId) {
+        return typeId >= 0 && typeId < patientTypes.length && !retiredPatientTypes[typeId];
+    }
+
+    public int serviceCount() {
+        return serviceCodes.length;
+    }
+
+    public int planCount() {
+        return insurancePlans.length;
+    }
+
+    public int patientTypeCount() {
+        return patientTypes.length;
+    }
+
+    public double servicePrice(int serviceId) {
+        return servicePrices[serviceId];
+    }
+
+    public double discountRate(int planId) {
+        return discountRates[planId];
+    }
+
+    public double perVisitFee(int planId) {
+        return perVisitFees[planId];
+    }
+
+    public double extraChargeRate(int typeId) {
+        return extraChargeRates[typeId];
+    }
+
+    /**
+     * Fill in the full breakdown of a bill from the precomputed table; allocates nothing
+     */
+    public void price(int planId, int typeId, int serviceId, Bill bill) {
+        int at = index(planId, typeId, serviceId);
+        bill.tariff = this;
+        bill.insurancePlan = planId;
+        bill.patientType = typeId;
+        bill.serviceCode = serviceId;
+        bill.discountRate = discountRates[planId];
+        bill.extraChargeRate = extraChargeRates[typeId];
+        bill.perVisitFee = perVisitFees[planId];
+
+        bill.serviceAmount = breakdowns[at];
+        bill.insuranceDiscount = breakdowns[at + 1];
+        bill.discountedAmount = breakdowns[at + 2];
+        bill.subtotal = breakdowns[at + 3];
+        bill.extraCharge = breakdowns[at + 4];
+        bill.finalAmount = breakdowns[at + 5];
+    }
+
+    /**
+     * Work out one combination's breakdown into the table at index at
+     */
+    private void calculate(int planId, int typeId, int serviceId, int at) {
+        double serviceAmount = servicePrices[serviceId];
+        double insuranceDiscount = discountRates[planId] * serviceAmount;
+        double discountedAmount = serviceAmount - insuranceDiscount;
+        double subtotal = discountedAmount + perVisitFees[planId];
+        double extraCharge = subtotal * extraChargeRates[typeId];
+        breakdowns[at] = serviceAmount;
+        breakdowns[at + 1] = insuranceDiscount;
+        breakdowns[at + 2] = discountedAmount;
+        breakdowns[at + 3] = subtotal;
+        breakdowns[at + 4] = extraCharge;
+        breakdowns[at + 5] = subtotal + extraCharge;
+    }
+}
@@ -0,0 +1,34 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * TariffEngine - Holds the Tariff shared by every worker
+ * Workers read the current snapshot without locking; a tariff change builds
+ * a new snapshot and swaps it in atomically, so a bill is always priced
+ * against one consistent set of rates.
+ */
+public final class TariffEngine {
+    private static final AtomicReference<Tariff> CURRENT = new AtomicReference<>(Tariff.defaults());
+
+    private TariffEngine() {
+    }
+
+    /**
+     * Snapshot to price the next bill with
+     */
+    public static Tariff current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Replace the tariff for all subsequent bills
+     * @return the snapshot that was replaced
+     */
+    public static Tariff publish(Tariff tariff) {
+        if (tariff == null) {
+            throw new IllegalArgumentException("tariff must not be null");
+        }
+        return CURRENT.getAndSet(tariff);
+    }
+}
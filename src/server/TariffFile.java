@@ -0,0 +1,131 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * TariffFile - Reads a Tariff from a text file
+ * One entry per line, fields separated by spaces; blank lines and lines
+ * starting with # are ignored:
+ *   version 2
+ *   service CONS100 12.00          code, price in OMR
+ *   plan Premium 0.15 5.00         name, discount rate, per-visit fee in OMR
+ *   type Emergency 0.15            name, extra charge rate
+ * Services, plans and types get their ids in the order they are listed.
+ * The whole file is checked before a Tariff is built, so a file with any
+ * mistake in it is rejected as a whole.
+ */
+public final class TariffFile {
+
+    private TariffFile() {
+    }
+
+    /**
+     * @throws IOException if the file cannot be read or has a mistake in it
+     */
+    public static Tariff load(Path file) throws IOException {
+        int version = 0;
+        List<String> serviceCodes = new ArrayList<>();
+        List<Double> servicePrices = new ArrayList<>();
+        List<String> plans = new ArrayList<>();
+        List<Double> discountRates = new ArrayList<>();
+        List<Double> perVisitFees = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        List<Double> extraChargeRates = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("\\s+");
+                try {
+                    switch (fields[0]) {
+                        case "version":
+                            expectFields(fields, 2);
+                            version = Integer.parseInt(fields[1]);
+                            if (version <= 0) throw new IllegalArgumentException("version must be positive");
+                            break;
+                        case "service":
+                            expectFields(fields, 3);
+                            addCode(seen, "service", fields[1], serviceCodes);
+                            servicePrices.add(amount(fields[2]));
+                            break;
+                        case "plan":
+                            expectFields(fields, 4);
+                            addCode(seen, "plan", fields[1], plans);
+                            discountRates.add(rate(fields[2]));
+                            perVisitFees.add(amount(fields[3]));
+                            break;
+                        case "type":
+                            expectFields(fields, 3);
+                            addCode(seen, "type", fields[1], types);
+                            extraChargeRates.add(rate(fields[2]));
+                            break;
+                        default:
+                            throw new IllegalArgumentException("unknown entry " + fields[0]
+                                + ", expected version, service, plan or type");
+                    }
+                } catch (IllegalArgumentException e) {
+                    // NumberFormatException included
+                    throw new IOException(file + " line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+        if (version == 0) throw new IOException(file + ": no version line");
+        if (serviceCodes.isEmpty() || plans.isEmpty() || types.isEmpty()) {
+            throw new IOException(file + ": needs at least one service, plan and type");
+        }
+        return new Tariff(version,
+            serviceCodes.toArray(new String[0]), toArray(servicePrices),
+            plans.toArray(new String[0]), toArray(discountRates), toArray(perVisitFees),
+            types.toArray(new String[0]), toArray(extraChargeRates));
+    }
+
+    private static void expectFields(String[] fields, int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException(fields[0] + " takes " + (count - 1) + " value(s)");
+        }
+    }
+
+    private static void addCode(Set<String> seen, String kind, String code, List<String> codes) {
+        if (!seen.add(kind + " " + code)) {
+            throw new IllegalArgumentException("duplicate " + kind + " " + code);
+        }
+        codes.add(code);
+    }
+
+    private static double amount(String value) {
+        double amount = Double.parseDouble(value);
+        if (!(amount >= 0) || Double.isInfinite(amount)) {
+            throw new IllegalArgumentException("amount must not be negative: " + value);
+        }
+        return amount;
+    }
+
+    private static double rate(String value) {
+        double rate = Double.parseDouble(value);
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("rate must be between 0 and 1: " + value);
+        }
+        return rate;
+    }
+
+    private static double[] toArray(List<Double> values) {
+        double[] array = new double[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,137 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TariffWatcher - Publishes the tariff file, and every later edit of it
+ * A WatchService on the file's directory is registered before the file is
+ * first read, so a save made while the server starts is not missed; each
+ * save is published through TariffEngine once writes have settled. Bills
+ * already being priced keep the snapshot they started with. An edit only
+ * takes effect if it raises the version, so every version stamped on a bill
+ * means one set of rates, and it is aligned to the current tariff so code
+ * ids keep their meaning; a file that does not parse is logged and the
+ * current tariff stays.
+ */
+public class TariffWatcher {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    // Quiet time after the last change event before the file is read
+    private static final long SETTLE_MILLIS = 200;
+
+    private final Path file;
+    private final WatchService watchService;
+    private volatile boolean running = true;
+
+    /**
+     * Start watching the file, then load and publish it
+     * @throws IOException if the file cannot be watched or loaded
+     */
+    public TariffWatcher(Path file) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.watchService = this.file.getFileSystem().newWatchService();
+        Tariff tariff;
+        try {
+            this.file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            // No client holds an id yet, so the file's own order is used
+            tariff = TariffFile.load(this.file);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        TariffEngine.publish(tariff);
+        log.info("Tariff loaded", "file", this.file, "version", tariff.getVersion());
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchLoop();
+            }
+        }, "billing-tariff-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Watcher for billing.tariff.file, or null if none is configured
+     * @throws IllegalStateException if the file cannot be loaded
+     */
+    public static TariffWatcher fromConfig() {
+        if (ServerConfig.TARIFF_FILE.isEmpty()) {
+            return null;
+        }
+        try {
+            return new TariffWatcher(Paths.get(ServerConfig.TARIFF_FILE));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot load tariff file: " + e.getMessage(), e);
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (running) {
+                WatchKey key = watchService.take();
+                boolean changed = pollChanged(key);
+                // Editors often save in several writes; wait until they stop
+                WatchKey more;
+                while ((more = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= pollChanged(more);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * Whether a key's events include the tariff file; re-arms the key
+     */
+    private boolean pollChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Read the file again and publish it, in the current tariff's id slots,
+     * if it raises the version
+     */
+    private void reload() {
+        Tariff tariff;
+        try {
+            tariff = TariffFile.load(file);
+        } catch (IOException e) {
+            log.error("Tariff file rejected, keeping the current tariff", "error", e.getMessage());
+            return;
+        }
+        // Only this thread publishes after startup, so current cannot change under us
+        Tariff current = TariffEngine.current();
+        if (tariff.getVersion() <= current.getVersion()) {
+            log.warn("Tariff file changed without raising its version, keeping the current tariff",
+                "version", tariff.getVersion(), "current", current.getVersion());
+            return;
+        }
+        TariffEngine.publish(tariff.alignedTo(current));
+        log.info("Tariff reloaded", "version", tariff.getVersion(), "previous", current.getVersion());
+    }
+
+    public void close() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Error closing tariff watcher", "error", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * Warmup - Runs the billing path before the server accepts connections
+ * A fresh JVM interprets the parse, price and render code until the JIT
+ * has seen enough of it, so without this the first clients pay for
+ * compilation. The warm-up bills synthetic requests, text and binary,
+ * receipt and compact, valid and rejected, through a BillingService on
+ * its own InMemoryBillingRepository and plan cache, so nothing reaches the
+ * real database or cache. Logging is held at WARN meanwhile and the request
+ * metrics are zeroed afterwards. The real repository is only warmed with
+ * plan lookups, which open its connections and prepare its queries; bill
+ * inserts are left cold rather than writing fake bills.
+ * Run on its own it is also the training run for the AppCDS archive:
+ *   java -XX:ArchiveClassesAtExit=billing.jsa -cp ... server.Warmup
+ */
+public final class Warmup {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    private static final LocalDate FIRST_VISIT = LocalDate.of(2025, 1, 1);
+    // Requests of the AppCDS training run when billing.warmup.requests is not set
+    private static final int TRAINING_REQUESTS = 20000;
+
+    private Warmup() {
+    }
+
+    /**
+     * Bill synthetic requests, then look patients up in the server's repository
+     * @param repository the real repository, or null to skip the lookups
+     * @return milliseconds taken
+     */
+    public static long run(int requests, BillingRepository repository) {
+        long start = System.nanoTime();
+        billSynthetic(requests);
+        if (repository != null) {
+            int lookups = Math.min(requests / 10, 1000);
+            try {
+                for (int i = 0; i < lookups; i++) {
+                    repository.findInsurancePlan(i % 5 + 1);
+                }
+            } catch (SQLException e) {
+                log.warn("Warm-up lookups failed", "error", e.getMessage());
+            }
+            ServerMetrics.resetRequests();
+        }
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Bill the given number of synthetic requests against the current tariff
+     */
+    private static void billSynthetic(int requests) {
+        Tariff tariff = TariffEngine.current();
+        // One patient per plan, so every plan is priced
+        InMemoryBillingRepository repository = new InMemoryBillingRepository(null, 1, 0);
+        for (int plan = 0; plan < tariff.planCount(); plan++) {
+            repository.putPatient(plan + 1, tariff.insurancePlan(plan));
+        }
+        BillingService service = new BillingService(repository,
+            new InsurancePlanCache(1024, 600000, 600000), null);
+        ResponseEncoder out = new ResponseEncoder();
+
+        int previousLevel = log.setLevel(AsyncLogger.WARN);
+        try {
+            for (int i = 0; i < requests; i++) {
+                int patientId = i % (tariff.planCount() + 1) + 1; // the last one is unknown
+                int typeId = i % tariff.patientTypeCount();
+                int serviceId = (i / tariff.patientTypeCount()) % tariff.serviceCount();
+                int visitDay = (int) FIRST_VISIT.toEpochDay() + i % 365;
+                switch (i % 4) {
+                    case 0:
+                    case 1:
+                        service.handleRequest(patientId + "," + LocalDate.ofEpochDay(visitDay) + ","
+                            + tariff.patientType(typeId) + "," + tariff.serviceCode(serviceId), i % 4 == 0, out);
+                        break;
+                    case 2:
+                        service.handleBinaryRequest(i, tariff.getLayout(), patientId, visitDay, typeId, serviceId, out);
+                        break;
+                    default:
+                        service.handleRequest(i % 8 == 3 ? "not,a,valid,request" : "1,2025-01-01,Outpatient,NONE",
+                            true, out);
+                        break;
+                }
+                out.reset();
+            }
+        } finally {
+            repository.close();
+            log.setLevel(previousLevel);
+            ServerMetrics.resetRequests();
+        }
+    }
+
+    /**
+     * Training run for an AppCDS archive: load the snapshot if one is configured, warm up and exit
+     */
+    public static void main(String[] args) {
+        if (!ServerConfig.SNAPSHOT_FILE.isEmpty()) {
+            try {
+                TariffEngine.publish(StartupSnapshot.load(Paths.get(ServerConfig.SNAPSHOT_FILE)).getTariff());
+            } catch (IOException e) {
+                System.err.println("✗ " + e.getMessage());
+            }
+        }
+        int requests = ServerConfig.WARMUP_REQUESTS > 0 ? ServerConfig.WARMUP_REQUESTS : TRAINING_REQUESTS;
+        System.out.println("✓ Warm-up billed " + requests + " requests in " + run(requests, null) + " ms");
+        log.close();
+    }
+}
@@ -0,0 +1,127 @@
+package server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+
+/**
+ * WorkerPool - Runs client handlers with admission control
+ * Virtual mode starts one virtual thread per connection (Java 21+) and caps the
+ * number of connections in flight. Platform mode uses a fixed pool of threads
+ * with a bounded wait queue. Either way submit() returns false instead of
+ * letting work pile up, so the caller can send a busy reply.
+ */
+public class WorkerPool {
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final String mode;
+
+    private WorkerPool(ExecutorService executor, Semaphore permits, String mode) {
+        this.executor = executor;
+        this.permits = permits;
+        this.mode = mode;
+    }
+
+    /**
+     * Build the pool selected by ServerConfig.EXECUTION_MODE
+     */
+    public static WorkerPool create() {
+        if ("virtual".equalsIgnoreCase(ServerConfig.EXECUTION_MODE)) {
+            ExecutorService virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor != null) {
+                return new WorkerPool(virtualExecutor,
+                    new Semaphore(ServerConfig.MAX_CONNECTIONS), "virtual");
+            }
+            AsyncLogger.get().warn("Virtual threads not available on this JVM, using platform pool");
+        }
+        ThreadPoolExecutor platformExecutor = new ThreadPoolExecutor(
+            ServerConfig.MAX_WORKERS, ServerConfig.MAX_WORKERS,
+            60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(ServerConfig.QUEUE_LIMIT),
+            new NamedThreadFactory("billing-worker"),
+            new ThreadPoolExecutor.AbortPolicy());
+        return new WorkerPool(platformExecutor, null, "platform");
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() looked up reflectively so the
+     * project still builds and runs on Java 8-20
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hand a task to a worker
+     * @return false when the server is at capacity and the task was not accepted
+     */
+    public boolean submit(final Runnable task) {
+        if (permits != null && !permits.tryAcquire()) {
+            return false;
+        }
+        try {
+            if (permits == null) {
+                executor.execute(task);
+            } else {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            }
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (permits != null) permits.release();
+            return false;
+        }
+    }
+
+    /**
+     * Stop accepting tasks and wait for in-flight bills to finish
+     * @return true if every worker finished within the drain time
+     */
+    public boolean shutdown(long drainSeconds) {
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(drainSeconds, TimeUnit.SECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+        return false;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Thread factory that gives pool threads readable names
+     */
+    static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private int counter = 0;
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + "-" + (++counter));
+            t.setDaemon(false);
+            return t;
+        }
+    }
+}
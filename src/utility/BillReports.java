@@ -0,0 +1,441 @@
+package utility;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntToLongFunction;
+
+/**
+ * BillReports - Grouped totals, averages and percentiles over a PatientBillCollection
+ * Each report packs (group key, row) into one long per bill, sorts the
+ * packed array by key (a counting sort for dense keys, otherwise
+ * Arrays.parallelSort) and then aggregates the groups in parallel
+ * fork-join tasks. Every task keeps its own scratch buffer and
+ * partial totals, which are merged as the tasks join, so no amount is
+ * boxed and the work scales with the common pool.
+ *
+ * Reports read the collection directly and must not run while it is being
+ * modified.
+ */
+public final class BillReports {
+
+    /**
+     * PlanLookup - Insurance plan of a patient, typically loaded from the Patient table
+     */
+    public interface PlanLookup {
+        /**
+         * @return the plan, or null if the patient is unknown
+         */
+        String planOf(int patientId);
+    }
+
+    /**
+     * GroupStats - Aggregates of one group, amounts in OMR
+     */
+    public static final class GroupStats {
+        public final String group;
+        public final int count;
+        public final double total;
+        public final double average;
+        public final double min;
+        public final double max;
+        public final double p50;
+        public final double p90;
+        public final double p99;
+
+        GroupStats(String group, int count, long total, long min, long max, long p50, long p90, long p99) {
+            this.group = group;
+            this.count = count;
+            this.total = total / MINOR_UNITS;
+            this.average = total / MINOR_UNITS / count;
+            this.min = min / MINOR_UNITS;
+            this.max = max / MINOR_UNITS;
+            this.p50 = p50 / MINOR_UNITS;
+            this.p90 = p90 / MINOR_UNITS;
+            this.p99 = p99 / MINOR_UNITS;
+        }
+
+        @Override
+        public String toString() {
+            return group + " | Bills: " + count
+                + " | Total: OMR " + String.format("%.2f", total)
+                + " | Avg: " + String.format("%.2f", average)
+                + " | P50: " + String.format("%.2f", p50)
+                + " | P90: " + String.format("%.2f", p90)
+                + " | P99: " + String.format("%.2f", p99);
+        }
+    }
+
+    /**
+     * Report - Groups in key order plus the overall totals
+     */
+    public static final class Report {
+        public final String title;
+        public final List<GroupStats> groups;
+        public final long billCount;
+        public final double totalAmount;
+        public final long elapsedMillis;
+
+        Report(String title, List<GroupStats> groups, long billCount, long totalAmount, long elapsedMillis) {
+            this.title = title;
+            this.groups = Collections.unmodifiableList(groups);
+            this.billCount = billCount;
+            this.totalAmount = totalAmount / MINOR_UNITS;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Print the first maxGroups groups and the totals
+         */
+        public void print(PrintStream out, int maxGroups) {
+            out.println("\n--- " + title + " ---");
+            out.println("=====================================");
+            for (int i = 0; i < groups.size() && i < maxGroups; i++) {
+                out.println(groups.get(i));
+            }
+            if (groups.size() > maxGroups) {
+                out.println("... " + (groups.size() - maxGroups) + " more");
+            }
+            out.println("=====================================");
+            out.println("Groups: " + groups.size() + " | Bills: " + billCount
+                + " | Total Amount: OMR " + String.format("%.2f", totalAmount)
+                + " | " + elapsedMillis + " ms");
+        }
+
+        /**
+         * Write every group as CSV: group,count,total,average,min,max,p50,p90,p99
+         */
+        public void writeCsv(Appendable out) throws IOException {
+            out.append("group,count,total,average,min,max,p50,p90,p99\n");
+            for (GroupStats g : groups) {
+                out.append(g.group).append(',').append(Integer.toString(g.count))
+                    .append(',').append(String.format("%.3f", g.total))
+                    .append(',').append(String.format("%.3f", g.average))
+                    .append(',').append(String.format("%.3f", g.min))
+                    .append(',').append(String.format("%.3f", g.max))
+                    .append(',').append(String.format("%.3f", g.p50))
+                    .append(',').append(String.format("%.3f", g.p90))
+                    .append(',').append(String.format("%.3f", g.p99))
+                    .append('\n');
+            }
+        }
+    }
+
+    private static final double MINOR_UNITS = 1000.0;
+    // Key for bills whose visit date was not YYYY-MM-DD; real months are >= 0
+    private static final int UNKNOWN_MONTH = -1;
+    // A task stops splitting once its groups hold no more bills than this
+    private static final int MIN_TASK_ROWS = 1 << 14;
+    // Groups at least this big sort their amounts with parallelSort
+    private static final int PARALLEL_SORT_ROWS = 1 << 16;
+
+    private BillReports() {
+    }
+
+    /**
+     * Totals per patient, in patient id order
+     */
+    public static Report byPatient(final PatientBillCollection bills) {
+        long start = System.currentTimeMillis();
+        long[] packed = packed(bills, new KeyFunction() {
+            @Override
+            public int keyOf(int row) {
+                return bills.patientIdAt(row);
+            }
+        });
+        return aggregate("Bills per Patient", bills, packed, new Labeler() {
+            @Override
+            public String label(int key) {
+                return "Patient " + key;
+            }
+        }, start);
+    }
+
+    /**
+     * Totals per visit month (YYYY-MM), oldest first
+     */
+    public static Report byMonth(final PatientBillCollection bills) {
+        long start = System.currentTimeMillis();
+        long[] packed = packed(bills, new KeyFunction() {
+            @Override
+            public int keyOf(int row) {
+                return monthOf(bills.visitDayAt(row));
+            }
+        });
+        return aggregate("Bills per Month", bills, packed, new Labeler() {
+            @Override
+            public String label(int key) {
+                if (key == UNKNOWN_MONTH) return "Unknown";
+                int year = Math.floorDiv(key, 12);
+                int month = Math.floorMod(key, 12) + 1;
+                return String.format("%04d-%02d", year, month);
+            }
+        }, start);
+    }
+
+    /**
+     * Totals per insurance plan, in plan name order
+     * Each patient's plan is looked up once.
+     */
+    public static Report byInsurancePlan(final PatientBillCollection bills, PlanLookup plans) {
+        long start = System.currentTimeMillis();
+        long[] packed = packed(bills, new KeyFunction() {
+            @Override
+            public int keyOf(int row) {
+                return bills.patientIdAt(row);
+            }
+        });
+
+        // One lookup per patient; rows of a patient are adjacent after the sort
+        List<String> patientPlans = new ArrayList<>();
+        Map<String, Integer> planIds = new TreeMap<>();
+        for (int i = 0; i < packed.length; i++) {
+            if (i == 0 || (packed[i] >> 32) != (packed[i - 1] >> 32)) {
+                String plan = plans.planOf((int) (packed[i] >> 32));
+                plan = plan == null ? "Unknown" : plan;
+                patientPlans.add(plan);
+                planIds.put(plan, 0);
+            }
+        }
+
+        // Plan ids follow name order, so the report comes out sorted by plan
+        final String[] labels = planIds.keySet().toArray(new String[0]);
+        for (int i = 0; i < labels.length; i++) {
+            planIds.put(labels[i], i);
+        }
+        int[] planOfPatient = new int[patientPlans.size()];
+        for (int p = 0; p < planOfPatient.length; p++) {
+            planOfPatient[p] = planIds.get(patientPlans.get(p));
+        }
+
+        // Re-key every row by its patient's plan
+        long previousPatient = 0;
+        for (int i = 0, p = -1; i < packed.length; i++) {
+            long patient = packed[i] >> 32;
+            if (i == 0 || patient != previousPatient) p++;
+            previousPatient = patient;
+            packed[i] = ((long) planOfPatient[p] << 32) | (packed[i] & 0xFFFFFFFFL);
+        }
+        packed = sortByKey(packed);
+        return aggregate("Bills per Insurance Plan", bills, packed, new Labeler() {
+            @Override
+            public String label(int key) {
+                return labels[key];
+            }
+        }, start);
+    }
+
+    /**
+     * Month key (year * 12 + month - 1) of an epoch day, UNKNOWN_MONTH for raw dates
+     * Civil-from-days conversion, to avoid a LocalDate per bill.
+     */
+    static int monthOf(int epochDay) {
+        if (epochDay < PatientBillCollection.MIN_VISIT_DAY) {
+            return UNKNOWN_MONTH;
+        }
+        long z = epochDay + 719468L;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return (int) (year * 12 + month - 1);
+    }
+
+    private interface KeyFunction {
+        int keyOf(int row);
+    }
+
+    private interface Labeler {
+        String label(int key);
+    }
+
+    /**
+     * (key << 32 | row) for every live row, sorted by key
+     */
+    private static long[] packed(PatientBillCollection collection, final KeyFunction keys) {
+        int rows = collection.liveRows();
+        long[] packed = new long[rows];
+        Arrays.parallelSetAll(packed, new IntToLongFunction() {
+            @Override
+            public long applyAsLong(int row) {
+                return ((long) keys.keyOf(row) << 32) | row;
+            }
+        });
+        return sortByKey(packed);
+    }
+
+    /**
+     * Sort packed entries by key
+     * Keys spanning no more values than there are entries (months, plans,
+     * dense patient ids) are placed with a counting sort in O(n); anything
+     * sparser goes through Arrays.parallelSort.
+     */
+    private static long[] sortByKey(long[] packed) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (long entry : packed) {
+            int key = (int) (entry >> 32);
+            if (key < min) min = key;
+            if (key > max) max = key;
+        }
+        long range = (long) max - min + 1;
+        if (packed.length == 0 || range > packed.length) {
+            Arrays.parallelSort(packed);
+            return packed;
+        }
+        int[] next = new int[(int) range + 1];
+        for (long entry : packed) {
+            next[(int) ((entry >> 32) - min) + 1]++;
+        }
+        for (int k = 1; k < next.length; k++) {
+            next[k] += next[k - 1];
+        }
+        // Stable, so rows within a key keep their order
+        long[] sorted = new long[packed.length];
+        for (long entry : packed) {
+            sorted[next[(int) ((entry >> 32) - min)]++] = entry;
+        }
+        return sorted;
+    }
+
+    private static Report aggregate(String title, PatientBillCollection collection, long[] packed,
+                                    Labeler labeler, long start) {
+        // Group boundaries in the sorted array
+        int groupCount = 0;
+        for (int i = 0; i < packed.length; i++) {
+            if (i == 0 || (packed[i] >> 32) != (packed[i - 1] >> 32)) groupCount++;
+        }
+        int[] starts = new int[groupCount + 1];
+        for (int i = 0, g = 0; i < packed.length; i++) {
+            if (i == 0 || (packed[i] >> 32) != (packed[i - 1] >> 32)) starts[g++] = i;
+        }
+        starts[groupCount] = packed.length;
+
+        GroupResults results = new GroupResults(groupCount);
+        Totals totals = ForkJoinPool.commonPool().invoke(
+            new GroupTask(collection, packed, starts, 0, groupCount, results));
+        List<GroupStats> groups = new ArrayList<>(groupCount);
+        for (int g = 0; g < groupCount; g++) {
+            groups.add(new GroupStats(labeler.label((int) (packed[starts[g]] >> 32)), results.counts[g],
+                results.totals[g], results.min[g], results.max[g],
+                results.p50[g], results.p90[g], results.p99[g]));
+        }
+        return new Report(title, groups, totals.billCount, totals.totalAmount,
+            System.currentTimeMillis() - start);
+    }
+
+    /**
+     * GroupResults - Per-group aggregates in baisa; each task fills its own groups
+     */
+    private static final class GroupResults {
+        final int[] counts;
+        final long[] totals;
+        final long[] min;
+        final long[] max;
+        final long[] p50;
+        final long[] p90;
+        final long[] p99;
+
+        GroupResults(int groups) {
+            counts = new int[groups];
+            totals = new long[groups];
+            min = new long[groups];
+            max = new long[groups];
+            p50 = new long[groups];
+            p90 = new long[groups];
+            p99 = new long[groups];
+        }
+    }
+
+    /**
+     * Totals - One task's partial bill count and amount, merged as tasks join
+     */
+    private static final class Totals {
+        long billCount = 0;
+        long totalAmount = 0;
+    }
+
+    /**
+     * GroupTask - Aggregates groups [from, to), splitting while the range holds many rows
+     */
+    private static final class GroupTask extends RecursiveTask<Totals> {
+        private static final long serialVersionUID = 1L;
+
+        private final PatientBillCollection collection;
+        private final long[] packed;
+        private final int[] starts;
+        private final int from;
+        private final int to;
+        private final GroupResults results;
+
+        GroupTask(PatientBillCollection collection, long[] packed, int[] starts,
+                  int from, int to, GroupResults results) {
+            this.collection = collection;
+            this.packed = packed;
+            this.starts = starts;
+            this.from = from;
+            this.to = to;
+            this.results = results;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from > 1 && starts[to] - starts[from] > MIN_TASK_ROWS) {
+                int mid = (from + to) >>> 1;
+                GroupTask left = new GroupTask(collection, packed, starts, from, mid, results);
+                GroupTask right = new GroupTask(collection, packed, starts, mid, to, results);
+                left.fork();
+                Totals merged = right.compute();
+                Totals other = left.join();
+                merged.billCount += other.billCount;
+                merged.totalAmount += other.totalAmount;
+                return merged;
+            }
+
+            Totals partial = new Totals();
+            // Scratch buffer owned by this task
+            long[] amounts = new long[16];
+            for (int g = from; g < to; g++) {
+                int first = starts[g];
+                int n = starts[g + 1] - first;
+                if (amounts.length < n) {
+                    amounts = new long[Math.max(n, amounts.length * 2)];
+                }
+                long total = 0;
+                for (int i = 0; i < n; i++) {
+                    long amount = collection.amountAt((int) packed[first + i]);
+                    amounts[i] = amount;
+                    total += amount;
+                }
+                if (n >= PARALLEL_SORT_ROWS) {
+                    Arrays.parallelSort(amounts, 0, n);
+                } else {
+                    Arrays.sort(amounts, 0, n);
+                }
+                results.counts[g] = n;
+                results.totals[g] = total;
+                results.min[g] = amounts[0];
+                results.max[g] = amounts[n - 1];
+                results.p50[g] = percentile(amounts, n, 50);
+                results.p90[g] = percentile(amounts, n, 90);
+                results.p99[g] = percentile(amounts, n, 99);
+                partial.billCount += n;
+                partial.totalAmount += total;
+            }
+            return partial;
+        }
+    }
+
+    /**
+     * Nearest-rank percentile of the first n sorted values
+     */
+    private static long percentile(long[] sorted, int n, int pct) {
+        int rank = (int) Math.ceil(pct / 100.0 * n);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
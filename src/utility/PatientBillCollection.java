@@ -1,10 +1,20 @@
 package utility;
 
+import java.time.DateTimeException;
+import java.time.LocalDate;
 import java.util.*;
 
 /**
- * PatientBillCollection - Utility class using Collections
- * Uses ArrayList and HashMap for bill management
+ * PatientBillCollection - Utility class for bill management
+ * Bills are stored column-wise in primitive arrays (patient id, name
+ * reference, epoch-day visit date, amount in baisa) rather than one object
+ * per bill, and a primitive hash index chains each patient's rows, so ten
+ * million bills need roughly 25 bytes each. Sorted secondary indexes on
+ * visit date and amount answer range and top-N queries without a scan.
+ * The index also keeps each patient's bill count, total and latest visit
+ * as bills are added and removed, so a patient summary is one lookup.
+ * Removing a patient deletes its rows from the sorted indexes at once, so
+ * range queries never pass over removed bills.
  */
 public class PatientBillCollection {
     
@@ -30,16 +40,84 @@ public class PatientBillCollection {
         }
     }
     
-    // ArrayList to store bills
-    private List<PatientBill> billList;
-    
-    // HashMap to store bills by patient ID for quick access
-    private Map<Integer, List<PatientBill>> billMap;
+    // Running totals of one patient's bills
+    public static class PatientSummary {
+        public int patientId;
+        public String patientName;
+        public int billCount;
+        public double totalAmount;
+        // Latest YYYY-MM-DD visit date, null if none of the dates are YYYY-MM-DD
+        public String lastVisitDate;
+        
+        public PatientSummary(int patientId, String patientName, int billCount, double totalAmount,
+                              String lastVisitDate) {
+            this.patientId = patientId;
+            this.patientName = patientName;
+            this.billCount = billCount;
+            this.totalAmount = totalAmount;
+            this.lastVisitDate = lastVisitDate;
+        }
+        
+        @Override
+        public String toString() {
+            return "ID: " + patientId + " | Name: " + patientName +
+                   " | Bills: " + billCount + " | Total: OMR " +
+                   String.format("%.2f", totalAmount) +
+                   " | Last Visit: " + (lastVisitDate != null ? lastVisitDate : "-");
+        }
+    }
     
+    // Amounts are held as whole baisa (1/1000 OMR)
+    private static final double MINOR_UNITS = 1000.0;
+    // Visit dates that are not ISO yyyy-MM-dd are kept verbatim in the text
+    // dictionary and stored as RAW_DATE + their dictionary index
+    private static final int RAW_DATE = Integer.MIN_VALUE;
+    // Every ISO date encodes above this, every raw date below it
+    static final int MIN_VISIT_DAY = RAW_DATE / 2;
+    private static final int NONE = -1;
+
+    // Bill columns; rows [0, rowCount) are in the order bills were added
+    private int[] patientIds;
+    private int[] nameRefs;
+    private int[] visitDays;
+    private long[] amounts;
+    // Next row of the same patient, NONE at the end of the chain
+    private int[] nextRow;
+    // One bit per row, set once the row has been removed
+    private long[] tombstones;
+    private int rowCount = 0;
+    private int removedCount = 0;
+    private long totalAmount = 0;
+    // Changes whenever rows are added, removed or renumbered, for fail-fast views
+    private int modCount = 0;
+
+    // Patient names and non-ISO dates, each distinct string stored once with
+    // the number of rows using it; unused entries are freed for reuse
+    private final List<String> texts = new ArrayList<>();
+    private final Map<String, Integer> textRefs = new HashMap<>();
+    private int[] textUses = new int[16];
+    private int[] freeTexts = new int[16];
+    private int freeTextCount = 0;
+
+    // Patient id to its chain of rows
+    private final PatientIndex index = new PatientIndex();
+    // Rows ordered by visit date and by amount, for range and top-N queries
+    private final SortedRowIndex dateIndex = new SortedRowIndex();
+    private final SortedRowIndex amountIndex = new SortedRowIndex();
+
     // Constructor
     public PatientBillCollection() {
-        this.billList = new ArrayList<>();
-        this.billMap = new HashMap<>();
+        this(16);
+    }
+
+    public PatientBillCollection(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        patientIds = new int[capacity];
+        nameRefs = new int[capacity];
+        visitDays = new int[capacity];
+        amounts = new long[capacity];
+        nextRow = new int[capacity];
+        tombstones = new long[(capacity + 63) >>> 6];
     }
     
     /**
@@ -65,19 +143,365 @@ public class PatientBillCollection {
         
         // Create new bill object
         PatientBill bill = new PatientBill(patientId, patientName, visitDate, billAmount);
-        
-        // Add to ArrayList
-        billList.add(bill);
-        
-        // Add to HashMap
-        if (!billMap.containsKey(patientId)) {
-            billMap.put(patientId, new ArrayList<>());
-        }
-        billMap.get(patientId).add(bill);
+        addBill(bill);
         
         System.out.println("✓ Bill added successfully");
     }
     
+    /**
+     * Add a bill without prompting
+     */
+    public void addBill(PatientBill bill) {
+        if (rowCount == patientIds.length) {
+            grow();
+        }
+        modCount++;
+        int row = rowCount++;
+        patientIds[row] = bill.patientId;
+        nameRefs[row] = textRef(bill.patientName);
+        visitDays[row] = encodeDate(bill.visitDate);
+        amounts[row] = Math.round(bill.billAmount * MINOR_UNITS);
+        nextRow[row] = NONE;
+        totalAmount += amounts[row];
+
+        // Link the row at the end of the patient's chain
+        int previous = index.append(bill.patientId, row, amounts[row], visitDays[row]);
+        if (previous != NONE) {
+            nextRow[previous] = row;
+        }
+        dateIndex.add(visitDays[row], row);
+        amountIndex.add(amounts[row], row);
+    }
+    
+    /**
+     * All bills of one patient, empty if there are none
+     */
+    public List<PatientBill> getBills(int patientId) {
+        int slot = index.find(patientId);
+        if (slot < 0) {
+            return Collections.<PatientBill>emptyList();
+        }
+        List<PatientBill> bills = new ArrayList<>(index.counts[slot]);
+        for (int row = index.heads[slot]; row != NONE; row = nextRow[row]) {
+            bills.add(toBill(row));
+        }
+        return Collections.unmodifiableList(bills);
+    }
+    
+    /**
+     * Bill count, total and latest visit of one patient, or null if there are no bills
+     * Read from the running totals, without visiting the patient's bills.
+     */
+    public PatientSummary getSummary(int patientId) {
+        int slot = index.find(patientId);
+        if (slot < 0) {
+            return null;
+        }
+        int lastDay = index.lastDays[slot];
+        return new PatientSummary(patientId, texts.get(nameRefs[index.tails[slot]]), index.counts[slot],
+            index.totals[slot] / MINOR_UNITS, lastDay >= MIN_VISIT_DAY ? decodeDate(lastDay) : null);
+    }
+    
+    /**
+     * Remove all bills of one patient without prompting
+     * The rows leave the sorted indexes straight away, which costs a binary
+     * search per row and run plus closing up each run once. In the columns
+     * they are only marked removed; the columns are compacted once removed
+     * rows outnumber live ones.
+     * @return number of bills removed
+     */
+    public int removeBills(int patientId) {
+        int slot = index.find(patientId);
+        if (slot < 0) {
+            return 0;
+        }
+        int removed = index.counts[slot];
+        int[] rows = new int[removed];
+        long[] dateKeys = new long[removed];
+        long[] amountKeys = new long[removed];
+        int i = 0;
+        for (int row = index.heads[slot]; row != NONE; row = nextRow[row]) {
+            rows[i] = row;
+            dateKeys[i] = visitDays[row];
+            amountKeys[i] = amounts[row];
+            i++;
+            tombstones[row >>> 6] |= 1L << row;
+            totalAmount -= amounts[row];
+            releaseText(nameRefs[row]);
+            if (visitDays[row] < MIN_VISIT_DAY) {
+                releaseText(visitDays[row] - RAW_DATE);
+            }
+        }
+        index.remove(slot);
+        dateIndex.remove(dateKeys, rows, removed);
+        amountIndex.remove(amountKeys, rows, removed);
+        removedCount += removed;
+        modCount++;
+
+        // Removed rows at the end are in no index any more, so they can simply be dropped
+        while (rowCount > 0 && isRemoved(rowCount - 1)) {
+            rowCount--;
+            tombstones[rowCount >>> 6] &= ~(1L << rowCount);
+            removedCount--;
+        }
+        if (removedCount > 1024 && removedCount > rowCount - removedCount) {
+            compact();
+        }
+        return removed;
+    }
+    
+    /**
+     * Bills with a visit date from fromDate to toDate inclusive (YYYY-MM-DD), oldest first
+     */
+    public List<PatientBill> getBillsBetween(String fromDate, String toDate) {
+        long from = LocalDate.parse(fromDate).toEpochDay();
+        long to = LocalDate.parse(toDate).toEpochDay();
+        return collect(dateIndex.range(from, to, false), Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Bills of at least minAmount and at most maxAmount OMR, smallest first
+     */
+    public List<PatientBill> getBillsByAmount(double minAmount, double maxAmount) {
+        long from = Math.round(minAmount * MINOR_UNITS);
+        long to = Math.round(maxAmount * MINOR_UNITS);
+        return collect(amountIndex.range(from, to, false), Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Bills of more than amount OMR, smallest first
+     */
+    public List<PatientBill> getBillsOver(double amount) {
+        long from = Math.round(amount * MINOR_UNITS) + 1;
+        return collect(amountIndex.range(from, Long.MAX_VALUE, false), Integer.MAX_VALUE);
+    }
+    
+    /**
+     * The n largest bills, largest first
+     */
+    public List<PatientBill> getTopBills(int n) {
+        return collect(amountIndex.range(Long.MIN_VALUE, Long.MAX_VALUE, true), n);
+    }
+    
+    /**
+     * The n bills with the latest visit dates, latest first
+     * Visit dates that are not YYYY-MM-DD are left out.
+     */
+    public List<PatientBill> getLatestBills(int n) {
+        return collect(dateIndex.range(MIN_VISIT_DAY, Long.MAX_VALUE, true), n);
+    }
+    
+    private List<PatientBill> collect(SortedRowIndex.Cursor cursor, int limit) {
+        List<PatientBill> bills = new ArrayList<>();
+        int row;
+        while (bills.size() < limit && (row = cursor.next()) >= 0) {
+            bills.add(toBill(row));
+        }
+        return Collections.unmodifiableList(bills);
+    }
+    
+    /**
+     * All bills in the order they were added
+     * A read-only view; each element is materialized when it is read. Removed
+     * rows are compacted away here, once, so reading the view never moves rows.
+     * Like the java.util collections, it fails fast with a
+     * ConcurrentModificationException once the collection changes.
+     */
+    public List<PatientBill> getAllBills() {
+        if (removedCount > 0) {
+            compact();
+        }
+        final int expectedModCount = modCount;
+        return new AbstractList<PatientBill>() {
+            @Override
+            public PatientBill get(int i) {
+                checkUnmodified();
+                if (i < 0 || i >= rowCount) {
+                    throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + rowCount);
+                }
+                return toBill(i);
+            }
+
+            @Override
+            public int size() {
+                checkUnmodified();
+                return rowCount;
+            }
+
+            private void checkUnmodified() {
+                if (PatientBillCollection.this.modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        };
+    }
+    
+    public int size() {
+        return rowCount - removedCount;
+    }
+    
+    /**
+     * Sum of all bill amounts
+     */
+    public double getTotalAmount() {
+        return totalAmount / MINOR_UNITS;
+    }
+    
+    /**
+     * Drop removed rows so that rows [0, n) are all live, for BillReports
+     * @return n
+     */
+    int liveRows() {
+        if (removedCount > 0) {
+            compact();
+        }
+        return rowCount;
+    }
+    
+    int patientIdAt(int row) {
+        return patientIds[row];
+    }
+    
+    /**
+     * Amount in baisa
+     */
+    long amountAt(int row) {
+        return amounts[row];
+    }
+    
+    /**
+     * Visit date as an epoch day, or a value below MIN_VISIT_DAY if it was not YYYY-MM-DD
+     */
+    int visitDayAt(int row) {
+        return visitDays[row];
+    }
+    
+    private boolean isRemoved(int row) {
+        return (tombstones[row >>> 6] & (1L << row)) != 0;
+    }
+    
+    private PatientBill toBill(int row) {
+        return new PatientBill(patientIds[row], texts.get(nameRefs[row]),
+            decodeDate(visitDays[row]), amounts[row] / MINOR_UNITS);
+    }
+    
+    /**
+     * Dictionary reference for a text, counting one more use of it
+     */
+    private int textRef(String text) {
+        Integer ref = textRefs.get(text);
+        if (ref == null) {
+            if (freeTextCount > 0) {
+                ref = freeTexts[--freeTextCount];
+                texts.set(ref, text);
+            } else {
+                ref = texts.size();
+                texts.add(text);
+                if (ref == textUses.length) {
+                    textUses = Arrays.copyOf(textUses, ref * 2);
+                }
+            }
+            textRefs.put(text, ref);
+        }
+        textUses[ref]++;
+        return ref;
+    }
+    
+    /**
+     * Count one use of a text less, freeing its entry after the last one
+     */
+    private void releaseText(int ref) {
+        if (--textUses[ref] == 0) {
+            textRefs.remove(texts.get(ref));
+            texts.set(ref, null);
+            if (freeTextCount == freeTexts.length) {
+                freeTexts = Arrays.copyOf(freeTexts, freeTextCount * 2);
+            }
+            freeTexts[freeTextCount++] = ref;
+        }
+    }
+    
+    /**
+     * Epoch day of an ISO yyyy-MM-dd date, or RAW_DATE + text reference for anything else
+     */
+    private int encodeDate(String date) {
+        if (date.length() == 10 && date.charAt(4) == '-' && date.charAt(7) == '-') {
+            int year = digits(date, 0, 4);
+            int month = digits(date, 5, 7);
+            int day = digits(date, 8, 10);
+            if (year >= 0 && month >= 0 && day >= 0) {
+                try {
+                    return (int) LocalDate.of(year, month, day).toEpochDay();
+                } catch (DateTimeException e) {
+                    // not a real date, keep it verbatim
+                }
+            }
+        }
+        return RAW_DATE + textRef(date);
+    }
+    
+    private String decodeDate(int encoded) {
+        if (encoded < MIN_VISIT_DAY) {
+            return texts.get(encoded - RAW_DATE);
+        }
+        return LocalDate.ofEpochDay(encoded).toString();
+    }
+    
+    private static int digits(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    
+    private void grow() {
+        int capacity = patientIds.length * 2;
+        patientIds = Arrays.copyOf(patientIds, capacity);
+        nameRefs = Arrays.copyOf(nameRefs, capacity);
+        visitDays = Arrays.copyOf(visitDays, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        nextRow = Arrays.copyOf(nextRow, capacity);
+        tombstones = Arrays.copyOf(tombstones, (capacity + 63) >>> 6);
+    }
+    
+    /**
+     * Slide live rows down over removed ones and relink the patient chains
+     */
+    private void compact() {
+        int[] newRow = new int[rowCount];
+        int live = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (isRemoved(row)) {
+                newRow[row] = NONE;
+                continue;
+            }
+            newRow[row] = live;
+            patientIds[live] = patientIds[row];
+            nameRefs[live] = nameRefs[row];
+            visitDays[live] = visitDays[row];
+            amounts[live] = amounts[row];
+            live++;
+        }
+        Arrays.fill(tombstones, 0, (rowCount + 63) >>> 6, 0L);
+        rowCount = live;
+        removedCount = 0;
+        modCount++;
+        dateIndex.remap(newRow);
+        amountIndex.remap(newRow);
+
+        index.clear();
+        for (int row = 0; row < rowCount; row++) {
+            nextRow[row] = NONE;
+            int previous = index.append(patientIds[row], row, amounts[row], visitDays[row]);
+            if (previous != NONE) {
+                nextRow[previous] = row;
+            }
+        }
+    }
+    
     /**
      * Display bill(s) based on patient ID
      */
@@ -87,11 +511,12 @@ public class PatientBillCollection {
         int patientId = scanner.nextInt();
         scanner.nextLine();
         
-        if (billMap.containsKey(patientId)) {
+        int slot = index.find(patientId);
+        if (slot >= 0) {
             System.out.println("\nBills for Patient ID " + patientId + ":");
             System.out.println("=====================================");
-            for (PatientBill bill : billMap.get(patientId)) {
-                System.out.println(bill);
+            for (int row = index.heads[slot]; row != NONE; row = nextRow[row]) {
+                System.out.println(toBill(row));
             }
             System.out.println("=====================================");
         } else {
@@ -99,6 +524,23 @@ public class PatientBillCollection {
         }
     }
     
+    /**
+     * Display the running totals of one patient
+     */
+    public void displaySummary(Scanner scanner) {
+        System.out.println("\n--- Patient Summary ---");
+        System.out.print("Enter Patient ID: ");
+        int patientId = scanner.nextInt();
+        scanner.nextLine();
+        
+        PatientSummary summary = getSummary(patientId);
+        if (summary != null) {
+            System.out.println(summary);
+        } else {
+            System.out.println("✗ No bills found for Patient ID: " + patientId);
+        }
+    }
+    
     /**
      * iii. Remove element based on scenario
      * Removes all bills for a specific patient
@@ -109,42 +551,80 @@ public class PatientBillCollection {
         int patientId = scanner.nextInt();
         scanner.nextLine();
         
-        if (billMap.containsKey(patientId)) {
-            // Remove from HashMap
-            List<PatientBill> billsToRemove = billMap.get(patientId);
-            
-            // Remove from ArrayList
-            billList.removeAll(billsToRemove);
-            
-            // Remove from HashMap
-            billMap.remove(patientId);
-            
+        if (removeBills(patientId) > 0) {
             System.out.println("✓ All bills for Patient ID " + patientId + " removed successfully");
         } else {
             System.out.println("✗ No bills found for Patient ID: " + patientId);
         }
     }
     
+    /**
+     * Display bills with a visit date in a range
+     */
+    public void displayBillsBetween(Scanner scanner) {
+        System.out.println("\n--- Bills by Visit Date ---");
+        System.out.print("From Date (YYYY-MM-DD): ");
+        String fromDate = scanner.nextLine().trim();
+        System.out.print("To Date (YYYY-MM-DD): ");
+        String toDate = scanner.nextLine().trim();
+        
+        List<PatientBill> bills;
+        try {
+            bills = getBillsBetween(fromDate, toDate);
+        } catch (DateTimeException e) {
+            System.out.println("✗ Invalid date. Use YYYY-MM-DD");
+            return;
+        }
+        printBills(bills, "No bills found between " + fromDate + " and " + toDate);
+    }
+    
+    /**
+     * Display bills above an amount
+     */
+    public void displayBillsOver(Scanner scanner) {
+        System.out.println("\n--- Bills Over Amount ---");
+        System.out.print("Enter Amount (OMR): ");
+        double amount = scanner.nextDouble();
+        scanner.nextLine();
+        
+        printBills(getBillsOver(amount), "No bills over OMR " + String.format("%.2f", amount));
+    }
+    
+    private void printBills(List<PatientBill> bills, String emptyMessage) {
+        if (bills.isEmpty()) {
+            System.out.println("✗ " + emptyMessage);
+            return;
+        }
+        System.out.println("=====================================");
+        double total = 0;
+        for (PatientBill bill : bills) {
+            System.out.println(bill);
+            total += bill.billAmount;
+        }
+        System.out.println("=====================================");
+        System.out.println("Bills: " + bills.size() + " | Amount: OMR " + String.format("%.2f", total));
+    }
+    
     /**
      * iv. Iterate through the Utility class
      * Display all bills with enhanced formatting
      */
     public void displayAllBills() {
         System.out.println("\n--- All Bills in System ---");
-        if (billList.isEmpty()) {
+        if (size() == 0) {
             System.out.println("✗ No bills in the system");
             return;
         }
         
         System.out.println("=====================================");
-        double totalBills = 0;
-        for (PatientBill bill : billList) {
-            System.out.println(bill);
-            totalBills += bill.billAmount;
+        for (int row = 0; row < rowCount; row++) {
+            if (!isRemoved(row)) {
+                System.out.println(toBill(row));
+            }
         }
         System.out.println("=====================================");
-        System.out.println("Total Bills: " + billList.size());
-        System.out.println("Total Amount: OMR " + String.format("%.2f", totalBills));
+        System.out.println("Total Bills: " + size());
+        System.out.println("Total Amount: OMR " + String.format("%.2f", getTotalAmount()));
         System.out.println("=====================================");
     }
     
@@ -158,8 +638,11 @@ public class PatientBillCollection {
             System.out.println("2. Display Bill (by Patient ID)");
             System.out.println("3. Remove Bill (by Patient ID)");
             System.out.println("4. Display All Bills");
-            System.out.println("5. Exit");
-            System.out.print("Enter your choice (1-5): ");
+            System.out.println("5. Display Bills by Visit Date");
+            System.out.println("6. Display Bills Over Amount");
+            System.out.println("7. Display Patient Summary");
+            System.out.println("8. Exit");
+            System.out.print("Enter your choice (1-8): ");
             
             int choice = scanner.nextInt();
             scanner.nextLine();
@@ -178,6 +661,15 @@ public class PatientBillCollection {
                     displayAllBills();
                     break;
                 case 5:
+                    displayBillsBetween(scanner);
+                    break;
+                case 6:
+                    displayBillsOver(scanner);
+                    break;
+                case 7:
+                    displaySummary(scanner);
+                    break;
+                case 8:
                     System.out.println("Thank you for using the system!");
                     return;
                 default:
@@ -185,4 +677,124 @@ public class PatientBillCollection {
             }
         }
     }
+    
+    /**
+     * PatientIndex - Open-addressing map from patient id to the first and
+     * last row of that patient's chain, without boxing the keys
+     * Each slot also carries the patient's bill total in baisa and the
+     * highest encoded visit day, which is an ISO day whenever there is one.
+     */
+    private static final class PatientIndex {
+        int[] keys = new int[16];
+        int[] heads = new int[16];
+        int[] tails = new int[16];
+        // 0 marks an empty slot; every stored patient has at least one bill
+        int[] counts = new int[16];
+        long[] totals = new long[16];
+        int[] lastDays = new int[16];
+        int size = 0;
+        
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+        
+        int find(int key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; counts[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) return slot;
+            }
+            return -1;
+        }
+        
+        /**
+         * Add a row to the end of a patient's chain and to its totals
+         * @return the previous last row, or NONE for a new patient
+         */
+        int append(int key, int row, long amount, int visitDay) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (counts[slot] != 0) {
+                if (keys[slot] == key) {
+                    int previous = tails[slot];
+                    tails[slot] = row;
+                    counts[slot]++;
+                    totals[slot] += amount;
+                    lastDays[slot] = Math.max(lastDays[slot], visitDay);
+                    return previous;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            heads[slot] = row;
+            tails[slot] = row;
+            counts[slot] = 1;
+            totals[slot] = amount;
+            lastDays[slot] = visitDay;
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+            return NONE;
+        }
+        
+        /**
+         * Empty a slot, shifting later probes back so lookups still find them
+         */
+        void remove(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            int probe = (slot + 1) & mask;
+            while (counts[probe] != 0) {
+                int home = hash(keys[probe]) & mask;
+                boolean between = hole <= probe ? (home > hole && home <= probe) : (home > hole || home <= probe);
+                if (!between) {
+                    keys[hole] = keys[probe];
+                    heads[hole] = heads[probe];
+                    tails[hole] = tails[probe];
+                    counts[hole] = counts[probe];
+                    totals[hole] = totals[probe];
+                    lastDays[hole] = lastDays[probe];
+                    hole = probe;
+                }
+                probe = (probe + 1) & mask;
+            }
+            counts[hole] = 0;
+            size--;
+        }
+        
+        void clear() {
+            Arrays.fill(counts, 0);
+            size = 0;
+        }
+        
+        private void resize() {
+            int[] oldKeys = keys;
+            int[] oldHeads = heads;
+            int[] oldTails = tails;
+            int[] oldCounts = counts;
+            long[] oldTotals = totals;
+            int[] oldLastDays = lastDays;
+            int capacity = oldKeys.length * 2;
+            keys = new int[capacity];
+            heads = new int[capacity];
+            tails = new int[capacity];
+            counts = new int[capacity];
+            totals = new long[capacity];
+            lastDays = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldCounts[i] == 0) continue;
+                int slot = hash(oldKeys[i]) & mask;
+                while (counts[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                heads[slot] = oldHeads[i];
+                tails[slot] = oldTails[i];
+                counts[slot] = oldCounts[i];
+                totals[slot] = oldTotals[i];
+                lastDays[slot] = oldLastDays[i];
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,259 @@
+package utility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SortedRowIndex - Secondary index of (key, row) pairs in key order
+ * New entries go into a small sorted buffer; a full buffer becomes a sorted
+ * run, and two runs of the same level are merged into one run of the next
+ * level, like carries in a binary counter, so there are O(log n) runs and
+ * each entry is copied O(log n) times. A range lookup binary-searches every
+ * run and merges their slices on the fly.
+ * Every row in a run is below every row in the runs after it, so entries
+ * with equal keys are ordered by row simply by taking the older run first.
+ * Removed rows are deleted from the runs straight away, so a range lookup
+ * only ever visits live entries: O(log n) per run plus the rows it returns.
+ */
+final class SortedRowIndex {
+    private static final int BUFFER_LIMIT = 256;
+
+    // Sorted runs, oldest and largest first
+    private final List<Run> runs = new ArrayList<>();
+    // Most recent additions, also sorted
+    private Run buffer = new Run(BUFFER_LIMIT, 0);
+
+    /**
+     * Run - Entries sorted by key, then row
+     */
+    private static final class Run {
+        final long[] keys;
+        final int[] rows;
+        // Number of merge rounds that built this run
+        final int level;
+        int size = 0;
+
+        Run(int capacity, int level) {
+            keys = new long[capacity];
+            rows = new int[capacity];
+            this.level = level;
+        }
+
+        /**
+         * First position whose key is >= key
+         */
+        int lowerBound(long key) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < key) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        /**
+         * First position whose key is > key
+         */
+        int upperBound(long key) {
+            return key == Long.MAX_VALUE ? size : lowerBound(key + 1);
+        }
+
+        /**
+         * Position of the (key, row) entry, or -1 if it is not in this run
+         * Equal keys are in row order, so the row is binary-searched too.
+         */
+        int find(long key, int row) {
+            int lo = lowerBound(key);
+            int hi = upperBound(key);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (rows[mid] < row) lo = mid + 1; else hi = mid;
+            }
+            return lo < size && keys[lo] == key && rows[lo] == row ? lo : -1;
+        }
+
+        /**
+         * Delete the entries at the given positions, which are sorted in place first
+         * Moves only the entries after the first deleted one.
+         */
+        void removeAt(int[] positions, int count) {
+            Arrays.sort(positions, 0, count);
+            int to = positions[0];
+            for (int i = 0; i < count; i++) {
+                int from = positions[i] + 1;
+                int until = i + 1 < count ? positions[i + 1] : size;
+                System.arraycopy(keys, from, keys, to, until - from);
+                System.arraycopy(rows, from, rows, to, until - from);
+                to += until - from;
+            }
+            size = to;
+        }
+    }
+
+    /**
+     * Index a row; it must be above every row already indexed
+     */
+    void add(long key, int row) {
+        if (buffer.size == BUFFER_LIMIT) {
+            seal();
+        }
+        // Rows only grow, so the entry goes after every equal key
+        int at = buffer.upperBound(key);
+        System.arraycopy(buffer.keys, at, buffer.keys, at + 1, buffer.size - at);
+        System.arraycopy(buffer.rows, at, buffer.rows, at + 1, buffer.size - at);
+        buffer.keys[at] = key;
+        buffer.rows[at] = row;
+        buffer.size++;
+    }
+
+    private void seal() {
+        runs.add(buffer);
+        buffer = new Run(BUFFER_LIMIT, 0);
+        int n;
+        while ((n = runs.size()) >= 2 && runs.get(n - 2).level == runs.get(n - 1).level) {
+            Run merged = merge(runs.get(n - 2), runs.remove(n - 1));
+            runs.set(n - 2, merged);
+        }
+    }
+
+    /**
+     * Merge an older run with the newer run that follows it
+     */
+    private static Run merge(Run older, Run newer) {
+        Run out = new Run(older.size + newer.size, Math.max(older.level, newer.level) + 1);
+        long[] keys = out.keys;
+        int[] rows = out.rows;
+        int i = 0, j = 0, k = 0;
+        while (i < older.size && j < newer.size) {
+            long olderKey = older.keys[i];
+            long newerKey = newer.keys[j];
+            int olderRow = older.rows[i];
+            int newerRow = newer.rows[j];
+            // Equal keys come from the older run, which holds the lower rows.
+            // Written as selects rather than a branch, which random keys would mispredict
+            boolean takeOlder = olderKey <= newerKey;
+            keys[k] = takeOlder ? olderKey : newerKey;
+            rows[k++] = takeOlder ? olderRow : newerRow;
+            i += takeOlder ? 1 : 0;
+            j += takeOlder ? 0 : 1;
+        }
+        System.arraycopy(older.keys, i, keys, k, older.size - i);
+        System.arraycopy(older.rows, i, rows, k, older.size - i);
+        k += older.size - i;
+        System.arraycopy(newer.keys, j, keys, k, newer.size - j);
+        System.arraycopy(newer.rows, j, rows, k, newer.size - j);
+        out.size = k + newer.size - j;
+        return out;
+    }
+
+    /**
+     * Delete the entries of removed rows; keys[i] must be the key rows[i] was added with
+     * Each run is searched for each entry and then closed up once. A removed
+     * row's number may be added again if it is above every row still indexed.
+     */
+    void remove(long[] keys, int[] rows, int count) {
+        int[] positions = new int[count];
+        for (int r = 0; r <= runs.size(); r++) {
+            Run run = r < runs.size() ? runs.get(r) : buffer;
+            int found = 0;
+            for (int i = 0; i < count; i++) {
+                int at = run.find(keys[i], rows[i]);
+                if (at >= 0) {
+                    positions[found++] = at;
+                }
+            }
+            if (found > 0) {
+                run.removeAt(positions, found);
+            }
+        }
+    }
+
+    /**
+     * Renumber rows after compaction; newRow[row] is -1 for rows no longer indexed
+     * Row numbers only move down and keep their order, so entries stay sorted.
+     */
+    void remap(int[] newRow) {
+        Run all = buffer;
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            all = merge(runs.get(i), all);
+        }
+        int kept = 0;
+        for (int i = 0; i < all.size; i++) {
+            int row = newRow[all.rows[i]];
+            if (row >= 0) {
+                all.keys[kept] = all.keys[i];
+                all.rows[kept] = row;
+                kept++;
+            }
+        }
+        all.size = kept;
+        runs.clear();
+        runs.add(all);
+        buffer = new Run(BUFFER_LIMIT, 0);
+    }
+
+    void clear() {
+        runs.clear();
+        buffer.size = 0;
+    }
+
+    /**
+     * Rows with from <= key <= to, in key order or reverse key order
+     */
+    Cursor range(long from, long to, boolean descending) {
+        return new Cursor(from, to, descending);
+    }
+
+    /**
+     * Cursor - Walks the matching slice of every run as one sorted sequence
+     * Only valid until the index is next modified.
+     */
+    final class Cursor {
+        private final boolean descending;
+        private final Run[] slices;
+        // Ascending: next position and exclusive end; descending: next position and inclusive start
+        private final int[] next;
+        private final int[] end;
+
+        Cursor(long from, long to, boolean descending) {
+            this.descending = descending;
+            int count = runs.size() + 1;
+            slices = new Run[count];
+            next = new int[count];
+            end = new int[count];
+            for (int i = 0; i < count; i++) {
+                Run run = i < runs.size() ? runs.get(i) : buffer;
+                int lo = run.lowerBound(from);
+                int hi = from > to ? lo : run.upperBound(to);
+                slices[i] = run;
+                next[i] = descending ? hi - 1 : lo;
+                end[i] = descending ? lo : hi;
+            }
+        }
+
+        /**
+         * @return the next row, or -1 when the range is exhausted
+         */
+        int next() {
+            int best = -1;
+            for (int i = 0; i < slices.length; i++) {
+                if (descending ? next[i] < end[i] : next[i] >= end[i]) continue;
+                if (best < 0 || isBefore(slices[i].keys[next[i]], slices[best].keys[next[best]])) {
+                    best = i;
+                }
+            }
+            if (best < 0) return -1;
+            int row = slices[best].rows[next[best]];
+            next[best] += descending ? -1 : 1;
+            return row;
+        }
+
+        /**
+         * Whether a key from a newer run goes before the current pick from an older run
+         */
+        private boolean isBefore(long newerKey, long olderKey) {
+            return descending ? newerKey >= olderKey : newerKey < olderKey;
+        }
+    }
+}